@@ -3,11 +3,15 @@ package com.muzi.part3.utils;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public class LoadRunnerUtils {
@@ -32,6 +36,22 @@ public class LoadRunnerUtils {
         private float fastestCostTime;
         // 最慢的请求耗时(ms)
         private float slowestCostTime;
+
+        // 以下指标仅在开启分配/GC分析模式(profiling=true)时采集
+        // 是否开启了分配/GC分析模式
+        private boolean profiling;
+        // 压测线程执行 command 期间分配的内存总量(byte)
+        private long allocatedBytes;
+        // 每个请求平均分配的内存(byte)
+        private long bytesPerRequest;
+        // 压测线程执行 command 消耗的CPU时间总和(ms)
+        private long cpuTime;
+        // 每个请求平均消耗的CPU时间(us)
+        private float cpuTimePerRequest;
+        // 压测期间发生的GC次数（所有收集器之和）
+        private long gcCount;
+        // 压测期间GC累计耗时(ms)
+        private long gcTime;
     }
     /**
      * 对 command 执行压测
@@ -44,6 +64,24 @@ public class LoadRunnerUtils {
      * @throws InterruptedException
      */
     public static <T> LoadRunnerResult run(int requests, int concurrency, Runnable command) throws InterruptedException {
+        return run(requests, concurrency, command, false);
+    }
+
+    /**
+     * 对 command 执行压测，可开启分配/GC分析模式
+     * <p>
+     * 开启后会额外统计：压测线程执行 command 期间分配的内存（{@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}）、
+     * 消耗的CPU时间，以及压测期间JVM的GC次数和GC耗时，并计算每个请求平均分配的内存
+     *
+     * @param requests    总请求数
+     * @param concurrency 并发数量
+     * @param command     需要执行的压测代码
+     * @param profiling   是否开启分配/GC分析模式
+     * @param <T>
+     * @return 压测结果 {@link LoadRunnerResult}
+     * @throws InterruptedException
+     */
+    public static <T> LoadRunnerResult run(int requests, int concurrency, Runnable command, boolean profiling) throws InterruptedException {
         log.info("压测开始......");
         //创建线程池，并将所有核心线程池都准备好
         ThreadPoolExecutor poolExecutor = new ThreadPoolExecutor(concurrency, concurrency,
@@ -60,10 +98,18 @@ public class LoadRunnerUtils {
         AtomicInteger fastestCostTime = new AtomicInteger(Integer.MAX_VALUE);
         AtomicInteger slowestCostTime = new AtomicInteger(Integer.MIN_VALUE);
 
+        //分配内存、CPU时间的累加器，多个压测线程同时累加，采用 LongAdder 减少竞争
+        ThreadProfiler profiler = profiling ? ThreadProfiler.create() : null;
+        LongAdder allocatedBytes = new LongAdder();
+        LongAdder cpuTimeNanos = new LongAdder();
+        long[] gcStart = profiling ? gcSnapshot() : null;
+
         long startTime = System.currentTimeMillis();
         //循环中使用线程池处理被压测的方法
         for (int i = 0; i < requests; i++) {
             poolExecutor.execute(() -> {
+                long allocatedStart = profiler != null ? profiler.allocatedBytes() : 0L;
+                long cpuTimeStart = profiler != null ? profiler.cpuTimeNanos() : 0L;
                 try {
                     long requestStartTime = System.currentTimeMillis();
                     //执行被压测的方法
@@ -83,6 +129,11 @@ public class LoadRunnerUtils {
                 } catch (Exception e) {
                     log.error(e.getMessage());
                 } finally {
+                    //无论成功失败，command 分配的内存和消耗的CPU都要算进去
+                    if (profiler != null) {
+                        allocatedBytes.add(profiler.allocatedBytes() - allocatedStart);
+                        cpuTimeNanos.add(profiler.cpuTimeNanos() - cpuTimeStart);
+                    }
                     countDownLatch.countDown();
                 }
             });
@@ -93,6 +144,7 @@ public class LoadRunnerUtils {
         poolExecutor.shutdown();
 
         long endTime = System.currentTimeMillis();
+        long[] gcEnd = profiling ? gcSnapshot() : null;
         log.info("压测结束，总耗时(ms):{}", (endTime - startTime));
 
 
@@ -107,9 +159,69 @@ public class LoadRunnerUtils {
         result.setTimePerRequest((float) result.getTimeTakenForTests() / (float) requests);
         result.setFastestCostTime(fastestCostTime.get());
         result.setSlowestCostTime(slowestCostTime.get());
+        if (profiling) {
+            result.setProfiling(true);
+            result.setAllocatedBytes(allocatedBytes.sum());
+            result.setBytesPerRequest(result.getAllocatedBytes() / requests);
+            result.setCpuTime(TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos.sum()));
+            result.setCpuTimePerRequest((float) TimeUnit.NANOSECONDS.toMicros(cpuTimeNanos.sum()) / (float) requests);
+            result.setGcCount(gcEnd[0] - gcStart[0]);
+            result.setGcTime(gcEnd[1] - gcStart[1]);
+        }
         return result;
     }
 
+    /**
+     * 获取当前JVM所有垃圾收集器的 [累计GC次数, 累计GC耗时(ms)]
+     */
+    private static long[] gcSnapshot() {
+        long count = 0, time = 0;
+        List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            //收集器不支持统计时返回-1，忽略
+            count += Math.max(gcBean.getCollectionCount(), 0);
+            time += Math.max(gcBean.getCollectionTime(), 0);
+        }
+        return new long[]{count, time};
+    }
+
+    /**
+     * 读取当前线程的内存分配量和CPU时间
+     * <p>
+     * 内存分配量依赖 HotSpot 扩展的 {@link com.sun.management.ThreadMXBean}，JVM 不支持时返回0
+     */
+    private static class ThreadProfiler {
+        private final java.lang.management.ThreadMXBean threadMXBean;
+        private final com.sun.management.ThreadMXBean allocationMXBean;
+
+        private ThreadProfiler(java.lang.management.ThreadMXBean threadMXBean) {
+            this.threadMXBean = threadMXBean;
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+                this.allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+                this.allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                this.allocationMXBean = null;
+                log.warn("当前JVM不支持统计线程内存分配，allocatedBytes 将为0");
+            }
+            if (threadMXBean.isCurrentThreadCpuTimeSupported()) {
+                threadMXBean.setThreadCpuTimeEnabled(true);
+            }
+        }
+
+        static ThreadProfiler create() {
+            return new ThreadProfiler(ManagementFactory.getThreadMXBean());
+        }
+
+        long allocatedBytes() {
+            return allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0L;
+        }
+
+        long cpuTimeNanos() {
+            return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0L;
+        }
+    }
+
     private static void setFastestCostTime(AtomicInteger fastestCostTime, int costTime) {
         while (true) {
             int fsCostTime = fastestCostTime.get();
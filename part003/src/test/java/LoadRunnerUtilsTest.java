@@ -43,6 +43,25 @@ public class LoadRunnerUtilsTest {
         print(loadRunnerResult);
     }
 
+    @Test
+    public void test3() throws InterruptedException {
+        //开启分配/GC分析模式，压测一段会产生大量临时对象的代码，观察每个请求平均分配的内存
+        //压测参数，总请求数量10000，并发10
+        int requests = 10000;
+        int concurrency = 10;
+
+        //调用压测工具类开始压测
+        LoadRunnerUtils.LoadRunnerResult loadRunnerResult = LoadRunnerUtils.run(requests, concurrency, () -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append(String.valueOf(i));
+            }
+        }, true);
+
+        //输出压测结果
+        print(loadRunnerResult);
+    }
+
     public void print(LoadRunnerUtils.LoadRunnerResult loadRunnerResult) {
         System.out.println("\n压测结果如下：");
         System.out.println("==============================");
@@ -55,6 +74,14 @@ public class LoadRunnerUtilsTest {
         printFormat("每个请求平均耗时(ms)", loadRunnerResult.getTimePerRequest());
         printFormat("最快的请求耗时(ms)", loadRunnerResult.getFastestCostTime());
         printFormat("最慢的请求耗时(ms)", loadRunnerResult.getSlowestCostTime());
+        if (loadRunnerResult.isProfiling()) {
+            printFormat("分配内存总量(byte)", loadRunnerResult.getAllocatedBytes());
+            printFormat("每个请求平均分配内存(byte)", loadRunnerResult.getBytesPerRequest());
+            printFormat("CPU时间总和(ms)", loadRunnerResult.getCpuTime());
+            printFormat("每个请求平均CPU时间(us)", loadRunnerResult.getCpuTimePerRequest());
+            printFormat("GC次数", loadRunnerResult.getGcCount());
+            printFormat("GC耗时(ms)", loadRunnerResult.getGcTime());
+        }
         System.out.println("==============================");
     }
 
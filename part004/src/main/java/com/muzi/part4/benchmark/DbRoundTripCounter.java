@@ -0,0 +1,106 @@
+package com.muzi.part4.benchmark;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计db交互次数：执行sql（execute*、executeBatch）、提交、回滚各算一次
+ * <br/><br/>
+ * 通过代理 DataSource -> Connection -> Statement 实现，MyBatis 和 JdbcTemplate 执行的sql都能统计到。
+ * 代理有一定开销，只在压测时开启：benchmark.count-db-round-trips=true
+ */
+@Component
+@ConditionalOnProperty(name = "benchmark.count-db-round-trips", havingValue = "true")
+public class DbRoundTripCounter implements BeanPostProcessor {
+
+    private final LongAdder roundTrips = new LongAdder();
+
+    /**
+     * 获取并清零
+     */
+    public long sumThenReset() {
+        return this.roundTrips.sumThenReset();
+    }
+
+    public long sum() {
+        return this.roundTrips.sum();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource) {
+            return proxy(DataSource.class, bean, (target, method, args) -> {
+                Object result = invoke(target, method, args);
+                if (result instanceof Connection) {
+                    return this.wrapConnection((Connection) result);
+                }
+                return result;
+            });
+        }
+        return bean;
+    }
+
+    private Connection wrapConnection(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            String name = method.getName();
+            if ("commit".equals(name) || "rollback".equals(name)) {
+                this.roundTrips.increment();
+            }
+            Object result = invoke(target, method, args);
+            if (result instanceof CallableStatement) {
+                return this.wrapStatement(CallableStatement.class, (Statement) result);
+            } else if (result instanceof PreparedStatement) {
+                return this.wrapStatement(PreparedStatement.class, (Statement) result);
+            } else if (result instanceof Statement) {
+                return this.wrapStatement(Statement.class, (Statement) result);
+            }
+            return result;
+        });
+    }
+
+    private <T extends Statement> T wrapStatement(Class<T> type, Statement statement) {
+        return proxy(type, statement, (target, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                this.roundTrips.increment();
+            }
+            return invoke(target, method, args);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(Object target, Method method, Object[] args) throws Throwable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, Handler handler) {
+        InvocationHandler invocationHandler = (p, method, args) -> {
+            //unwrap、isWrapperFor 直接交给被代理的对象
+            if ("unwrap".equals(method.getName()) || "isWrapperFor".equals(method.getName())) {
+                return invoke(target, method, args);
+            }
+            return handler.handle(target, method, args);
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, invocationHandler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.muzi.part4.benchmark;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 秒杀压测
+ * <br/><br/>
+ * 按 {@link FlashSaleBenchmarkConfig} 初始化商品、生成买家请求，依次压测每个方案，统计：
+ * <ol>
+ *     <li>吞吐量、请求耗时百分位</li>
+ *     <li>每个成功订单平均的db交互次数（需要开启 {@link DbRoundTripCounter}）</li>
+ *     <li>正确性：是否超卖、扣减库存数和成功人数是否一致、是否少卖</li>
+ * </ol>
+ */
+@Slf4j
+@Component
+public class FlashSaleBenchmark {
+
+    private static final String GOODS_ID_PREFIX = "bench-";
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Autowired(required = false)
+    private DbRoundTripCounter dbRoundTripCounter;
+
+    /**
+     * 依次压测每个方案
+     *
+     * @param config     压测参数
+     * @param strategies 需要压测的方案
+     * @return 每个方案的压测结果
+     * @throws InterruptedException
+     */
+    public List<FlashSaleBenchmarkResult> run(FlashSaleBenchmarkConfig config, List<FlashSaleStrategy> strategies) throws InterruptedException {
+        //每个买家要抢购的商品，所有方案使用同一份请求
+        int[] buyerGoods = this.buyerGoods(config);
+        List<FlashSaleBenchmarkResult> results = new ArrayList<>();
+        for (FlashSaleStrategy strategy : strategies) {
+            FlashSaleBenchmarkResult result = this.run(config, strategy, buyerGoods);
+            log.info("秒杀压测结果：{}", result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private FlashSaleBenchmarkResult run(FlashSaleBenchmarkConfig config, FlashSaleStrategy strategy, int[] buyerGoods) throws InterruptedException {
+        //1、初始化商品
+        String[] goodsIds = new String[config.getGoodsCount()];
+        for (int i = 0; i < goodsIds.length; i++) {
+            goodsIds[i] = GOODS_ID_PREFIX + i;
+            this.initGoods(goodsIds[i], config.getStock());
+            if (strategy.getAfterInit() != null) {
+                strategy.getAfterInit().accept(goodsIds[i]);
+            }
+        }
+
+        //2、并发抢购，记录每个请求的耗时和每个商品的成功、失败人数
+        ThreadPoolExecutor poolExecutor = new ThreadPoolExecutor(config.getConcurrency(), config.getConcurrency(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        poolExecutor.prestartAllCoreThreads();
+        int buyers = buyerGoods.length;
+        long[] costNanos = new long[buyers];
+        AtomicIntegerArray goodsSuccess = new AtomicIntegerArray(goodsIds.length);
+        AtomicIntegerArray goodsFail = new AtomicIntegerArray(goodsIds.length);
+        AtomicInteger errorNum = new AtomicInteger();
+        CountDownLatch countDownLatch = new CountDownLatch(buyers);
+        if (this.dbRoundTripCounter != null) {
+            this.dbRoundTripCounter.sumThenReset();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < buyers; i++) {
+            int buyer = i;
+            poolExecutor.execute(() -> {
+                int goodsIndex = buyerGoods[buyer];
+                long st = System.nanoTime();
+                try {
+                    if (strategy.getReduceStock().apply(goodsIds[goodsIndex]) == 0) {
+                        goodsFail.incrementAndGet(goodsIndex);
+                    } else {
+                        goodsSuccess.incrementAndGet(goodsIndex);
+                    }
+                } catch (Exception e) {
+                    errorNum.incrementAndGet();
+                    goodsFail.incrementAndGet(goodsIndex);
+                } finally {
+                    costNanos[buyer] = System.nanoTime() - st;
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        countDownLatch.await();
+        long costTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        poolExecutor.shutdown();
+        if (strategy.getAwaitDone() != null) {
+            strategy.getAwaitDone().run();
+        }
+        long dbRoundTrips = this.dbRoundTripCounter != null ? this.dbRoundTripCounter.sumThenReset() : -1;
+
+        //3、汇总结果，检查正确性
+        FlashSaleBenchmarkResult result = new FlashSaleBenchmarkResult();
+        result.setStrategy(strategy.getName());
+        result.setBuyers(buyers);
+        result.setConcurrency(config.getConcurrency());
+        result.setGoodsCount(goodsIds.length);
+        result.setTotalStock(config.getStock() * goodsIds.length);
+        result.setErrorNum(errorNum.get());
+        result.setCostTime(costTime);
+        result.setRequestsPerSecond(buyers * 1000f / Math.max(costTime, 1));
+        Arrays.sort(costNanos);
+        result.setP50(percentile(costNanos, 0.5));
+        result.setP90(percentile(costNanos, 0.9));
+        result.setP99(percentile(costNanos, 0.99));
+        result.setP999(percentile(costNanos, 0.999));
+        result.setMax(costNanos[buyers - 1] / 1_000_000f);
+        result.setDbRoundTrips(dbRoundTrips);
+
+        int successNum = 0, soldNum = 0, undersoldGoods = 0;
+        boolean negativeStock = false;
+        for (int i = 0; i < goodsIds.length; i++) {
+            int remain = this.readStock(strategy, goodsIds[i]);
+            successNum += goodsSuccess.get(i);
+            soldNum += config.getStock() - remain;
+            negativeStock |= remain < 0;
+            if (goodsFail.get(i) > 0 && remain > 0) {
+                undersoldGoods++;
+            }
+        }
+        result.setSuccessNum(successNum);
+        result.setFailNum(buyers - successNum);
+        result.setSoldNum(soldNum);
+        result.setOversold(negativeStock || successNum > result.getTotalStock());
+        result.setStockMismatch(soldNum != successNum);
+        result.setUndersoldGoods(undersoldGoods);
+        result.setDbRoundTripsPerSuccess(dbRoundTrips < 0 ? -1 : (float) dbRoundTrips / Math.max(successNum, 1));
+        return result;
+    }
+
+    /**
+     * 按 zipf 分布为每个买家选择要抢购的商品：第k个商品被选中的权重为 1 / (k+1)^skew
+     */
+    private int[] buyerGoods(FlashSaleBenchmarkConfig config) {
+        int goodsCount = config.getGoodsCount();
+        double[] cdf = new double[goodsCount];
+        double sum = 0;
+        for (int k = 0; k < goodsCount; k++) {
+            sum += 1 / Math.pow(k + 1, config.getSkew());
+            cdf[k] = sum;
+        }
+        Random random = new Random(config.getSeed());
+        int[] buyerGoods = new int[config.getBuyers()];
+        for (int i = 0; i < buyerGoods.length; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            buyerGoods[i] = Math.min(index >= 0 ? index : -index - 1, goodsCount - 1);
+        }
+        return buyerGoods;
+    }
+
+    private void initGoods(String goodsId, int stock) {
+        this.goodsMapper.deleteById(goodsId);
+        GoodsPO goodsPO = new GoodsPO();
+        goodsPO.setGoodsId(goodsId);
+        goodsPO.setGoodsName(goodsId);
+        goodsPO.setNum(stock);
+        goodsPO.setVersion(0L);
+        this.goodsMapper.insert(goodsPO);
+    }
+
+    private int readStock(FlashSaleStrategy strategy, String goodsId) {
+        if (strategy.getStockReader() != null) {
+            return strategy.getStockReader().apply(goodsId);
+        }
+        return this.goodsMapper.selectById(goodsId).getNum();
+    }
+
+    private static float percentile(long[] sortedNanos, double p) {
+        int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1_000_000f;
+    }
+}
@@ -0,0 +1,47 @@
+package com.muzi.part4.benchmark;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀压测参数
+ */
+@Data
+public class FlashSaleBenchmarkConfig {
+    /**
+     * 抢购人数（总请求数），每人买1件
+     */
+    private int buyers = 1000;
+
+    /**
+     * 并发线程数
+     */
+    private int concurrency = 100;
+
+    /**
+     * 每个商品的库存
+     */
+    private int stock = 100;
+
+    /**
+     * 参与抢购的商品数量
+     */
+    private int goodsCount = 1;
+
+    /**
+     * 热点倾斜程度，买家按 zipf 分布选择商品，0表示均匀分布，越大越集中在前几个商品上
+     */
+    private double skew = 0;
+
+    /**
+     * 生成买家选择商品序列的随机种子，相同种子下每个方案面对的请求完全相同
+     */
+    private long seed = 1;
+
+    /**
+     * 需要压测的方案名称，如：方案1，为空表示全部方案
+     */
+    private List<String> strategies = new ArrayList<>();
+}
@@ -0,0 +1,48 @@
+package com.muzi.part4.benchmark;
+
+import lombok.Data;
+
+/**
+ * 秒杀压测结果
+ */
+@Data
+public class FlashSaleBenchmarkResult {
+    // 方案名称
+    private String strategy;
+    // 抢购人数
+    private int buyers;
+    // 并发线程数
+    private int concurrency;
+    // 商品数量
+    private int goodsCount;
+    // 总库存
+    private int totalStock;
+    // 下单成功人数
+    private int successNum;
+    // 下单失败人数
+    private int failNum;
+    // 抛出异常的请求数（计入失败人数）
+    private int errorNum;
+    // 总耗时(ms)
+    private long costTime;
+    // 每秒请求数（吞吐量）
+    private float requestsPerSecond;
+    // 请求耗时百分位(ms)
+    private float p50;
+    private float p90;
+    private float p99;
+    private float p999;
+    private float max;
+    // db交互次数（执行sql、提交、回滚），未开启统计时为-1
+    private long dbRoundTrips;
+    // 每个成功订单平均的db交互次数
+    private float dbRoundTripsPerSuccess;
+    // 实际扣减的库存数（抢购前库存 - 抢购后库存）
+    private int soldNum;
+    // 是否超卖：成功人数超过总库存，或者有商品库存为负数
+    private boolean oversold;
+    // 扣减的库存数和成功人数是否不一致
+    private boolean stockMismatch;
+    // 少卖的商品数：有买家抢购失败，但是抢购结束后还有库存的商品
+    private int undersoldGoods;
+}
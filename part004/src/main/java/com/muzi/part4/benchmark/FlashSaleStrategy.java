@@ -0,0 +1,42 @@
+package com.muzi.part4.benchmark;
+
+import lombok.Data;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 一种秒杀下单方案
+ */
+@Data
+public class FlashSaleStrategy {
+    /**
+     * 方案名称
+     */
+    private final String name;
+
+    /**
+     * 扣减库存的函数，参数为商品id，返回值：1：表示抢购成功，0：表示抢购失败
+     */
+    private final Function<String, Integer> reduceStock;
+
+    /**
+     * 商品初始化后的回调，参数为商品id，可以在这里做预热、库存分段等操作
+     */
+    private Consumer<String> afterInit;
+
+    /**
+     * 读取商品剩余库存，参数为商品id，为空时读取 t_goods 中的库存
+     */
+    private Function<String, Integer> stockReader;
+
+    /**
+     * 所有请求返回后，等待异步处理完成（比如异步下单需要等待订单写入db）
+     */
+    private Runnable awaitDone;
+
+    public FlashSaleStrategy(String name, Function<String, Integer> reduceStock) {
+        this.name = name;
+        this.reduceStock = reduceStock;
+    }
+}
@@ -7,16 +7,36 @@ import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.muzi.part4.mapper.ConcurrencySafeMapper;
 import com.muzi.part4.po.ConcurrencySafePO;
 import com.muzi.part4.utils.IdUtils;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * 通过乐观锁版本号version(乐观锁)确保修改数据的安全性
+ * <br/><br/>
+ * 可选的两种减少并发失败的方式（见 application.yml 中的 concurrency-safe 配置）：
+ * <ol>
+ *     <li>失败重试：乐观锁更新失败后，回滚本次事务，等待一段随机的指数退避时间后重新执行整个 callback</li>
+ *     <li>本地分段锁：同一个key先在当前JVM内按key的hash加锁，同一节点上的并发请求在本地排队，只有跨节点的冲突才会走到乐观锁校验</li>
+ * </ol>
+ * 另外会在本地缓存每个key最后一次看到的version，稳定状态下每次调用只需要执行一条乐观锁update；
+ * 缓存的version过期（被其他节点修改过）时，乐观锁更新会失败，此时回滚事务、丢弃缓存，从db中查询version后再执行一次，不计入重试次数；
+ * 每次调用最多只有这一次，这一次不读缓存（竞争激烈时其他成功的请求会不断地把新的version放回缓存），之后的失败按正常的重试次数处理。
+ * key不存在时使用 insert ignore 创建，多个请求同时创建同一个key不会因为唯一键冲突报错。
+ * <br/>
+ * 调用方已经开启了事务时，本次执行加入外层事务，回滚会把外层事务标记为只能回滚，重试也无济于事，
+ * 所以不重试、不读也不写缓存的version，乐观锁更新失败时直接按失败处理。
  */
 @Component
 public class CasDbConcurrencySafe implements DbConcurrencySafe {
@@ -27,6 +47,69 @@ public class CasDbConcurrencySafe implements DbConcurrencySafe {
     @Autowired
     private ConcurrencySafeMapper concurrencySafeMapper;
 
+    /**
+     * 乐观锁更新失败后最多重试的次数，0表示不重试
+     */
+    @Value("${concurrency-safe.max-retries:0}")
+    private int maxRetries;
+
+    /**
+     * 第一次重试前退避的基础时间(ms)，之后每次翻倍
+     */
+    @Value("${concurrency-safe.backoff-base-ms:5}")
+    private long backoffBaseMs;
+
+    /**
+     * 退避时间的上限(ms)
+     */
+    @Value("${concurrency-safe.backoff-max-ms:200}")
+    private long backoffMaxMs;
+
+    /**
+     * 是否开启本地分段锁
+     */
+    @Value("${concurrency-safe.local-lock-enabled:false}")
+    private boolean localLockEnabled;
+
+    /**
+     * 本地分段锁的段数，会向上取整为2的幂
+     */
+    @Value("${concurrency-safe.local-lock-stripes:64}")
+    private int localLockStripes;
+
+    /**
+     * 本地缓存的key数量上限，0表示不缓存
+     */
+    @Value("${concurrency-safe.version-cache-size:10000}")
+    private int versionCacheSize;
+
+    private ReentrantLock[] locks;
+
+    /**
+     * safeKey -> 最后一次看到的version，LRU淘汰
+     */
+    private Map<String, Long> versionCache;
+
+    @PostConstruct
+    public void init() {
+        if (this.versionCacheSize > 0) {
+            int maxSize = this.versionCacheSize;
+            this.versionCache = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxSize;
+                }
+            });
+        }
+        if (this.localLockEnabled) {
+            int stripes = Integer.highestOneBit(Math.max(this.localLockStripes - 1, 1)) << 1;
+            this.locks = new ReentrantLock[stripes];
+            for (int i = 0; i < stripes; i++) {
+                this.locks[i] = new ReentrantLock();
+            }
+        }
+    }
+
     private ConcurrencySafePO getAndCreate(String key) {
         ConcurrencySafePO po = this.getByKey(key);
         if (po == null) {
@@ -34,15 +117,31 @@ public class CasDbConcurrencySafe implements DbConcurrencySafe {
             po.setId(IdUtils.generateId());
             po.setSafeKey(key);
             po.setVersion(0L);
-            this.concurrencySafeMapper.insert(po);
-        } else {
-            ConcurrencySafePO clonePO = new ConcurrencySafePO();
-            BeanUtils.copyProperties(po, clonePO);
-            po = clonePO;
+            //insert ignore：其他请求同时创建了这个key时，插入不生效，重新查询一次即可
+            if (this.concurrencySafeMapper.insertIgnore(po) == 0) {
+                po = this.getByKey(key);
+            }
         }
         return po;
     }
 
+    /**
+     * 优先从本地缓存中获取key的version，缓存中没有或者不使用缓存时查询db
+     *
+     * @return 只包含 safeKey、version 的 ConcurrencySafePO
+     */
+    private ConcurrencySafePO getVersion(String key, boolean useCache, boolean[] fromCache) {
+        Long version = useCache && this.versionCache != null ? this.versionCache.get(key) : null;
+        fromCache[0] = version != null;
+        if (version == null) {
+            version = this.getAndCreate(key).getVersion();
+        }
+        ConcurrencySafePO po = new ConcurrencySafePO();
+        po.setSafeKey(key);
+        po.setVersion(version);
+        return po;
+    }
+
     private ConcurrencySafePO getByKey(String key) {
         LambdaQueryWrapper<ConcurrencySafePO> query = Wrappers.lambdaQuery(ConcurrencySafePO.class).eq(ConcurrencySafePO::getSafeKey, key);
         return this.concurrencySafeMapper.selectOne(query);
@@ -50,35 +149,154 @@ public class CasDbConcurrencySafe implements DbConcurrencySafe {
 
     @Override
     public <T> T exec(String key, Supplier<T> callback, Consumer<T> successCallBack, Consumer<ConcurrencyFailException> failCallBack) {
-        return transactionTemplate.execute(status -> {
-            //1、获取 ConcurrencySafePO
-            ConcurrencySafePO po = this.getAndCreate(key);
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            //外层事务提交前，更新后的version对其他请求不可见，外层也可能回滚，不能写入缓存
+            this.evictVersion(key);
+            return this.execLocked(key, callback, successCallBack, failCallBack, false, false);
+        }
+        boolean useCache = true;
+        for (int attempt = 0; ; ) {
+            try {
+                return this.execLocked(key, callback, successCallBack, failCallBack, attempt < this.maxRetries, useCache);
+            } catch (RetryableConcurrencyFailException e) {
+                //本次事务已回滚；缓存的version过期导致的失败，直接用db中最新的version再执行一次（只有一次），否则退避后重试
+                //退避在锁外面，不能让同一个段上的其他key等待一个正在睡眠的失败者
+                if (e.staleCache) {
+                    useCache = false;
+                } else {
+                    this.backoff(attempt++);
+                }
+            }
+        }
+    }
+
+    /**
+     * 开启本地分段锁时，每次执行都单独加锁：同一节点上同一个key的请求在本地排队，锁需要包住整个事务，事务提交或回滚后释放
+     */
+    private <T> T execLocked(String key, Supplier<T> callback, Consumer<T> successCallBack, Consumer<ConcurrencyFailException> failCallBack, boolean retryable, boolean useCache) {
+        if (this.locks == null) {
+            return this.execOnce(key, callback, successCallBack, failCallBack, retryable, useCache);
+        }
+        ReentrantLock lock = this.lockFor(key);
+        lock.lock();
+        try {
+            return this.execOnce(key, callback, successCallBack, failCallBack, retryable, useCache);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行一次
+     *
+     * @param retryable 是否还可以重试，可以重试时乐观锁更新失败会回滚事务并抛出 {@link RetryableConcurrencyFailException}
+     * @param useCache  是否可以使用缓存的version，false时从db中查询
+     */
+    private <T> T execOnce(String key, Supplier<T> callback, Consumer<T> successCallBack, Consumer<ConcurrencyFailException> failCallBack, boolean retryable, boolean useCache) {
+        //乐观锁更新成功后的version，事务提交后才写入缓存
+        long[] newVersion = {-1L};
+        T r;
+        try {
+            r = transactionTemplate.execute(status -> this.doExec(key, callback, successCallBack, failCallBack, retryable, useCache, newVersion));
+        } catch (RuntimeException e) {
+            //事务回滚了，缓存中的version不一定可靠，丢弃
+            this.evictVersion(key);
+            throw e;
+        }
+        if (newVersion[0] >= 0 && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            this.cacheVersion(key, newVersion[0]);
+        } else {
+            this.evictVersion(key);
+        }
+        return r;
+    }
 
-            //2、执行业务操作
-            T result = callback.get();
+    private <T> T doExec(String key, Supplier<T> callback, Consumer<T> successCallBack, Consumer<ConcurrencyFailException> failCallBack, boolean retryable, boolean useCache, long[] newVersion) {
+        //1、获取 ConcurrencySafePO
+        boolean[] fromCache = {false};
+        ConcurrencySafePO po = this.getVersion(key, useCache, fromCache);
 
-            //3、乐观锁更新 ConcurrencySafePO
-            int updateCount = this.concurrencySafeMapper.optimisticUpdate(po);
+        //2、执行业务操作
+        T result = callback.get();
 
-            //成功执行回调
-            if (updateCount == 1 && successCallBack != null) {
+        //3、乐观锁更新 ConcurrencySafePO
+        int updateCount = this.concurrencySafeMapper.optimisticUpdate(po);
+
+        //成功执行回调
+        if (updateCount == 1) {
+            newVersion[0] = po.getVersion() + 1;
+            if (successCallBack != null) {
                 successCallBack.accept(result);
             }
-            //updateCount==0，说明这个期间，数据被人修改了
-            if (updateCount == 0) {
-                //失败，创建一个异常
-                ConcurrencyFailException concurrencyFailException = new ConcurrencyFailException(key, "并发修改失败!");
-
-                //若调用方传入了失败回调的函数failCallBack，那么将执行回调
-                if (failCallBack != null) {
-                    failCallBack.accept(concurrencyFailException);
-                } else {
-                    //兜底，抛出异常，让事务回滚
-                    throw concurrencyFailException;
-                }
+        }
+        //updateCount==0，说明这个期间，数据被人修改了，或者缓存的version已经过期，抛出异常让事务回滚，外层重新执行
+        if (updateCount == 0 && (retryable || fromCache[0])) {
+            throw new RetryableConcurrencyFailException(key, fromCache[0]);
+        }
+        if (updateCount == 0) {
+            //失败，创建一个异常
+            ConcurrencyFailException concurrencyFailException = new ConcurrencyFailException(key, "并发修改失败!");
+
+            //若调用方传入了失败回调的函数failCallBack，那么将执行回调
+            if (failCallBack != null) {
+                failCallBack.accept(concurrencyFailException);
+            } else {
+                //兜底，抛出异常，让事务回滚
+                throw concurrencyFailException;
             }
-            return result;
-        });
+        }
+        return result;
+    }
+
+    private void cacheVersion(String key, long version) {
+        if (this.versionCache != null) {
+            this.versionCache.put(key, version);
+        }
+    }
+
+    private void evictVersion(String key) {
+        if (this.versionCache != null) {
+            this.versionCache.remove(key);
+        }
+    }
+
+    /**
+     * 指数退避 + 随机抖动(full jitter)：在 [0, min(backoffMaxMs, backoffBaseMs * 2^attempt)] 中随机等待，避免冲突的请求同时重试再次冲突
+     */
+    private void backoff(int attempt) {
+        long maxDelay = Math.min(this.backoffMaxMs, this.backoffBaseMs << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(maxDelay + 1);
+        if (delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("并发修改重试等待被中断", e);
+        }
+    }
+
+    private ReentrantLock lockFor(String key) {
+        int h = key.hashCode();
+        //高位参与运算，让hash分布更均匀
+        h ^= (h >>> 16);
+        return this.locks[h & (this.locks.length - 1)];
+    }
+
+    /**
+     * 乐观锁更新失败且还可以重试时抛出，用于回滚本次事务
+     */
+    private static class RetryableConcurrencyFailException extends RuntimeException {
+        /**
+         * 是否是缓存的version过期导致的失败
+         */
+        private final boolean staleCache;
+
+        RetryableConcurrencyFailException(String key, boolean staleCache) {
+            super(key, null, false, false);
+            this.staleCache = staleCache;
+        }
     }
 
 }
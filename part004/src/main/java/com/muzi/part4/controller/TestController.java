@@ -1,11 +1,19 @@
 package com.muzi.part4.controller;
 
 
+import com.muzi.part4.benchmark.FlashSaleBenchmarkConfig;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkResult;
+import com.muzi.part4.order.OrderLine;
 import com.muzi.part4.service.GoodsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 
 @RestController
 public class TestController {
@@ -35,4 +43,58 @@ public class TestController {
         this.goodsService.placeOrder4();
         return "ok";
     }
+
+    @GetMapping("/test6")
+    public String test6() throws InterruptedException {
+        this.goodsService.placeOrder6();
+        return "ok";
+    }
+
+    @GetMapping("/test7")
+    public String test7() throws InterruptedException {
+        this.goodsService.placeOrder7();
+        return "ok";
+    }
+
+    @GetMapping("/test8")
+    public String test8() throws InterruptedException {
+        this.goodsService.placeOrder8();
+        return "ok";
+    }
+
+    @GetMapping("/test9")
+    public String test9() throws InterruptedException {
+        this.goodsService.placeOrder9();
+        return "ok";
+    }
+
+    /**
+     * 异步下单，返回订单id，通过 /orderStatus 查询下单结果
+     */
+    @GetMapping("/placeOrderAsync")
+    public String placeOrderAsync(@RequestParam("goodsId") String goodsId, @RequestParam(value = "num", defaultValue = "1") int num) {
+        String orderId = this.goodsService.placeOrderAsync(goodsId, num);
+        return orderId != null ? orderId : "fail";
+    }
+
+    @GetMapping("/orderStatus")
+    public String orderStatus(@RequestParam("orderId") String orderId) {
+        return this.goodsService.getOrderStatus(orderId).getDesc();
+    }
+
+    /**
+     * 多个商品一起下单，任何一个商品库存不够则全部失败
+     */
+    @PostMapping("/placeOrder")
+    public String placeOrder(@RequestBody List<OrderLine> lines) {
+        return this.goodsService.placeOrder(lines) ? "ok" : "fail";
+    }
+
+    /**
+     * 秒杀压测，如：/benchmark?buyers=1000&concurrency=100&stock=100&goodsCount=10&skew=1.2&strategies=方案1,方案6
+     */
+    @GetMapping("/benchmark")
+    public List<FlashSaleBenchmarkResult> benchmark(FlashSaleBenchmarkConfig config) throws InterruptedException {
+        return this.goodsService.flashSaleBenchmark(config);
+    }
 }
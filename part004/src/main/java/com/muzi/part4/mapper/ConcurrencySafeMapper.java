@@ -14,4 +14,12 @@ public interface ConcurrencySafeMapper extends BaseMapper<ConcurrencySafePO> {
      * @return
      */
     int optimisticUpdate(ConcurrencySafePO po);
+
+    /**
+     * 插入 ConcurrencySafePO，safe_key 已存在时忽略
+     *
+     * @param po
+     * @return 1：插入成功，0：safe_key 已存在
+     */
+    int insertIgnore(ConcurrencySafePO po);
 }
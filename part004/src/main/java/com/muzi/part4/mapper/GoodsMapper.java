@@ -2,9 +2,12 @@ package com.muzi.part4.mapper;
 
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.muzi.part4.order.OrderLine;
 import com.muzi.part4.po.GoodsPO;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 
  public interface GoodsMapper extends BaseMapper<GoodsPO> {
     /**
@@ -35,4 +38,12 @@ import org.apache.ibatis.annotations.Param;
      */
     int placeOrder3(@Param("goodsId") String goodsId, @Param("num") int num);
 
+    /**
+     * 多个商品一起下单，一条sql扣减所有商品的库存，每个商品都带 num - 购买数量 >= 0 的条件
+     *
+     * @param lines 订单明细，商品id不能重复
+     * @return 扣减成功的商品数，小于明细数说明有商品库存不够，调用方需要回滚事务
+     */
+    int placeOrder(@Param("lines") List<OrderLine> lines);
+
 }
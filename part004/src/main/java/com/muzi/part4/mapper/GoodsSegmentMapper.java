@@ -0,0 +1,30 @@
+package com.muzi.part4.mapper;
+
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.muzi.part4.po.GoodsSegmentPO;
+import org.apache.ibatis.annotations.Param;
+
+
+public interface GoodsSegmentMapper extends BaseMapper<GoodsSegmentPO> {
+
+    /**
+     * 从某个分段扣减库存，分段库存不够时扣减失败
+     *
+     * @param goodsId   商品id
+     * @param segmentNo 分段编号
+     * @param num       扣减数量
+     * @return 1：成功，0：失败
+     */
+    int deduct(@Param("goodsId") String goodsId, @Param("segmentNo") int segmentNo, @Param("num") int num);
+
+    /**
+     * 给某个分段增加库存
+     *
+     * @param goodsId   商品id
+     * @param segmentNo 分段编号
+     * @param num       增加数量
+     * @return
+     */
+    int add(@Param("goodsId") String goodsId, @Param("segmentNo") int segmentNo, @Param("num") int num);
+}
@@ -0,0 +1,9 @@
+package com.muzi.part4.mapper;
+
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.muzi.part4.po.OrderPO;
+
+
+public interface OrderMapper extends BaseMapper<OrderPO> {
+}
@@ -0,0 +1,486 @@
+package com.muzi.part4.order;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.mapper.OrderMapper;
+import com.muzi.part4.po.OrderPO;
+import com.muzi.part4.stock.StockPreDeductCache;
+import com.muzi.part4.utils.IdUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 异步下单队列
+ * <br/><br/>
+ * 秒杀下单时，请求线程不写db，不加锁，不做文件IO：
+ * <ol>
+ *     <li>内存库存预扣减（{@link StockPreDeductCache}），失败直接返回</li>
+ *     <li>放入有界的受理队列（{@link ArrayBlockingQueue}，基于数组的环形缓冲区），队列满了则下单失败</li>
+ *     <li>等待受理记录刷盘：日志线程把这段时间内入队的订单一起写入本地预写日志（{@link OrderWal}）并刷盘一次（组提交），
+ *     所有等待的请求共用这一次刷盘，刷盘之后才返回订单id，保证已应答的订单机器宕机也不丢</li>
+ * </ol>
+ * 日志线程把刷过盘的订单交给写db队列，后台写db线程批量取出订单，在一个事务中使用JDBC批量扣减库存、批量插入订单，然后写日志完成记录。
+ * 调用方拿到订单id后，通过 {@link #getOrderStatus(String)} 查询订单状态。
+ * <br/>
+ * 一批订单连续写入db失败超过 order-queue.max-retries 次时，逐个订单重试，只有仍然失败的订单移入死信队列，不再阻塞后面的订单；
+ * 死信订单在日志中没有完成记录，进程重启时会重新入队，也可以调用 {@link #redriveDeadLetters()} 重新入队。
+ */
+@Slf4j
+@Component
+public class AsyncOrderQueue {
+
+    private static final String INSERT_ORDER_SQL = "insert into t_order (order_id, goods_id, num, status) values (?, ?, ?, ?)";
+
+    private static final String DEDUCT_STOCK_SQL = "update t_goods set num = num - ? where goods_id = ? and num - ? >= 0";
+
+    /**
+     * 内存队列容量
+     */
+    @Value("${order-queue.capacity:65536}")
+    private int capacity;
+
+    /**
+     * 每批写入db的最大订单数
+     */
+    @Value("${order-queue.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 一批订单写入db失败后最多重试的次数，超过后移入死信队列
+     */
+    @Value("${order-queue.max-retries:5}")
+    private int maxRetries;
+
+    /**
+     * 预写日志文件
+     */
+    @Value("${order-queue.wal-file:./data/order.wal}")
+    private String walFile;
+
+    @Autowired
+    private StockPreDeductCache stockPreDeductCache;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 受理队列：等待写预写日志的订单
+     */
+    private BlockingQueue<OrderRecord> acceptQueue;
+
+    /**
+     * 写db队列：受理记录已经刷盘的订单
+     */
+    private BlockingQueue<OrderRecord> queue;
+
+    private OrderWal wal;
+
+    /**
+     * 还没有写入db的订单，orderId -> 订单，用于查询排队中的订单状态
+     */
+    private final Map<String, OrderRecord> pendingOrders = new ConcurrentHashMap<>();
+
+    /**
+     * 死信队列：多次写入db失败的订单
+     */
+    private final Queue<OrderRecord> deadLetters = new ConcurrentLinkedQueue<>();
+
+    private Thread walThread;
+
+    private Thread writerThread;
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() throws IOException {
+        this.acceptQueue = new ArrayBlockingQueue<>(this.capacity);
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.wal = new OrderWal(Paths.get(this.walFile));
+        this.recover();
+        this.walThread = new Thread(this::walLoop, "async-order-wal");
+        this.walThread.setDaemon(true);
+        this.walThread.start();
+        this.writerThread = new Thread(this::writeLoop, "async-order-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 两个线程处理完剩余订单后退出。不中断线程：线程在 FileChannel 读写时被中断会关闭日志文件
+     */
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        this.running = false;
+        this.walThread.join(TimeUnit.SECONDS.toMillis(10));
+        this.writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        this.wal.close();
+    }
+
+    /**
+     * 下单，受理记录刷盘后返回
+     *
+     * @param goodsId 商品id
+     * @param num     购买数量
+     * @return 订单id，库存不够、队列已满或者写日志失败时返回null
+     */
+    public String placeOrder(String goodsId, int num) {
+        this.stockPreDeductCache.warmupIfAbsent(goodsId);
+        //1、内存库存预扣减
+        if (!this.stockPreDeductCache.tryDeduct(goodsId, num)) {
+            return null;
+        }
+        OrderRecord order = new OrderRecord(IdUtils.generateId(), goodsId, num);
+        order.setReserved(true);
+        this.pendingOrders.put(order.getOrderId(), order);
+        //2、放入受理队列
+        if (!this.acceptQueue.offer(order)) {
+            this.pendingOrders.remove(order.getOrderId());
+            this.stockPreDeductCache.release(goodsId, num);
+            return null;
+        }
+        //3、等待受理记录刷盘，日志线程一定会完成或者以异常结束
+        try {
+            order.getLogged().join();
+        } catch (CompletionException e) {
+            this.pendingOrders.remove(order.getOrderId());
+            this.stockPreDeductCache.release(goodsId, num);
+            return null;
+        }
+        return order.getOrderId();
+    }
+
+    /**
+     * 查询订单状态
+     *
+     * @param orderId 订单id
+     * @return
+     */
+    public OrderStatus getOrderStatus(String orderId) {
+        OrderRecord order = this.pendingOrders.get(orderId);
+        if (order != null) {
+            return order.getStatus();
+        }
+        OrderPO orderPO = this.orderMapper.selectById(orderId);
+        return orderPO == null ? OrderStatus.NOT_FOUND : OrderStatus.of(orderPO.getStatus());
+    }
+
+    /**
+     * 等待队列中的订单全部写入db，死信队列中的订单不用等
+     *
+     * @param timeout 最长等待时间(ms)
+     * @return 是否全部写入
+     * @throws InterruptedException
+     */
+    public boolean awaitEmpty(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (this.pendingOrders.size() > this.deadLetters.size()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * 死信队列中的订单数
+     *
+     * @return
+     */
+    public int getDeadLetterCount() {
+        return this.deadLetters.size();
+    }
+
+    /**
+     * 死信订单重新入队（比如db恢复之后），队列满了时剩余的订单留在死信队列中
+     *
+     * @return 重新入队的订单数
+     */
+    public int redriveDeadLetters() {
+        int count = 0;
+        OrderRecord order;
+        //受理记录已经刷过盘，直接进入写db队列
+        while (this.queue.remainingCapacity() > 0 && (order = this.deadLetters.poll()) != null) {
+            order.setStatus(OrderStatus.QUEUING);
+            if (!this.queue.offer(order)) {
+                order.setStatus(OrderStatus.DEAD_LETTER);
+                this.deadLetters.add(order);
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 从预写日志中恢复上次还没有写入db的订单，已经写入db的（写完db还没来得及写完成记录就崩溃了）直接标记完成
+     */
+    private void recover() throws IOException {
+        List<OrderRecord> records = this.wal.recover();
+        if (records.isEmpty()) {
+            return;
+        }
+        Set<String> persisted = this.orderMapper.selectBatchIds(records.stream().map(OrderRecord::getOrderId).collect(Collectors.toList()))
+                .stream().map(OrderPO::getOrderId).collect(Collectors.toSet());
+        List<OrderRecord> done = new ArrayList<>();
+        for (OrderRecord record : records) {
+            if (persisted.contains(record.getOrderId())) {
+                done.add(record);
+            } else {
+                this.pendingOrders.put(record.getOrderId(), record);
+                this.queue.add(record);
+            }
+        }
+        this.wal.complete(done);
+        log.info("从订单日志中恢复订单 {} 个，其中已写入db {} 个", records.size(), done.size());
+    }
+
+    /**
+     * 日志线程：取出受理队列中所有排队的订单（最多 batchSize 个），一次写入、一次刷盘，然后应答下单请求、交给写db线程
+     * <br/>
+     * 刷盘期间新来的订单在受理队列中排队，下一次一起刷盘，并发越高每次刷盘的订单越多
+     */
+    private void walLoop() {
+        List<OrderRecord> batch = new ArrayList<>(this.batchSize);
+        while (this.running || !this.acceptQueue.isEmpty()) {
+            try {
+                OrderRecord first = this.acceptQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.acceptQueue.drainTo(batch, this.batchSize - 1);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                this.wal.accept(batch);
+            } catch (IOException e) {
+                log.error("写订单日志失败，本批订单数：{}", batch.size(), e);
+                try {
+                    this.wal.abort(batch);
+                } catch (IOException abortException) {
+                    log.error("写订单日志失败，重启时这一批订单可能被恢复", abortException);
+                }
+                batch.forEach(order -> order.getLogged().completeExceptionally(e));
+                batch.clear();
+                continue;
+            }
+            for (OrderRecord order : batch) {
+                order.getLogged().complete(null);
+                //写db队列满了时等待，受理队列随之排满，新的下单直接失败
+                this.putUninterruptibly(order);
+            }
+            batch.clear();
+        }
+    }
+
+    private void putUninterruptibly(OrderRecord order) {
+        while (true) {
+            try {
+                this.queue.put(order);
+                return;
+            } catch (InterruptedException ignored) {
+                //已经应答的订单不能丢
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<OrderRecord> batch = new ArrayList<>(this.batchSize);
+        //当前这一批连续失败的次数
+        int failures = 0;
+        while (this.running || this.walThread.isAlive() || !this.queue.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    OrderRecord first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    this.queue.drainTo(batch, this.batchSize - 1);
+                    //开始到db中扣减，预扣减的库存不再算在途，重试这一批时不再重复减；死信重新入队的订单已经减过了
+                    batch.stream().filter(order -> order.isReserved() && !order.isDbDeducting()).forEach(order -> {
+                        order.setDbDeducting(true);
+                        this.stockPreDeductCache.beforeDbDeduct(order.getGoodsId(), order.getNum());
+                    });
+                }
+                this.persist(batch);
+                this.completeWal(batch);
+                batch.forEach(order -> this.pendingOrders.remove(order.getOrderId()));
+                batch.clear();
+                failures = 0;
+            } catch (InterruptedException e) {
+                //被中断时继续处理剩余订单
+                if (!this.running && this.queue.isEmpty() && batch.isEmpty()) {
+                    return;
+                }
+            } catch (Exception e) {
+                if (++failures > this.maxRetries) {
+                    //一直失败（比如某个订单的数据有问题），逐个订单重试，只有失败的订单移入死信队列，不能让后面的订单一直等
+                    log.error("订单批量写入db失败 {} 次，本批订单数：{}，逐个订单重试", failures, batch.size(), e);
+                    this.persistOneByOne(batch);
+                    batch.clear();
+                    failures = 0;
+                    continue;
+                }
+                //db不可用等情况，这一批订单保留，稍后重试
+                log.error("订单批量写入db失败，本批订单数：{}，1秒后重试", batch.size(), e);
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException ignored) {
+                    //被中断时继续重试剩余订单
+                }
+            }
+        }
+    }
+
+    /**
+     * 逐个订单写入db，成功的正常完成，失败的移入死信队列
+     */
+    private void persistOneByOne(List<OrderRecord> batch) {
+        List<OrderRecord> persisted = new ArrayList<>(batch.size());
+        for (OrderRecord order : batch) {
+            try {
+                this.persist(Collections.singletonList(order), false);
+                persisted.add(order);
+            } catch (Exception e) {
+                log.error("订单[{}]写入db失败，移入死信队列", order.getOrderId(), e);
+                order.setStatus(OrderStatus.DEAD_LETTER);
+                this.deadLetters.add(order);
+            }
+        }
+        this.completeWal(persisted);
+        persisted.forEach(order -> this.pendingOrders.remove(order.getOrderId()));
+    }
+
+    /**
+     * 写完成记录，此时订单已经写入db，写日志失败也不能重试这一批订单，重启恢复时会根据db中的订单跳过；
+     * 同样的原因完成记录不需要刷盘
+     */
+    private void completeWal(List<OrderRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            this.wal.complete(batch);
+        } catch (IOException e) {
+            log.error("写订单日志完成记录失败，本批订单数：{}", batch.size(), e);
+        }
+    }
+
+    /**
+     * 在一个事务中批量扣减库存、批量插入订单
+     */
+    private void persist(List<OrderRecord> batch) {
+        try {
+            this.persist(batch, true);
+        } catch (UnknownUpdateCountException e) {
+            //批量扣减已回滚，逐个商品扣减
+            this.persist(batch, false);
+        }
+    }
+
+    /**
+     * @param batchDeduct true：JDBC批量扣减库存；false：逐个商品扣减库存
+     */
+    private void persist(List<OrderRecord> batch, boolean batchDeduct) {
+        //同一商品的订单合并成一条扣减sql
+        Map<String, List<OrderRecord>> goodsOrders = batch.stream()
+                .collect(Collectors.groupingBy(OrderRecord::getGoodsId, LinkedHashMap::new, Collectors.toList()));
+        List<String> goodsIds = new ArrayList<>(goodsOrders.keySet());
+        Map<String, Integer> goodsTotals = new LinkedHashMap<>();
+        goodsOrders.forEach((goodsId, orders) -> goodsTotals.put(goodsId, orders.stream().mapToInt(OrderRecord::getNum).sum()));
+        Map<String, OrderStatus> result = new LinkedHashMap<>();
+        this.transactionTemplate.executeWithoutResult(status -> {
+            //1、扣减库存，每个商品的影响行数
+            int[] updateCounts;
+            if (batchDeduct) {
+                //batchSize 为商品数，只有一批
+                updateCounts = this.jdbcTemplate.batchUpdate(DEDUCT_STOCK_SQL, goodsIds, goodsIds.size(), (ps, goodsId) -> {
+                    int total = goodsTotals.get(goodsId);
+                    ps.setInt(1, total);
+                    ps.setString(2, goodsId);
+                    ps.setInt(3, total);
+                })[0];
+                //开启 rewriteBatchedStatements 等情况下驱动返回 SUCCESS_NO_INFO，不知道哪些商品扣减成功了，回滚事务后逐个商品扣减
+                if (Arrays.stream(updateCounts).anyMatch(count -> count == Statement.SUCCESS_NO_INFO)) {
+                    throw new UnknownUpdateCountException();
+                }
+            } else {
+                updateCounts = goodsIds.stream()
+                        .mapToInt(goodsId -> this.jdbcTemplate.update(DEDUCT_STOCK_SQL, goodsTotals.get(goodsId), goodsId, goodsTotals.get(goodsId)))
+                        .toArray();
+            }
+            for (int i = 0; i < goodsIds.size(); i++) {
+                List<OrderRecord> orders = goodsOrders.get(goodsIds.get(i));
+                if (updateCounts[i] > 0) {
+                    orders.forEach(order -> result.put(order.getOrderId(), OrderStatus.SUCCESS));
+                } else {
+                    //整批扣减失败（比如其他节点也在卖），逐个订单扣减
+                    for (OrderRecord order : orders) {
+                        int update = this.goodsMapper.placeOrder1(order.getGoodsId(), order.getNum());
+                        result.put(order.getOrderId(), update == 1 ? OrderStatus.SUCCESS : OrderStatus.FAIL);
+                    }
+                }
+            }
+            //2、批量插入订单
+            this.jdbcTemplate.batchUpdate(INSERT_ORDER_SQL, batch, batch.size(), (ps, order) -> {
+                ps.setString(1, order.getOrderId());
+                ps.setString(2, order.getGoodsId());
+                ps.setInt(3, order.getNum());
+                ps.setInt(4, result.get(order.getOrderId()).getCode());
+            });
+        });
+        //事务提交后再更新状态、通知内存库存
+        for (OrderRecord order : batch) {
+            OrderStatus orderStatus = result.get(order.getOrderId());
+            order.setStatus(orderStatus);
+            if (order.isReserved()) {
+                this.stockPreDeductCache.confirm(order.getGoodsId(), orderStatus == OrderStatus.SUCCESS);
+            }
+        }
+    }
+
+    /**
+     * JDBC批量执行没有返回影响行数，用于回滚事务
+     */
+    private static class UnknownUpdateCountException extends RuntimeException {
+        UnknownUpdateCountException() {
+            super("批量扣减库存没有返回影响行数", null, false, false);
+        }
+    }
+}
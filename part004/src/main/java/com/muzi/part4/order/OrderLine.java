@@ -0,0 +1,23 @@
+package com.muzi.part4.order;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 订单明细，一个商品及其购买数量
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderLine {
+    /**
+     * 商品id
+     */
+    private String goodsId;
+
+    /**
+     * 购买数量
+     */
+    private int num;
+}
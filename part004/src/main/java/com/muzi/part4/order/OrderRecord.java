@@ -0,0 +1,50 @@
+package com.muzi.part4.order;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 内存队列中排队的订单
+ */
+@Data
+public class OrderRecord {
+    /**
+     * 订单id
+     */
+    private final String orderId;
+
+    /**
+     * 商品id
+     */
+    private final String goodsId;
+
+    /**
+     * 购买数量
+     */
+    private final int num;
+
+    /**
+     * 是否在内存库存中预扣减过，进程重启后从日志中恢复的订单没有预扣减
+     */
+    private boolean reserved;
+
+    /**
+     * 是否已经开始到db中扣减，预扣减的在途数量已经减掉
+     */
+    private boolean dbDeducting;
+
+    /**
+     * 受理记录刷盘后完成，刷盘失败时以异常结束，下单的请求线程等待它
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final CompletableFuture<Void> logged = new CompletableFuture<>();
+
+    /**
+     * 订单状态
+     */
+    private volatile OrderStatus status = OrderStatus.QUEUING;
+}
@@ -0,0 +1,52 @@
+package com.muzi.part4.order;
+
+/**
+ * 订单状态
+ */
+public enum OrderStatus {
+    /**
+     * 已受理，在内存队列中排队等待写入db
+     */
+    QUEUING(0, "排队中"),
+    /**
+     * 订单和库存扣减已写入db
+     */
+    SUCCESS(1, "下单成功"),
+    /**
+     * 写入db时库存不够，下单失败
+     */
+    FAIL(2, "下单失败"),
+    /**
+     * 多次写入db失败，在死信队列中等待重新入队，只在内存中
+     */
+    DEAD_LETTER(3, "写入db失败，等待重试"),
+    /**
+     * 订单不存在
+     */
+    NOT_FOUND(-1, "订单不存在");
+
+    private final int code;
+    private final String desc;
+
+    OrderStatus(int code, String desc) {
+        this.code = code;
+        this.desc = desc;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public static OrderStatus of(int code) {
+        for (OrderStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        return NOT_FOUND;
+    }
+}
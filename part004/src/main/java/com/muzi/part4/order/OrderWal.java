@@ -0,0 +1,120 @@
+package com.muzi.part4.order;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单本地预写日志（write-ahead log）
+ * <br/><br/>
+ * 订单进入内存队列前先追加一条受理记录，订单写入db后再追加一条完成记录，一行一条：
+ * <pre>
+ *     A,订单id,商品id,数量    受理
+ *     C,订单id               完成
+ * </pre>
+ * 进程重启时，有受理记录但没有完成记录的订单就是还没有写入db的订单，需要重新入队。
+ * <br/>
+ * 受理记录一批一起写入并刷盘（组提交），刷盘之后才应答下单请求、交给写db线程，保证已应答的订单机器宕机也不丢；
+ * 完成记录不刷盘，宕机丢了的话重启时按db中的订单跳过。
+ */
+class OrderWal {
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /**
+     * 已受理还未完成的订单数，为0时可以清空日志文件
+     */
+    private int pending;
+
+    OrderWal(Path path) {
+        this.path = path;
+        try {
+            Files.createDirectories(path.getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("打开订单日志[%s]失败", path), e);
+        }
+    }
+
+    /**
+     * 读取日志中未完成的订单，需要在写入新记录之前调用
+     */
+    synchronized List<OrderRecord> recover() throws IOException {
+        Map<String, OrderRecord> unfinished = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(this.path, StandardCharsets.UTF_8)) {
+            String[] items = line.split(",");
+            if (items.length == 4 && "A".equals(items[0])) {
+                unfinished.put(items[1], new OrderRecord(items[1], items[2], Integer.parseInt(items[3])));
+            } else if (items.length == 2 && "C".equals(items[0])) {
+                unfinished.remove(items[1]);
+            }
+            //进程崩溃时最后一行可能只写了一半，忽略
+        }
+        this.pending = unfinished.size();
+        return new ArrayList<>(unfinished.values());
+    }
+
+    /**
+     * 追加一批受理记录并刷盘，一批订单只有一次写入、一次刷盘
+     */
+    synchronized void accept(List<OrderRecord> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (OrderRecord record : records) {
+            sb.append("A,").append(record.getOrderId()).append(',').append(record.getGoodsId()).append(',').append(record.getNum()).append('\n');
+        }
+        this.write(sb.toString());
+        this.channel.force(false);
+        this.pending += records.size();
+    }
+
+    /**
+     * 受理记录写入失败时，为这一批订单追加完成记录（尽力而为）：受理记录可能已经部分写入，
+     * 调用方已经被告知下单失败，重启时不能再把它们恢复出来
+     */
+    synchronized void abort(List<OrderRecord> records) throws IOException {
+        this.write(completeLines(records));
+        this.channel.force(false);
+    }
+
+    /**
+     * 追加完成记录，所有订单都完成后清空日志文件
+     */
+    synchronized void complete(List<OrderRecord> records) throws IOException {
+        this.write(completeLines(records));
+        this.pending -= records.size();
+        if (this.pending <= 0) {
+            this.pending = 0;
+            this.channel.truncate(0);
+        }
+    }
+
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static String completeLines(List<OrderRecord> records) {
+        StringBuilder sb = new StringBuilder();
+        for (OrderRecord record : records) {
+            sb.append("C,").append(record.getOrderId()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void write(String content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+}
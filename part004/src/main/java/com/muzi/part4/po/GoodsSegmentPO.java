@@ -0,0 +1,31 @@
+package com.muzi.part4.po;
+
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 商品库存分段表
+ */
+@Data
+@TableName("t_goods_segment")
+public class GoodsSegmentPO {
+
+    @TableId
+    private String id;
+
+    /**
+     * 商品id
+     */
+    private String goodsId;
+
+    /**
+     * 分段编号，从0开始
+     */
+    private Integer segmentNo;
+
+    /**
+     * 该分段的库存
+     */
+    private Integer num;
+}
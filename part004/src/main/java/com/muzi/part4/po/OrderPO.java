@@ -0,0 +1,34 @@
+package com.muzi.part4.po;
+
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 订单表
+ */
+@Data
+@TableName("t_order")
+public class OrderPO {
+
+    /**
+     * 订单id
+     */
+    @TableId
+    private String orderId;
+
+    /**
+     * 商品id
+     */
+    private String goodsId;
+
+    /**
+     * 购买数量
+     */
+    private Integer num;
+
+    /**
+     * 订单状态，见 {@link com.muzi.part4.order.OrderStatus}
+     */
+    private Integer status;
+}
@@ -2,8 +2,14 @@ package com.muzi.part4.service;
 
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkConfig;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkResult;
+import com.muzi.part4.order.OrderLine;
+import com.muzi.part4.order.OrderStatus;
 import com.muzi.part4.po.GoodsPO;
 
+import java.util.List;
+
 public interface GoodsService extends IService<GoodsPO> {
 
     /**
@@ -38,4 +44,66 @@ public interface GoodsService extends IService<GoodsPO> {
      */
     void placeOrder5() throws InterruptedException;
 
+    /**
+     * 6、第6种方式解决超卖，同一商品的并发扣减请求在内存中排队，合并成一条sql扣减库存（group commit）
+     *
+     * @throws InterruptedException
+     */
+    void placeOrder6() throws InterruptedException;
+
+    /**
+     * 7、第7种方式解决超卖，库存分段：将库存拆分到多行，扣减分散到不同的行上；并在100/1000人抢购下和方案1对比耗时
+     *
+     * @throws InterruptedException
+     */
+    void placeOrder7() throws InterruptedException;
+
+    /**
+     * 8、第8种方式解决超卖，内存预扣减：请求先在内存库存中预扣减，库存不够的请求直接失败，不再访问db
+     *
+     * @throws InterruptedException
+     */
+    void placeOrder8() throws InterruptedException;
+
+    /**
+     * 9、第9种方式，异步下单：内存预扣减成功后写本地日志、放入内存队列就返回，后台线程批量写入db
+     *
+     * @throws InterruptedException
+     */
+    void placeOrder9() throws InterruptedException;
+
+    /**
+     * 异步下单，订单放入内存队列后立即返回订单id，通过 {@link #getOrderStatus(String)} 查询下单结果
+     *
+     * @param goodsId 商品id
+     * @param num     购买数量
+     * @return 订单id，库存不够或者系统繁忙时返回null
+     */
+    String placeOrderAsync(String goodsId, int num);
+
+    /**
+     * 查询异步下单的订单状态
+     *
+     * @param orderId 订单id
+     * @return
+     */
+    OrderStatus getOrderStatus(String orderId);
+
+    /**
+     * 多个商品一起下单（购物车结算），一个事务中用一条sql扣减所有商品的库存，任何一个商品库存不够则全部回滚
+     *
+     * @param lines 订单明细
+     * @return true：下单成功，false：有商品库存不够，下单失败
+     */
+    boolean placeOrder(List<OrderLine> lines);
+
+    /**
+     * 秒杀压测：按配置的抢购人数、库存、商品数、热点倾斜程度，依次压测各个方案，输出吞吐量、耗时百分位、db交互次数以及超卖/少卖检查结果
+     *
+     * @param config 压测参数
+     * @return 每个方案的压测结果
+     * @throws InterruptedException
+     */
+    List<FlashSaleBenchmarkResult> flashSaleBenchmark(FlashSaleBenchmarkConfig config) throws InterruptedException;
+
 }
@@ -2,23 +2,39 @@ package com.muzi.part4.service;
 
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.muzi.part4.benchmark.FlashSaleBenchmark;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkConfig;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkResult;
+import com.muzi.part4.benchmark.FlashSaleStrategy;
 import com.muzi.part4.concurrencysafe.ConcurrencyFailException;
 import com.muzi.part4.concurrencysafe.DbConcurrencySafe;
 import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.order.AsyncOrderQueue;
+import com.muzi.part4.order.OrderLine;
+import com.muzi.part4.order.OrderStatus;
 import com.muzi.part4.po.GoodsPO;
+import com.muzi.part4.stock.SegmentStockService;
+import com.muzi.part4.stock.StockDeductCombiner;
+import com.muzi.part4.stock.StockPreDeductCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -33,6 +49,21 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
     @Autowired
     private TransactionTemplate transactionTemplate;
 
+    @Autowired
+    private StockDeductCombiner stockDeductCombiner;
+
+    @Autowired
+    private SegmentStockService segmentStockService;
+
+    @Autowired
+    private StockPreDeductCache stockPreDeductCache;
+
+    @Autowired
+    private AsyncOrderQueue asyncOrderQueue;
+
+    @Autowired
+    private FlashSaleBenchmark flashSaleBenchmark;
+
     /**
      * 方案1：通过update中携带条件判断解决超卖问题
      *
@@ -40,13 +71,8 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
      */
     @Override
     public void placeOrder1() throws InterruptedException {
-        //扣减库存的方法，返回值为1表示扣减库存成功，0表示失败
-        Function<String, Integer> reduceStock = (String goodsId) -> {
-            int update = goodsMapper.placeOrder1(goodsId, 1);
-            return update;
-        };
         //模拟100人秒杀
-        this.concurrentPlaceOrderMock("方案1", reduceStock);
+        this.concurrentPlaceOrderMock("方案1", this.reduceStock1());
     }
 
     /**
@@ -56,8 +82,141 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
      */
     @Override
     public void placeOrder2() throws InterruptedException {
-        //扣减库存的方法，返回值为1表示扣减库存成功，0表示失败
-        Function<String, Integer> reduceStock = (String goodsId) -> {
+        //模拟100人秒杀
+        this.concurrentPlaceOrderMock("方案2", this.reduceStock2());
+    }
+
+    /**
+     * 方案3：对比数据修改前后是否和期望的一致，解决超卖问题
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder3() throws InterruptedException {
+        //模拟100人秒杀
+        this.concurrentPlaceOrderMock("方案3", this.reduceStock3());
+    }
+
+    /**
+     * 方案4：通过辅助类解决超卖问题，这种本质上可以解决所有并发修改db数据出错的问题
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder4() throws InterruptedException {
+        //模拟100人秒杀
+        this.concurrentPlaceOrderMock("方案4", this.reduceStock4());
+    }
+    /**
+     * 方案5 事务加锁
+     *
+     */
+    @Transactional
+    @Override
+    public void placeOrder5() throws InterruptedException {
+        //模拟100人秒杀
+        this.concurrentPlaceOrderMock("方案1", this.reduceStock1());
+
+    }
+
+    /**
+     * 方案6：合并扣减，同一商品的并发请求在内存中排队，由一个线程合并成一条 num - N >= 0 的sql执行，
+     * 一次行锁处理一批买家，热点商品的吞吐量远高于方案1的一人一条sql
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder6() throws InterruptedException {
+        //模拟100人秒杀
+        this.concurrentPlaceOrderMock("方案6", this.reduceStock6());
+    }
+
+
+    /**
+     * 方案7：库存分段，将商品库存拆分到 t_goods_segment 中的多行，扣减随机落到某个分段上，同一商品可以有多个事务同时扣减库存
+     * <br/>
+     * 分别模拟100人、1000人抢购（库存为人数的一半），对比方案1和库存分段的耗时
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder7() throws InterruptedException {
+        String goodsId = "1", goodsName = "iphone";
+        int segmentCount = 8;
+
+        System.out.println("===========================解决超卖，方案7(库存分段) 对比 方案1 开始执行=======================================");
+        for (int concurrentNum : new int[]{100, 1000}) {
+            int num = concurrentNum / 2;
+
+            //方案1：所有人扣减同一行
+            this.initTestData(goodsId, goodsName, num);
+            long[] result1 = this.concurrentPlaceOrder(goodsId, concurrentNum, id -> goodsMapper.placeOrder1(id, 1));
+            int stock1 = this.getById(goodsId).getNum();
+
+            //方案7：库存拆分为 segmentCount 个分段
+            this.segmentStockService.init(goodsId, num, segmentCount);
+            long[] result7 = this.concurrentPlaceOrder(goodsId, concurrentNum, id -> this.segmentStockService.deduct(id, 1));
+            int stock7 = this.segmentStockService.getStock(goodsId);
+
+            System.out.println(String.format("模拟 %s 人抢购 %s 个商品，库存分段数：%s", concurrentNum, num, segmentCount));
+            System.out.println(String.format("方案1，耗时(ms)：%s，下单成功人数：%s，下单失败人数：%s，剩余库存：%s", result1[2], result1[0], result1[1], stock1));
+            System.out.println(String.format("方案7，耗时(ms)：%s，下单成功人数：%s，下单失败人数：%s，剩余库存：%s", result7[2], result7[0], result7[1], stock7));
+        }
+        System.out.println("===========================解决超卖，方案7(库存分段) 对比 方案1 执行结束=======================================");
+    }
+
+    /**
+     * 方案8：内存预扣减，请求先在内存中预扣减库存，只有预扣减成功的请求才会到db中执行方案1的sql，
+     * 商品卖空后的请求只需要读一次卖空标记就失败了，不再访问db
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder8() throws InterruptedException {
+        //模拟100人秒杀，商品初始化后预热内存库存
+        this.concurrentPlaceOrderMock("方案8", this.stockPreDeductCache::warmup, this.reduceStock8());
+    }
+
+    /**
+     * 方案9：异步下单，请求线程只做内存预扣减、写本地日志、入队，后台线程批量扣减库存、批量插入订单
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public void placeOrder9() throws InterruptedException {
+        //模拟100人秒杀，商品初始化后预热内存库存
+        this.concurrentPlaceOrderMock("方案9", this.stockPreDeductCache::warmup, this.reduceStock9());
+
+        //请求返回时订单还在队列中，等待写入db后再看一下最终库存
+        boolean drained = this.asyncOrderQueue.awaitEmpty(10000);
+        System.out.println(String.format("方案9，订单是否已全部写入db：%s，写入后商品库存：%s", drained, this.getById("1").getNum()));
+    }
+
+    @Override
+    public String placeOrderAsync(String goodsId, int num) {
+        return this.asyncOrderQueue.placeOrder(goodsId, num);
+    }
+
+    @Override
+    public OrderStatus getOrderStatus(String orderId) {
+        return this.asyncOrderQueue.getOrderStatus(orderId);
+    }
+
+    /**
+     * 方案1扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
+     */
+    private Function<String, Integer> reduceStock1() {
+        return (String goodsId) -> {
+            int update = goodsMapper.placeOrder1(goodsId, 1);
+            return update;
+        };
+    }
+
+    /**
+     * 方案2扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
+     */
+    private Function<String, Integer> reduceStock2() {
+        return (String goodsId) -> {
             //1、先查询
             GoodsPO goodsPO = this.getById(goodsId);
 
@@ -69,19 +228,13 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
             int update = goodsMapper.placeOrder2(goodsId, 1, goodsPO.getVersion());
             return update;
         };
-        //模拟100人秒杀
-        this.concurrentPlaceOrderMock("方案2", reduceStock);
     }
 
     /**
-     * 方案3：对比数据修改前后是否和期望的一致，解决超卖问题
-     *
-     * @throws InterruptedException
+     * 方案3扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
      */
-    @Override
-    public void placeOrder3() throws InterruptedException {
-        //扣减库存的方法，返回值为1表示扣减库存成功，0表示失败
-        Function<String, Integer> reduceStock = (String goodsId) -> {
+    private Function<String, Integer> reduceStock3() {
+        return (String goodsId) -> {
             //1、根据商品id获商品
             GoodsPO updateBeforeGoods = this.getById(goodsId);
 
@@ -110,19 +263,13 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
             });
             return reduceStockResult;
         };
-        //模拟100人秒杀
-        this.concurrentPlaceOrderMock("方案3", reduceStock);
     }
 
     /**
-     * 方案4：通过辅助类解决超卖问题，这种本质上可以解决所有并发修改db数据出错的问题
-     *
-     * @throws InterruptedException
+     * 方案4扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
      */
-    @Override
-    public void placeOrder4() throws InterruptedException {
-        //扣减库存的方法，返回值为1表示扣减库存成功，0表示失败
-        Function<String, Integer> reduceStock = (String goodsId) -> {
+    private Function<String, Integer> reduceStock4() {
+        return (String goodsId) -> {
             try {
                 //使用 dbConcurrencySafe.exec 包住需要并发操作的数据，可以确保数据修改的安全性
                 return this.dbConcurrencySafe.exec(GoodsPO.class, goodsId, () -> {
@@ -143,26 +290,160 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
                 return 0;
             }
         };
-        //模拟100人秒杀
-        this.concurrentPlaceOrderMock("方案4", reduceStock);
     }
+
     /**
-     * 方案5 事务加锁
-     *
+     * 方案6扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
      */
-    @Transactional
-    @Override
-    public void placeOrder5() throws InterruptedException {
-        //扣减库存的方法，返回值为1表示扣减库存成功，0表示失败
-        Function<String, Integer> reduceStock = (String goodsId) -> {
-            int update = goodsMapper.placeOrder1(goodsId, 1);
+    private Function<String, Integer> reduceStock6() {
+        return (String goodsId) -> this.stockDeductCombiner.deduct(goodsId, 1);
+    }
+
+    /**
+     * 方案8扣减库存的函数，函数的参数为商品id，返回值为1表示扣减库存成功，0表示失败
+     */
+    private Function<String, Integer> reduceStock8() {
+        return (String goodsId) -> {
+            //1、内存预扣减，失败直接返回
+            if (!this.stockPreDeductCache.tryDeduct(goodsId, 1)) {
+                return 0;
+            }
+            //2、db中扣减库存，结果告诉内存库存，失败时会以db为准校准内存库存
+            int update = 0;
+            this.stockPreDeductCache.beforeDbDeduct(goodsId, 1);
+            try {
+                update = goodsMapper.placeOrder1(goodsId, 1);
+            } finally {
+                this.stockPreDeductCache.confirm(goodsId, update == 1);
+            }
             return update;
         };
-        //模拟100人秒杀
-        this.concurrentPlaceOrderMock("方案1", reduceStock);
+    }
 
+    /**
+     * 方案9扣减库存的函数，函数的参数为商品id，返回值为1表示下单已受理，0表示失败
+     */
+    private Function<String, Integer> reduceStock9() {
+        return (String goodsId) -> this.placeOrderAsync(goodsId, 1) != null ? 1 : 0;
     }
 
+    @Override
+    public List<FlashSaleBenchmarkResult> flashSaleBenchmark(FlashSaleBenchmarkConfig config) throws InterruptedException {
+        List<FlashSaleStrategy> strategies = this.flashSaleStrategies().stream()
+                .filter(strategy -> config.getStrategies().isEmpty() || config.getStrategies().contains(strategy.getName()))
+                .collect(Collectors.toList());
+        return this.flashSaleBenchmark.run(config, strategies);
+    }
+
+    /**
+     * 所有参与压测的方案
+     * <br/>
+     * 方案5的事务只绑定在调用 placeOrder5 的线程上，抢购线程中执行的和方案1是同一个函数，这里保留它作为对照
+     */
+    private List<FlashSaleStrategy> flashSaleStrategies() {
+        List<FlashSaleStrategy> strategies = new ArrayList<>();
+        strategies.add(new FlashSaleStrategy("方案1", this.reduceStock1()));
+        strategies.add(new FlashSaleStrategy("方案2", this.reduceStock2()));
+        strategies.add(new FlashSaleStrategy("方案3", this.reduceStock3()));
+        strategies.add(new FlashSaleStrategy("方案4", this.reduceStock4()));
+        strategies.add(new FlashSaleStrategy("方案5", this.reduceStock1()));
+        strategies.add(new FlashSaleStrategy("方案6", this.reduceStock6()));
+
+        FlashSaleStrategy strategy7 = new FlashSaleStrategy("方案7", goodsId -> this.segmentStockService.deduct(goodsId, 1));
+        strategy7.setAfterInit(goodsId -> this.segmentStockService.init(goodsId, this.getById(goodsId).getNum(), 8));
+        strategy7.setStockReader(this.segmentStockService::getStock);
+        strategies.add(strategy7);
+
+        FlashSaleStrategy strategy8 = new FlashSaleStrategy("方案8", this.reduceStock8());
+        strategy8.setAfterInit(this.stockPreDeductCache::warmup);
+        strategies.add(strategy8);
+
+        FlashSaleStrategy strategy9 = new FlashSaleStrategy("方案9", this.reduceStock9());
+        strategy9.setAfterInit(this.stockPreDeductCache::warmup);
+        strategy9.setAwaitDone(() -> {
+            try {
+                this.asyncOrderQueue.awaitEmpty(60000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        strategies.add(strategy9);
+        return strategies;
+    }
+
+    /**
+     * 多个商品一起下单：相同商品的明细先合并，再按商品id排序，一条sql扣减所有商品的库存，
+     * 扣减成功的商品数小于明细数说明有商品库存不够，回滚事务
+     *
+     * @param lines 订单明细
+     * @return
+     */
+    @Override
+    public boolean placeOrder(List<OrderLine> lines) {
+        //合并相同商品，TreeMap 按商品id排序，所有事务都按相同的顺序锁商品行，避免死锁
+        Map<String, Integer> goodsNumMap = new TreeMap<>();
+        for (OrderLine line : lines) {
+            if (line.getNum() <= 0) {
+                throw new IllegalArgumentException(String.format("商品[%s]购买数量必须大于0", line.getGoodsId()));
+            }
+            goodsNumMap.merge(line.getGoodsId(), line.getNum(), Integer::sum);
+        }
+        if (goodsNumMap.isEmpty()) {
+            return false;
+        }
+        List<OrderLine> mergedLines = new ArrayList<>();
+        goodsNumMap.forEach((goodsId, num) -> mergedLines.add(new OrderLine(goodsId, num)));
+
+        return this.transactionTemplate.execute(status -> {
+            int update = this.goodsMapper.placeOrder(mergedLines);
+            if (update != mergedLines.size()) {
+                //有商品库存不够，已经扣减的商品全部回滚
+                status.setRollbackOnly();
+                return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 模拟 concurrentNum 人同时抢购
+     *
+     * @param goodsId       商品id
+     * @param concurrentNum 并发人数
+     * @param fun           扣减库存的函数，返回值：1：表示抢购成功，0：表示抢购失败
+     * @return [下单成功人数, 下单失败人数, 耗时(ms)]
+     * @throws InterruptedException
+     */
+    private long[] concurrentPlaceOrder(String goodsId, int concurrentNum, Function<String, Integer> fun) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrentNum);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        CountDownLatch countDownLatch = new CountDownLatch(concurrentNum);
+        AtomicInteger successNum = new AtomicInteger(0);
+        AtomicInteger failNum = new AtomicInteger(0);
+        for (int i = 0; i < concurrentNum; i++) {
+            executorService.execute(() -> {
+                try {
+                    //所有线程就绪后同时开抢
+                    startLatch.await();
+                    if (fun.apply(goodsId) == 0) {
+                        failNum.incrementAndGet();
+                    } else {
+                        successNum.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failNum.incrementAndGet();
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        long startTime = System.currentTimeMillis();
+        startLatch.countDown();
+        countDownLatch.await();
+        long costTime = System.currentTimeMillis() - startTime;
+        executorService.shutdown();
+        return new long[]{successNum.get(), failNum.get(), costTime};
+    }
 
     /**
      * 模拟100人秒杀请求
@@ -171,12 +452,26 @@ public class GoodsServiceImpl extends ServiceImpl<GoodsMapper, GoodsPO> implemen
      * @throws InterruptedException
      */
     private void concurrentPlaceOrderMock(String method, Function<String, Integer> fun) throws InterruptedException {
+        this.concurrentPlaceOrderMock(method, null, fun);
+    }
+
+    /**
+     * 模拟100人秒杀请求
+     *
+     * @param afterInit 商品初始化后的回调，参数为商品id，可以在这里做预热等操作
+     * @param fun       扣减库存的函数，fun函数的参数为商品id，返回值：1：表示抢购成功，0：表示抢购失败
+     * @throws InterruptedException
+     */
+    private void concurrentPlaceOrderMock(String method, Consumer<String> afterInit, Function<String, Integer> fun) throws InterruptedException {
         //1、初始化一条商品记录 [商品Id:1,名称：iphone、库存：10]
         String goodsId = "1", goodsName = "iphone";
         // 库存10个
         int num = 10;
 
         GoodsPO goodsStart = this.initTestData(goodsId, goodsName, num);
+        if (afterInit != null) {
+            afterInit.accept(goodsId);
+        }
 
         //2、创建线程池，大小为100，模拟100个线程并发下单
         int concurrentNum = 100;
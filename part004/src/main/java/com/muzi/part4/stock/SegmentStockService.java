@@ -0,0 +1,197 @@
+package com.muzi.part4.stock;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.muzi.part4.mapper.GoodsSegmentMapper;
+import com.muzi.part4.po.GoodsSegmentPO;
+import com.muzi.part4.utils.IdUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 商品库存分段
+ * <br/><br/>
+ * 即使使用方案1的 num - #{num} >= 0，同一商品的扣减也只能在一行数据上一个一个执行。
+ * 这里将一个商品的库存拆分到 t_goods_segment 中的K行（分段），扣减时：
+ * <ol>
+ *     <li>随机选一个分段作为起点，使用 num - #{num} >= 0 从该分段扣减</li>
+ *     <li>该分段库存不够，依次尝试其他分段，已知为空的分段直接跳过</li>
+ *     <li>后台线程定期将库存多的分段匀给已经卖空的分段，避免总库存还有但请求总是落到空分段上</li>
+ * </ol>
+ * 这样同一商品最多可以有K个事务同时扣减库存。
+ */
+@Slf4j
+@Component
+public class SegmentStockService {
+
+    /**
+     * 再平衡的执行间隔(ms)
+     */
+    private static final long REBALANCE_INTERVAL_MS = 1000;
+
+    @Autowired
+    private GoodsSegmentMapper goodsSegmentMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * goodsId -> 每个分段是否已卖空的标记（1：已卖空），本地的提示信息，由再平衡任务根据db中的数据修正
+     */
+    private final ConcurrentHashMap<String, AtomicIntegerArray> emptyFlagsMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService rebalanceExecutor;
+
+    @PostConstruct
+    public void start() {
+        this.rebalanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-stock-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rebalanceExecutor.scheduleWithFixedDelay(this::rebalanceAll, REBALANCE_INTERVAL_MS, REBALANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.rebalanceExecutor.shutdownNow();
+    }
+
+    /**
+     * 将商品的库存拆分为 segmentCount 个分段，会覆盖该商品原有的分段
+     *
+     * @param goodsId      商品id
+     * @param stock        总库存
+     * @param segmentCount 分段数量
+     */
+    public void init(String goodsId, int stock, int segmentCount) {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.goodsSegmentMapper.delete(Wrappers.lambdaQuery(GoodsSegmentPO.class).eq(GoodsSegmentPO::getGoodsId, goodsId));
+            for (int i = 0; i < segmentCount; i++) {
+                GoodsSegmentPO po = new GoodsSegmentPO();
+                po.setId(IdUtils.generateId());
+                po.setGoodsId(goodsId);
+                po.setSegmentNo(i);
+                //库存平均分配，除不尽的部分分给前面的分段
+                po.setNum(stock / segmentCount + (i < stock % segmentCount ? 1 : 0));
+                this.goodsSegmentMapper.insert(po);
+            }
+        });
+        this.emptyFlagsMap.put(goodsId, new AtomicIntegerArray(segmentCount));
+    }
+
+    /**
+     * 扣减库存
+     *
+     * @param goodsId 商品id
+     * @param num     扣减数量
+     * @return 1：扣减成功，0：库存不足扣减失败
+     */
+    public int deduct(String goodsId, int num) {
+        AtomicIntegerArray emptyFlags = this.emptyFlagsMap.get(goodsId);
+        if (emptyFlags == null) {
+            throw new IllegalStateException(String.format("商品[%s]未初始化库存分段", goodsId));
+        }
+        int segmentCount = emptyFlags.length();
+        //随机选一个起点，让并发请求分散到不同的分段上
+        int start = ThreadLocalRandom.current().nextInt(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentNo = (start + i) % segmentCount;
+            if (emptyFlags.get(segmentNo) == 1) {
+                continue;
+            }
+            if (this.goodsSegmentMapper.deduct(goodsId, segmentNo, num) == 1) {
+                return 1;
+            }
+            //num为1时扣减失败说明分段卖空了，num>1时分段可能还有少量库存，交给再平衡处理
+            emptyFlags.set(segmentNo, 1);
+        }
+        return 0;
+    }
+
+    /**
+     * 获取商品的剩余库存（所有分段之和）
+     *
+     * @param goodsId 商品id
+     * @return
+     */
+    public int getStock(String goodsId) {
+        return this.listSegments(goodsId).stream().mapToInt(GoodsSegmentPO::getNum).sum();
+    }
+
+    private void rebalanceAll() {
+        for (String goodsId : this.emptyFlagsMap.keySet()) {
+            try {
+                this.rebalance(goodsId);
+            } catch (Exception e) {
+                log.error("商品[{}]库存分段再平衡失败", goodsId, e);
+            }
+        }
+    }
+
+    /**
+     * 再平衡：将库存高于平均值的分段多出来的部分，匀给低于平均值的分段，并根据db中的数据修正卖空标记
+     *
+     * @param goodsId 商品id
+     */
+    public void rebalance(String goodsId) {
+        AtomicIntegerArray emptyFlags = this.emptyFlagsMap.get(goodsId);
+        if (emptyFlags == null) {
+            return;
+        }
+        List<GoodsSegmentPO> segments = this.listSegments(goodsId);
+        if (segments.isEmpty()) {
+            return;
+        }
+        int total = segments.stream().mapToInt(GoodsSegmentPO::getNum).sum();
+        int avg = total / segments.size();
+        boolean unbalanced = avg > 0 && segments.stream().anyMatch(s -> s.getNum() == 0);
+        if (unbalanced) {
+            this.transactionTemplate.executeWithoutResult(status -> {
+                //1、从库存多的分段中扣出多余部分，扣减带条件，查询后被买走的部分不会被扣成负数
+                int pool = 0;
+                for (GoodsSegmentPO segment : segments) {
+                    int surplus = segment.getNum() - avg;
+                    if (surplus > 0 && this.goodsSegmentMapper.deduct(goodsId, segment.getSegmentNo(), surplus) == 1) {
+                        pool += surplus;
+                    }
+                }
+                //2、补给库存少的分段，剩余的还给第一个分段，同一个事务中总库存不变
+                for (GoodsSegmentPO segment : segments) {
+                    int need = Math.min(avg - segment.getNum(), pool);
+                    if (need > 0) {
+                        this.goodsSegmentMapper.add(goodsId, segment.getSegmentNo(), need);
+                        pool -= need;
+                    }
+                }
+                if (pool > 0) {
+                    this.goodsSegmentMapper.add(goodsId, segments.get(0).getSegmentNo(), pool);
+                }
+            });
+            log.debug("商品[{}]库存分段再平衡完成，总库存：{}", goodsId, total);
+        }
+        //3、以db中的数据为准修正卖空标记
+        for (GoodsSegmentPO segment : this.listSegments(goodsId)) {
+            if (segment.getSegmentNo() < emptyFlags.length()) {
+                emptyFlags.set(segment.getSegmentNo(), segment.getNum() > 0 ? 0 : 1);
+            }
+        }
+    }
+
+    private List<GoodsSegmentPO> listSegments(String goodsId) {
+        return this.goodsSegmentMapper.selectList(Wrappers.lambdaQuery(GoodsSegmentPO.class)
+                .eq(GoodsSegmentPO::getGoodsId, goodsId)
+                .orderByAsc(GoodsSegmentPO::getSegmentNo));
+    }
+}
@@ -0,0 +1,170 @@
+package com.muzi.part4.stock;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 热点商品库存合并扣减（group commit）
+ * <br/><br/>
+ * 秒杀时所有买家都去更新 t_goods 中的同一行，行锁导致请求只能一个一个执行。
+ * 这里将同一个 goodsId 的并发扣减请求先放到内存队列中，由其中一个请求线程（leader）把队列中的请求合并成一条sql：
+ * <pre>
+ *     update t_goods set num = num - N where goods_id = #{goodsId} and num - N >= 0
+ * </pre>
+ * 一次行锁处理一批买家，执行完后再将结果逐个通知给等待中的请求线程。
+ * <ol>
+ *     <li>合并扣减成功：这一批请求全部成功</li>
+ *     <li>合并扣减失败：说明库存不够整批扣减，查询剩余库存 remain，按排队顺序让前面 remain 个数量的请求成功，其余失败</li>
+ * </ol>
+ * leader 拿到自己的结果后就退出，不会因为一直有新请求入队而一直替别人提交；
+ * 还在队列中的请求定时醒来检查，没有 leader 时自己接手。
+ */
+@Slf4j
+@Component
+public class StockDeductCombiner {
+
+    /**
+     * 一批最多合并的请求数
+     */
+    private static final int MAX_BATCH_SIZE = 200;
+
+    /**
+     * 库存不够整批扣减时，按剩余库存部分扣减的最大尝试次数（部分扣减时库存可能又被其他节点修改了）
+     */
+    private static final int MAX_PARTIAL_RETRY = 3;
+
+    /**
+     * 等待结果的请求每隔多久检查一次是否需要接手 leader(ms)
+     */
+    private static final long LEADER_CHECK_INTERVAL = 10;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    /**
+     * goodsId -> 该商品的扣减请求队列
+     */
+    private final ConcurrentHashMap<String, GoodsQueue> goodsQueueMap = new ConcurrentHashMap<>();
+
+    /**
+     * 扣减库存，会和同一时刻扣减同一商品的其他请求合并成一条sql执行
+     *
+     * @param goodsId 商品id
+     * @param num     扣减数量
+     * @return 1：扣减成功，0：库存不足扣减失败
+     */
+    public int deduct(String goodsId, int num) {
+        GoodsQueue goodsQueue = this.goodsQueueMap.computeIfAbsent(goodsId, GoodsQueue::new);
+        DeductRequest request = new DeductRequest(num);
+        goodsQueue.requests.offer(request);
+
+        //抢到 leader 的线程负责将队列中的请求合并提交，没抢到的线程等待 leader 通知结果，leader 退出后由等待的线程接手
+        try {
+            while (true) {
+                this.drain(goodsQueue, request);
+                try {
+                    return request.result.get(LEADER_CHECK_INTERVAL, TimeUnit.MILLISECONDS) ? 1 : 0;
+                } catch (TimeoutException ignored) {
+                    //还没有结果，再看一下是否需要接手 leader
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待库存合并扣减结果被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("库存合并扣减失败", e.getCause());
+        }
+    }
+
+    /**
+     * 合并提交队列中的请求，自己的请求有结果后退出
+     */
+    private void drain(GoodsQueue goodsQueue, DeductRequest self) {
+        //释放 leader 后需要再看一下队列，避免在释放前一刻入队的请求没人处理
+        while (!self.result.isDone() && !goodsQueue.requests.isEmpty() && goodsQueue.leader.compareAndSet(false, true)) {
+            try {
+                List<DeductRequest> batch = new ArrayList<>();
+                DeductRequest request;
+                while (batch.size() < MAX_BATCH_SIZE && (request = goodsQueue.requests.poll()) != null) {
+                    batch.add(request);
+                }
+                this.flush(goodsQueue.goodsId, batch);
+            } finally {
+                goodsQueue.leader.set(false);
+            }
+        }
+    }
+
+    /**
+     * 将一批请求合并成一条sql扣减库存，并将结果通知给每个请求
+     */
+    private void flush(String goodsId, List<DeductRequest> batch) {
+        try {
+            int total = batch.stream().mapToInt(r -> r.num).sum();
+            //1、整批扣减
+            if (this.goodsMapper.placeOrder1(goodsId, total) == 1) {
+                batch.forEach(r -> r.result.complete(true));
+                return;
+            }
+            //2、库存不够整批扣减，按剩余库存从队头开始部分扣减
+            for (int i = 0; i < MAX_PARTIAL_RETRY; i++) {
+                GoodsPO goodsPO = this.goodsMapper.selectById(goodsId);
+                int remain = goodsPO == null ? 0 : goodsPO.getNum();
+                int granted = 0, grantedCount = 0;
+                for (DeductRequest r : batch) {
+                    if (granted + r.num > remain) {
+                        break;
+                    }
+                    granted += r.num;
+                    grantedCount++;
+                }
+                if (granted == 0) {
+                    break;
+                }
+                if (this.goodsMapper.placeOrder1(goodsId, granted) == 1) {
+                    for (int j = 0; j < batch.size(); j++) {
+                        batch.get(j).result.complete(j < grantedCount);
+                    }
+                    return;
+                }
+            }
+            batch.forEach(r -> r.result.complete(false));
+        } catch (Exception e) {
+            log.error("商品[{}]库存合并扣减异常，本批请求数：{}", goodsId, batch.size(), e);
+            batch.forEach(r -> r.result.completeExceptionally(e));
+        }
+    }
+
+    private static class GoodsQueue {
+        private final String goodsId;
+        private final Queue<DeductRequest> requests = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean leader = new AtomicBoolean(false);
+
+        GoodsQueue(String goodsId) {
+            this.goodsId = goodsId;
+        }
+    }
+
+    private static class DeductRequest {
+        private final int num;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        DeductRequest(int num) {
+            this.num = num;
+        }
+    }
+}
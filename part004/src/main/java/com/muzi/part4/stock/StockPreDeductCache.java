@@ -0,0 +1,251 @@
+package com.muzi.part4.stock;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存库存预扣减
+ * <br/><br/>
+ * 100人抢10个商品，其中90人注定失败，却依然要到db中执行一次update才知道失败。
+ * 这里在内存中为每个商品维护一个库存计数器（预热时从 t_goods 加载），请求先在内存中预扣减：
+ * <ol>
+ *     <li>商品已标记为卖空：直接失败，不访问db</li>
+ *     <li>内存库存不够：标记卖空，直接失败，不访问db</li>
+ *     <li>内存预扣减成功：才去db中真正扣减库存，db扣减失败时以db为准修正内存库存</li>
+ * </ol>
+ * 内存库存只是db库存的一个估计值，真正防止超卖的仍然是db中的 num - #{num} >= 0，
+ * 后台线程会定期用db中的库存校准内存库存（比如其他节点卖掉了一部分，或者后台补了库存）。
+ * <br/><br/>
+ * 校准时 内存库存 = db库存 - 在途数量，在途数量是已经预扣减、但还没有开始到db中扣减的数量：
+ * 如果db扣减提交之后才减在途数量，提交和减在途之间校准，这次扣减会被db库存和在途数量各算一次，内存库存偏低，
+ * 还有库存却被标记为卖空（少卖）。所以在途数量在db扣减之前（{@link #beforeDbDeduct(String, int)}）就减掉，
+ * db扣减期间校准时这次扣减哪边都没算，内存库存只会偏高，多出来的请求到db中扣减失败后再校准，不会少卖。
+ * 可预扣减的库存和在途数量放在一个 long 中，一次CAS同时修改，校准时看到的两个值是一致的。
+ */
+@Slf4j
+@Component
+public class StockPreDeductCache {
+
+    /**
+     * 内存库存和db库存校准的间隔(ms)
+     */
+    private static final long RECONCILE_INTERVAL_MS = 1000;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    /**
+     * goodsId -> 内存中的库存
+     */
+    private final ConcurrentHashMap<String, GoodsStock> goodsStockMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reconcileExecutor;
+
+    @PostConstruct
+    public void start() {
+        this.reconcileExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stock-pre-deduct-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.reconcileExecutor.scheduleWithFixedDelay(this::reconcileAll, RECONCILE_INTERVAL_MS, RECONCILE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * 预热：从db中加载商品库存到内存中
+     *
+     * @param goodsId 商品id
+     */
+    public void warmup(String goodsId) {
+        this.goodsStockMap.put(goodsId, new GoodsStock());
+        this.reconcile(goodsId);
+    }
+
+    /**
+     * 商品还没有预热时预热
+     *
+     * @param goodsId 商品id
+     */
+    public void warmupIfAbsent(String goodsId) {
+        if (!this.goodsStockMap.containsKey(goodsId)) {
+            synchronized (this) {
+                if (!this.goodsStockMap.containsKey(goodsId)) {
+                    this.warmup(goodsId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 内存中预扣减库存
+     *
+     * @param goodsId 商品id
+     * @param num     扣减数量
+     * @return true：预扣减成功，需要在db扣减之前调用 {@link #beforeDbDeduct(String, int)}，db扣减结束后调用 {@link #confirm(String, boolean)}，
+     * 不去db中扣减时调用 {@link #release(String, int)}；false：库存不够，直接失败
+     */
+    public boolean tryDeduct(String goodsId, int num) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        if (goodsStock == null) {
+            throw new IllegalStateException(String.format("商品[%s]库存未预热", goodsId));
+        }
+        //卖空标记，一次volatile读就能拒绝请求
+        if (goodsStock.soldOut) {
+            return false;
+        }
+        while (true) {
+            long state = goodsStock.state.get();
+            int available = available(state);
+            if (available < num) {
+                if (available <= 0) {
+                    goodsStock.soldOut = true;
+                    //和校准并发时，以最新的库存为准
+                    if (available(goodsStock.state.get()) > 0) {
+                        goodsStock.soldOut = false;
+                    }
+                }
+                return false;
+            }
+            //减可预扣减的库存，同时加在途数量
+            if (goodsStock.state.compareAndSet(state, state(available - num, inflight(state) + num))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 预扣减成功，但是不去db中扣减了（比如队列满了），归还预扣减的库存
+     *
+     * @param goodsId 商品id
+     * @param num     扣减数量
+     */
+    public void release(String goodsId, int num) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        if (goodsStock == null) {
+            return;
+        }
+        goodsStock.state.getAndUpdate(state -> state(available(state) + num, inflight(state) - num));
+        goodsStock.soldOut = false;
+    }
+
+    /**
+     * 到db中扣减之前调用，这次扣减不再算在途数量，见类注释
+     *
+     * @param goodsId 商品id
+     * @param num     扣减数量
+     */
+    public void beforeDbDeduct(String goodsId, int num) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        if (goodsStock == null) {
+            return;
+        }
+        goodsStock.state.getAndUpdate(state -> state(available(state), inflight(state) - num));
+    }
+
+    /**
+     * db扣减结束后调用，告知db扣减的结果
+     *
+     * @param goodsId 商品id
+     * @param success db扣减是否成功
+     */
+    public void confirm(String goodsId, boolean success) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        if (goodsStock == null) {
+            return;
+        }
+        if (!success) {
+            //内存认为有库存，db却扣减失败了，说明内存库存偏高（比如其他节点也在卖），以db为准校准
+            this.reconcile(goodsId);
+        }
+    }
+
+    /**
+     * 商品是否已卖空
+     *
+     * @param goodsId 商品id
+     * @return
+     */
+    public boolean isSoldOut(String goodsId) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        return goodsStock != null && goodsStock.soldOut;
+    }
+
+    private void reconcileAll() {
+        for (String goodsId : this.goodsStockMap.keySet()) {
+            try {
+                this.reconcile(goodsId);
+            } catch (Exception e) {
+                log.error("商品[{}]内存库存校准失败", goodsId, e);
+            }
+        }
+    }
+
+    /**
+     * 用db中的库存校准内存库存：内存库存 = db库存 - 已经预扣减但还没有到db中扣减的数量
+     * <br/>
+     * 读db之后才开始的预扣减在在途数量中，db中没有，不会重复计算；读db时正在db中扣减的，两边都没算，内存库存偏高
+     *
+     * @param goodsId 商品id
+     */
+    public void reconcile(String goodsId) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        if (goodsStock == null) {
+            return;
+        }
+        GoodsPO goodsPO = this.goodsMapper.selectById(goodsId);
+        int dbNum = goodsPO == null ? 0 : goodsPO.getNum();
+        long state = goodsStock.state.updateAndGet(current -> state(Math.max(dbNum - inflight(current), 0), inflight(current)));
+        goodsStock.soldOut = available(state) <= 0;
+    }
+
+    /**
+     * 内存中可预扣减的库存
+     *
+     * @param goodsId 商品id
+     * @return 没有预热时返回-1
+     */
+    public int getAvailable(String goodsId) {
+        GoodsStock goodsStock = this.goodsStockMap.get(goodsId);
+        return goodsStock == null ? -1 : available(goodsStock.state.get());
+    }
+
+    private static long state(int available, int inflight) {
+        return ((long) available << 32) | (inflight & 0xFFFFFFFFL);
+    }
+
+    private static int available(long state) {
+        return (int) (state >> 32);
+    }
+
+    private static int inflight(long state) {
+        return (int) state;
+    }
+
+    private static class GoodsStock {
+        /**
+         * 高32位：内存中可预扣减的库存；低32位：在途数量，已经在内存中预扣减成功，但是还没有开始到db中扣减的数量
+         */
+        private final AtomicLong state = new AtomicLong(0);
+
+        /**
+         * 卖空标记
+         */
+        private volatile boolean soldOut;
+    }
+}
@@ -6,7 +6,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 
 @SpringBootApplication
-@MapperScan(basePackages = "com.itsoku.lesson004.mapper")
+@MapperScan(basePackages = "com.muzi.part4.mapper")
 public class part4Application {
 
     public static void main(String[] args) {
@@ -16,3 +16,24 @@ create table if not exists t_concurrency_safe
     version  bigint default 0 comment '系统版本号，默认为0，每次更新+1',
     UNIQUE KEY `uq_safe_key` (`safe_key`)
 ) comment = '并发安全辅助表';
+
+
+-- 商品库存分段表，将热点商品的库存拆分到多行，扣减时分散到不同的行上，减少单行锁竞争
+create table if not exists t_goods_segment
+(
+    id         varchar(32) primary key comment 'id',
+    goods_id   varchar(32) not null comment '商品id',
+    segment_no int         not null comment '分段编号，从0开始',
+    num        int         not null comment '该分段的库存',
+    UNIQUE KEY `uq_goods_segment` (`goods_id`, `segment_no`)
+) comment = '商品库存分段表';
+
+
+-- 订单表
+create table if not exists t_order
+(
+    order_id varchar(32) primary key comment '订单id',
+    goods_id varchar(32) not null comment '商品id',
+    num      int         not null comment '购买数量',
+    status   int         not null comment '订单状态，1：下单成功，2：下单失败'
+) comment = '订单表';
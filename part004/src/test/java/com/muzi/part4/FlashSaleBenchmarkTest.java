@@ -0,0 +1,69 @@
+package com.muzi.part4;
+
+import com.muzi.part4.benchmark.FlashSaleBenchmarkConfig;
+import com.muzi.part4.benchmark.FlashSaleBenchmarkResult;
+import com.muzi.part4.service.GoodsService;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+/**
+ * 秒杀压测，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class FlashSaleBenchmarkTest {
+
+    @Autowired
+    private GoodsService goodsService;
+
+    @Test
+    public void test1() throws InterruptedException {
+        //100人抢1个商品的10件库存，和 /test1 ~ /test9 一样的场景
+        FlashSaleBenchmarkConfig config = new FlashSaleBenchmarkConfig();
+        config.setBuyers(100);
+        config.setConcurrency(100);
+        config.setStock(10);
+        config.setGoodsCount(1);
+
+        List<FlashSaleBenchmarkResult> results = this.goodsService.flashSaleBenchmark(config);
+        print(results);
+        for (FlashSaleBenchmarkResult result : results) {
+            Assertions.assertFalse(result.isOversold(), result.getStrategy() + " 超卖");
+            Assertions.assertFalse(result.isStockMismatch(), result.getStrategy() + " 扣减库存数和成功人数不一致");
+        }
+    }
+
+    @Test
+    public void test2() throws InterruptedException {
+        //1000人抢20个商品，每个商品50件库存，热点倾斜：前几个商品被抢的概率远高于后面的商品
+        FlashSaleBenchmarkConfig config = new FlashSaleBenchmarkConfig();
+        config.setBuyers(1000);
+        config.setConcurrency(50);
+        config.setStock(50);
+        config.setGoodsCount(20);
+        config.setSkew(1.2);
+
+        List<FlashSaleBenchmarkResult> results = this.goodsService.flashSaleBenchmark(config);
+        print(results);
+        for (FlashSaleBenchmarkResult result : results) {
+            Assertions.assertFalse(result.isOversold(), result.getStrategy() + " 超卖");
+        }
+    }
+
+    private void print(List<FlashSaleBenchmarkResult> results) {
+        System.out.println("\n秒杀压测结果如下：");
+        System.out.println(String.format("%-6s %8s %8s %10s %10s %8s %8s %8s %10s %6s %6s %6s",
+                "方案", "成功", "失败", "耗时(ms)", "吞吐量", "p50", "p99", "max", "db交互/单", "超卖", "不一致", "少卖"));
+        for (FlashSaleBenchmarkResult r : results) {
+            System.out.println(String.format("%-6s %8d %8d %10d %10.1f %8.2f %8.2f %8.2f %10.2f %6s %6s %6d",
+                    r.getStrategy(), r.getSuccessNum(), r.getFailNum(), r.getCostTime(), r.getRequestsPerSecond(),
+                    r.getP50(), r.getP99(), r.getMax(), r.getDbRoundTripsPerSuccess(), r.isOversold(), r.isStockMismatch(), r.getUndersoldGoods()));
+        }
+    }
+}
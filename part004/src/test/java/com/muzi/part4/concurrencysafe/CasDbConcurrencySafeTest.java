@@ -0,0 +1,70 @@
+package com.muzi.part4.concurrencysafe;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.muzi.part4.mapper.ConcurrencySafeMapper;
+import com.muzi.part4.po.ConcurrencySafePO;
+import com.muzi.part4.utils.IdUtils;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 乐观锁并发安全：调用方已经开启事务时不重试、不缓存version，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class CasDbConcurrencySafeTest {
+
+    @Autowired
+    private CasDbConcurrencySafe casDbConcurrencySafe;
+
+    @Autowired
+    private ConcurrencySafeMapper concurrencySafeMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test1() {
+        String key = IdUtils.generateId();
+        Object maxRetries = ReflectionTestUtils.getField(this.casDbConcurrencySafe, "maxRetries");
+        ReflectionTestUtils.setField(this.casDbConcurrencySafe, "maxRetries", 3);
+        try {
+            //先执行一次，创建key并缓存version
+            this.casDbConcurrencySafe.exec(key, () -> "ok", null, null);
+
+            //外层事务中执行，callback 执行期间另一个连接修改了version，乐观锁更新失败
+            AtomicInteger calls = new AtomicInteger();
+            Assertions.assertThrows(ConcurrencyFailException.class, () -> this.transactionTemplate.executeWithoutResult(status ->
+                    this.casDbConcurrencySafe.exec(key, () -> {
+                        calls.incrementAndGet();
+                        CompletableFuture.runAsync(() -> this.concurrencySafeMapper.optimisticUpdate(this.getByKey(key))).join();
+                        return "ok";
+                    }, null, null)));
+            //不重试：重试会把外层事务标记为只能回滚，外层拿到的是 UnexpectedRollbackException
+            Assertions.assertEquals(1, calls.get());
+            Assertions.assertNull(((Map<String, Long>) ReflectionTestUtils.getField(this.casDbConcurrencySafe, "versionCache")).get(key));
+
+            //外层事务中执行成功，提交前不缓存version
+            this.transactionTemplate.executeWithoutResult(status -> this.casDbConcurrencySafe.exec(key, () -> "ok", null, null));
+            Assertions.assertNull(((Map<String, Long>) ReflectionTestUtils.getField(this.casDbConcurrencySafe, "versionCache")).get(key));
+            Assertions.assertEquals(3L, this.getByKey(key).getVersion());
+        } finally {
+            ReflectionTestUtils.setField(this.casDbConcurrencySafe, "maxRetries", maxRetries);
+        }
+    }
+
+    private ConcurrencySafePO getByKey(String key) {
+        return this.concurrencySafeMapper.selectOne(Wrappers.lambdaQuery(ConcurrencySafePO.class).eq(ConcurrencySafePO::getSafeKey, key));
+    }
+}
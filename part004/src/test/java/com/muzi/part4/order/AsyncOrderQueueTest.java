@@ -0,0 +1,105 @@
+package com.muzi.part4.order;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import com.muzi.part4.stock.StockPreDeductCache;
+import com.muzi.part4.utils.IdUtils;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 异步下单：返回订单id时受理记录已经刷盘；一批订单一直写入db失败时只有失败的订单移入死信队列，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class AsyncOrderQueueTest {
+
+    @Autowired
+    private AsyncOrderQueue asyncOrderQueue;
+
+    @Autowired
+    private StockPreDeductCache stockPreDeductCache;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Value("${order-queue.wal-file}")
+    private String walFile;
+
+    @Test
+    public void test1() throws Exception {
+        String goodsId = this.initGoods(10);
+        String orderId = this.asyncOrderQueue.placeOrder(goodsId, 1);
+        Assertions.assertNotNull(orderId);
+
+        //返回订单id之前受理记录已经写入日志；写db线程可能已经写完并清空了日志，此时订单已经在db中
+        String wal = new String(Files.readAllBytes(Paths.get(this.walFile)), StandardCharsets.UTF_8);
+        OrderStatus status = this.asyncOrderQueue.getOrderStatus(orderId);
+        Assertions.assertTrue(wal.contains("A," + orderId + "," + goodsId + ",1") || status != OrderStatus.QUEUING, wal);
+
+        Assertions.assertTrue(this.asyncOrderQueue.awaitEmpty(10000));
+        Assertions.assertEquals(OrderStatus.SUCCESS, this.asyncOrderQueue.getOrderStatus(orderId));
+        Assertions.assertEquals(9, this.goodsMapper.selectById(goodsId).getNum());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test2() throws Exception {
+        String goodsId = this.initGoods(10);
+        Object maxRetries = ReflectionTestUtils.getField(this.asyncOrderQueue, "maxRetries");
+        ReflectionTestUtils.setField(this.asyncOrderQueue, "maxRetries", 1);
+        try {
+            //订单id超过 t_order.order_id 的长度，这个订单永远写不进db，和正常订单放在同一批
+            OrderRecord bad = new OrderRecord(IdUtils.generateId() + IdUtils.generateId(), goodsId, 1);
+            List<OrderRecord> batch = new ArrayList<>(Arrays.asList(bad,
+                    new OrderRecord(IdUtils.generateId(), goodsId, 1),
+                    new OrderRecord(IdUtils.generateId(), goodsId, 2)));
+            ((OrderWal) ReflectionTestUtils.getField(this.asyncOrderQueue, "wal")).accept(batch);
+            Map<String, OrderRecord> pendingOrders = (Map<String, OrderRecord>) ReflectionTestUtils.getField(this.asyncOrderQueue, "pendingOrders");
+            batch.forEach(order -> pendingOrders.put(order.getOrderId(), order));
+            ((BlockingQueue<OrderRecord>) ReflectionTestUtils.getField(this.asyncOrderQueue, "queue")).addAll(batch);
+            String orderId = this.asyncOrderQueue.placeOrder(goodsId, 3);
+            Assertions.assertNotNull(orderId);
+
+            //死信订单不用等，正常订单全部写入db
+            long start = System.currentTimeMillis();
+            Assertions.assertTrue(this.asyncOrderQueue.awaitEmpty(10000));
+            Assertions.assertTrue(System.currentTimeMillis() - start < 9000);
+            Assertions.assertEquals(OrderStatus.DEAD_LETTER, this.asyncOrderQueue.getOrderStatus(bad.getOrderId()));
+            Assertions.assertEquals(OrderStatus.SUCCESS, this.asyncOrderQueue.getOrderStatus(batch.get(1).getOrderId()));
+            Assertions.assertEquals(OrderStatus.SUCCESS, this.asyncOrderQueue.getOrderStatus(batch.get(2).getOrderId()));
+            Assertions.assertEquals(OrderStatus.SUCCESS, this.asyncOrderQueue.getOrderStatus(orderId));
+            Assertions.assertEquals(4, this.goodsMapper.selectById(goodsId).getNum());
+            Assertions.assertTrue(this.asyncOrderQueue.getDeadLetterCount() >= 1);
+        } finally {
+            ReflectionTestUtils.setField(this.asyncOrderQueue, "maxRetries", maxRetries);
+        }
+    }
+
+    private String initGoods(int stock) {
+        String goodsId = IdUtils.generateId();
+        GoodsPO goodsPO = new GoodsPO();
+        goodsPO.setGoodsId(goodsId);
+        goodsPO.setGoodsName("异步下单测试商品");
+        goodsPO.setNum(stock);
+        goodsPO.setVersion(0L);
+        this.goodsMapper.insert(goodsPO);
+        this.stockPreDeductCache.warmup(goodsId);
+        return goodsId;
+    }
+}
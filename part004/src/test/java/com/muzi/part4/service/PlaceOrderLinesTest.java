@@ -0,0 +1,99 @@
+package com.muzi.part4.service;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.order.OrderLine;
+import com.muzi.part4.po.GoodsPO;
+import com.muzi.part4.utils.IdUtils;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Arrays;
+
+/**
+ * 多个商品一起下单，一条sql扣减所有商品的库存，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class PlaceOrderLinesTest {
+
+    @Autowired
+    private GoodsService goodsService;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Test
+    public void test1() {
+        //所有商品库存都够，全部扣减
+        String goodsId1 = this.initGoods(10);
+        String goodsId2 = this.initGoods(5);
+        String goodsId3 = this.initGoods(1);
+        Assertions.assertTrue(this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId1, 3), new OrderLine(goodsId2, 5), new OrderLine(goodsId3, 1))));
+        Assertions.assertEquals(7, this.getNum(goodsId1));
+        Assertions.assertEquals(0, this.getNum(goodsId2));
+        Assertions.assertEquals(0, this.getNum(goodsId3));
+    }
+
+    @Test
+    public void test2() {
+        //一个商品库存不够，全部回滚，其他商品的库存不变
+        String goodsId1 = this.initGoods(10);
+        String goodsId2 = this.initGoods(2);
+        String goodsId3 = this.initGoods(10);
+        Assertions.assertFalse(this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId1, 3), new OrderLine(goodsId2, 3), new OrderLine(goodsId3, 3))));
+        Assertions.assertEquals(10, this.getNum(goodsId1));
+        Assertions.assertEquals(2, this.getNum(goodsId2));
+        Assertions.assertEquals(10, this.getNum(goodsId3));
+    }
+
+    @Test
+    public void test3() {
+        //相同商品的明细合并后再判断库存：合计4件，库存5件成功
+        String goodsId1 = this.initGoods(5);
+        String goodsId2 = this.initGoods(5);
+        Assertions.assertTrue(this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId1, 2), new OrderLine(goodsId2, 1), new OrderLine(goodsId1, 2))));
+        Assertions.assertEquals(1, this.getNum(goodsId1));
+        Assertions.assertEquals(4, this.getNum(goodsId2));
+
+        //合计6件，单条明细都不超过库存，但是合起来不够，全部回滚
+        Assertions.assertFalse(this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId2, 3), new OrderLine(goodsId2, 3), new OrderLine(goodsId1, 1))));
+        Assertions.assertEquals(1, this.getNum(goodsId1));
+        Assertions.assertEquals(4, this.getNum(goodsId2));
+    }
+
+    @Test
+    public void test4() {
+        //购买数量必须大于0，不能用负数把库存加回去
+        String goodsId1 = this.initGoods(5);
+        String goodsId2 = this.initGoods(5);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId1, 1), new OrderLine(goodsId2, -3))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.goodsService.placeOrder(Arrays.asList(
+                new OrderLine(goodsId1, 0))));
+        Assertions.assertEquals(5, this.getNum(goodsId1));
+        Assertions.assertEquals(5, this.getNum(goodsId2));
+    }
+
+    private String initGoods(int stock) {
+        String goodsId = IdUtils.generateId();
+        GoodsPO goodsPO = new GoodsPO();
+        goodsPO.setGoodsId(goodsId);
+        goodsPO.setGoodsName("多商品下单测试商品");
+        goodsPO.setNum(stock);
+        goodsPO.setVersion(0L);
+        this.goodsMapper.insert(goodsPO);
+        return goodsId;
+    }
+
+    private int getNum(String goodsId) {
+        return this.goodsMapper.selectById(goodsId).getNum();
+    }
+}
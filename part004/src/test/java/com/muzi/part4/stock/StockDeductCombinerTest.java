@@ -0,0 +1,74 @@
+package com.muzi.part4.stock;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import com.muzi.part4.utils.IdUtils;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存合并扣减，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class StockDeductCombinerTest {
+
+    @Autowired
+    private StockDeductCombiner stockDeductCombiner;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Test
+    public void test1() throws InterruptedException {
+        //请求数是库存的2倍，不超卖、不少卖，所有请求都拿到结果
+        int stock = 300;
+        String goodsId = this.initGoods(stock);
+        int requests = stock * 2;
+
+        AtomicInteger successNum = new AtomicInteger();
+        //单个请求的最大耗时，leader 拿到自己的结果后就退出，不会一直替后面源源不断的请求提交
+        AtomicLong maxCost = new AtomicLong();
+        CountDownLatch countDownLatch = new CountDownLatch(requests);
+        ExecutorService threadPool = Executors.newFixedThreadPool(32);
+        for (int i = 0; i < requests; i++) {
+            threadPool.execute(() -> {
+                try {
+                    long start = System.nanoTime();
+                    successNum.addAndGet(this.stockDeductCombiner.deduct(goodsId, 1));
+                    maxCost.accumulateAndGet(System.nanoTime() - start, Math::max);
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(countDownLatch.await(60, TimeUnit.SECONDS));
+        threadPool.shutdown();
+
+        Assertions.assertEquals(stock, successNum.get());
+        Assertions.assertEquals(0, this.goodsMapper.selectById(goodsId).getNum());
+        Assertions.assertTrue(maxCost.get() < TimeUnit.SECONDS.toNanos(10), "maxCost: " + maxCost.get());
+    }
+
+    private String initGoods(int stock) {
+        String goodsId = IdUtils.generateId();
+        GoodsPO goodsPO = new GoodsPO();
+        goodsPO.setGoodsId(goodsId);
+        goodsPO.setGoodsName("合并扣减测试商品");
+        goodsPO.setNum(stock);
+        goodsPO.setVersion(0L);
+        this.goodsMapper.insert(goodsPO);
+        return goodsId;
+    }
+}
@@ -0,0 +1,116 @@
+package com.muzi.part4.stock;
+
+import com.muzi.part4.mapper.GoodsMapper;
+import com.muzi.part4.po.GoodsPO;
+import com.muzi.part4.utils.IdUtils;
+import com.muzi.part4Application;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存库存预扣减，使用内嵌的H2数据库
+ */
+@SpringBootTest(classes = part4Application.class)
+@ActiveProfiles("benchmark")
+public class StockPreDeductCacheTest {
+
+    @Autowired
+    private StockPreDeductCache stockPreDeductCache;
+
+    @Autowired
+    private GoodsMapper goodsMapper;
+
+    @Test
+    public void test1() {
+        String goodsId = this.initGoods(10);
+
+        //db扣减已经提交、还没有confirm时校准，这次扣减不能被db库存和在途数量各算一次
+        Assertions.assertTrue(this.stockPreDeductCache.tryDeduct(goodsId, 1));
+        this.stockPreDeductCache.beforeDbDeduct(goodsId, 1);
+        Assertions.assertEquals(1, this.goodsMapper.placeOrder1(goodsId, 1));
+        this.stockPreDeductCache.reconcile(goodsId);
+        Assertions.assertEquals(9, this.stockPreDeductCache.getAvailable(goodsId));
+        this.stockPreDeductCache.confirm(goodsId, true);
+
+        //预扣减了还没去db中扣减时校准，在途数量要扣掉
+        Assertions.assertTrue(this.stockPreDeductCache.tryDeduct(goodsId, 2));
+        this.stockPreDeductCache.reconcile(goodsId);
+        Assertions.assertEquals(7, this.stockPreDeductCache.getAvailable(goodsId));
+
+        //不去db中扣减了，归还
+        this.stockPreDeductCache.release(goodsId, 2);
+        Assertions.assertEquals(9, this.stockPreDeductCache.getAvailable(goodsId));
+        this.stockPreDeductCache.reconcile(goodsId);
+        Assertions.assertEquals(9, this.stockPreDeductCache.getAvailable(goodsId));
+        Assertions.assertFalse(this.stockPreDeductCache.isSoldOut(goodsId));
+    }
+
+    @Test
+    public void test2() throws InterruptedException {
+        //人数和库存一样多，每人买1件，另一个线程不停地校准，只要有一个人被错误地拒绝就会少卖
+        int stock = 300;
+        String goodsId = this.initGoods(stock);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread reconcileThread = new Thread(() -> {
+            while (running.get()) {
+                this.stockPreDeductCache.reconcile(goodsId);
+            }
+        });
+        reconcileThread.start();
+
+        AtomicInteger successNum = new AtomicInteger();
+        CountDownLatch countDownLatch = new CountDownLatch(stock);
+        ExecutorService threadPool = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < stock; i++) {
+            threadPool.execute(() -> {
+                try {
+                    if (!this.stockPreDeductCache.tryDeduct(goodsId, 1)) {
+                        return;
+                    }
+                    int update = 0;
+                    this.stockPreDeductCache.beforeDbDeduct(goodsId, 1);
+                    try {
+                        update = this.goodsMapper.placeOrder1(goodsId, 1);
+                    } finally {
+                        this.stockPreDeductCache.confirm(goodsId, update == 1);
+                    }
+                    successNum.addAndGet(update);
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(countDownLatch.await(60, TimeUnit.SECONDS));
+        running.set(false);
+        reconcileThread.join();
+        threadPool.shutdown();
+
+        Assertions.assertEquals(stock, successNum.get(), "少卖");
+        Assertions.assertEquals(0, this.goodsMapper.selectById(goodsId).getNum());
+        this.stockPreDeductCache.reconcile(goodsId);
+        Assertions.assertTrue(this.stockPreDeductCache.isSoldOut(goodsId));
+    }
+
+    private String initGoods(int stock) {
+        String goodsId = IdUtils.generateId();
+        GoodsPO goodsPO = new GoodsPO();
+        goodsPO.setGoodsId(goodsId);
+        goodsPO.setGoodsName("内存预扣减测试商品");
+        goodsPO.setNum(stock);
+        goodsPO.setVersion(0L);
+        this.goodsMapper.insert(goodsPO);
+        this.stockPreDeductCache.warmup(goodsId);
+        return goodsId;
+    }
+}
@@ -0,0 +1,45 @@
+package com.muzi.part5.Adaptive;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 自适应并发限流：根据方法的实际耗时自动调整允许的并发数，详见 {@link AdaptiveConcurrencyLimiter}
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AdaptiveConcurrencyLimit {
+
+    /**
+     * 初始的并发数
+     *
+     * @return
+     */
+    int initialLimit() default 20;
+
+
+    /**
+     * 并发数下限
+     *
+     * @return
+     */
+    int minLimit() default 1;
+
+
+    /**
+     * 并发数上限
+     *
+     * @return
+     */
+    int maxLimit() default 200;
+
+
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个限流器，如：#ip、#userId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+}
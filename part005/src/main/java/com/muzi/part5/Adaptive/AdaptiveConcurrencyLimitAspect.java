@@ -0,0 +1,90 @@
+package com.muzi.part5.Adaptive;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.LimiterMetadata;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Aspect
+@Component
+public class AdaptiveConcurrencyLimitAspect {
+
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    /**
+     * 每个方法的元数据（注解参数、方法签名、共用的限流器），只在第一次调用时解析
+     */
+    private final ConcurrentHashMap<Method, LimiterMetadata<AdaptiveConcurrencyLimiter>> metadataMap = new ConcurrentHashMap<>();
+
+    /**
+     * 按调用方限流时，每个调用方的限流器，有界、会过期
+     */
+    private ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters;
+
+    @PostConstruct
+    public void init() {
+        limiters = limiterCacheFactory.newCache();
+    }
+
+    @Around("@annotation(com.muzi.part5.Adaptive.AdaptiveConcurrencyLimit)")
+    public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        LimiterMetadata<AdaptiveConcurrencyLimiter> metadata = metadataMap.get(method);
+        if (metadata == null) {
+            metadata = metadataMap.computeIfAbsent(method, this::createMetadata);
+        }
+
+        AdaptiveConcurrencyLimiter limiter = metadata.getLimiter(joinPoint, keyResolver, limiters);
+        if (!limiter.tryAcquire()) {
+            return "服务繁忙，请稍后重试";
+        }
+
+        long startTime = System.nanoTime();
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable e) {
+            limiter.releaseIgnored();
+            throw e;
+        }
+        limiter.release(System.nanoTime() - startTime);
+        return result;
+    }
+
+    private LimiterMetadata<AdaptiveConcurrencyLimiter> createMetadata(Method method) {
+        AdaptiveConcurrencyLimit annotation = method.getAnnotation(AdaptiveConcurrencyLimit.class);
+        int initialLimit = annotation.initialLimit();
+        int minLimit = annotation.minLimit();
+        int maxLimit = annotation.maxLimit();
+        return new LimiterMetadata<>(method, annotation.key(), key -> new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit));
+    }
+
+    /**
+     * 所有限流器的指标
+     *
+     * @return key -> 指标
+     */
+    public Map<String, AdaptiveConcurrencyLimiter.AdaptiveMetrics> metrics() {
+        Map<String, AdaptiveConcurrencyLimiter.AdaptiveMetrics> metrics = new LinkedHashMap<>();
+        metadataMap.values().stream().filter(metadata -> metadata.getSharedLimiter() != null)
+                .forEach(metadata -> metrics.put(metadata.getMethodKey(), metadata.getSharedLimiter().metrics()));
+        limiters.forEach((key, limiter) -> metrics.put(key, limiter.metrics()));
+        return metrics;
+    }
+}
@@ -0,0 +1,193 @@
+package com.muzi.part5.Adaptive;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限流器（TCP Vegas 算法）
+ * <br/><br/>
+ * 固定的限流值要么太低浪费了容量，要么太高在下游变慢时压垮系统。这里根据方法的耗时(RTT)调整并发数 limit：
+ * <ol>
+ *     <li>rttNoLoad：没有排队时的耗时，取观察到的最小耗时，每30秒用最近一个窗口的最小耗时重置一次，适应下游能力的变化</li>
+ *     <li>每个采样窗口（100ms，且至少10个样本）结束时，估算排队的请求数 queue = limit * (1 - rttNoLoad / rtt)</li>
+ *     <li>queue 小于 alpha = 3 * log10(limit)：还有余量，limit 增加 log10(limit)；
+ *     queue 大于 beta = 6 * log10(limit)：已经在排队，limit 减少 log10(limit)，rtt 超过 rttNoLoad 的2倍时按比例下降到 2 * limit * rttNoLoad / rtt（最多减半）；
+ *     之间则保持不变</li>
+ * </ol>
+ * 窗口内的请求没有用满 limit 的一半时不增加 limit，避免流量小的时候 limit 无限增长。
+ * 获取许可、归还许可只有原子操作，每个窗口只有一个线程（tryLock 成功的那个）计算新的 limit。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int WINDOW_MIN_SAMPLES = 10;
+
+    private static final long RTT_NO_LOAD_RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    /**
+     * 当前允许的并发数
+     */
+    private volatile double limit;
+
+    /**
+     * 正在执行的请求数
+     */
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    /**
+     * 当前采样窗口：最小耗时、样本数、最大并发数
+     */
+    private final LongAccumulator windowMinRtt = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAdder windowSamples = new LongAdder();
+
+    private final LongAccumulator windowMaxInflight = new LongAccumulator(Math::max, 0);
+
+    private volatile long windowStartNanos = System.nanoTime();
+
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    private volatile long rttNoLoad;
+
+    private long rttNoLoadResetNanos;
+
+    private final LongAdder passed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("require 0 < minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * 尝试获取许可
+     *
+     * @return 是否获取到许可，获取到之后必须调用 {@link #release(long)} 或 {@link #releaseIgnored()}
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = this.inflight.get();
+            if (current >= (int) this.limit) {
+                this.rejected.increment();
+                return false;
+            }
+            if (this.inflight.compareAndSet(current, current + 1)) {
+                this.windowMaxInflight.accumulate(current + 1);
+                this.passed.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求执行结束，归还许可并记录耗时
+     *
+     * @param rttNanos 耗时(纳秒)
+     */
+    public void release(long rttNanos) {
+        this.inflight.decrementAndGet();
+        this.windowMinRtt.accumulate(rttNanos);
+        this.windowSamples.increment();
+        this.maybeUpdateLimit();
+    }
+
+    /**
+     * 请求异常结束，归还许可，耗时不作为样本（业务异常的耗时不能反映下游的能力）
+     */
+    public void releaseIgnored() {
+        this.inflight.decrementAndGet();
+    }
+
+    private void maybeUpdateLimit() {
+        long now = System.nanoTime();
+        if (now - this.windowStartNanos < WINDOW_NANOS || this.windowSamples.sum() < WINDOW_MIN_SAMPLES) {
+            return;
+        }
+        if (!this.updateLock.tryLock()) {
+            return;
+        }
+        try {
+            //其他线程刚刚更新过
+            if (now - this.windowStartNanos < WINDOW_NANOS) {
+                return;
+            }
+            long rtt = this.windowMinRtt.getThenReset();
+            long maxInflight = this.windowMaxInflight.getThenReset();
+            this.windowSamples.reset();
+            this.windowStartNanos = now;
+            if (rtt == Long.MAX_VALUE) {
+                return;
+            }
+            if (this.rttNoLoad == 0 || rtt < this.rttNoLoad || now - this.rttNoLoadResetNanos > RTT_NO_LOAD_RESET_NANOS) {
+                this.rttNoLoad = rtt;
+                this.rttNoLoadResetNanos = now;
+            }
+            this.limit = this.nextLimit(this.limit, rtt, maxInflight);
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    private double nextLimit(double limit, long rtt, long maxInflight) {
+        double log = Math.max(1, Math.log10(limit));
+        double queue = Math.ceil(limit * (1 - (double) this.rttNoLoad / rtt));
+        double next = limit;
+        if (queue <= 3 * log) {
+            if (maxInflight * 2 >= limit) {
+                next = limit + log;
+            }
+        } else if (queue >= 6 * log) {
+            //排队严重时按耗时的比例快速下降，最多减半
+            next = Math.max(limit / 2, Math.min(limit - log, 2 * limit * this.rttNoLoad / rtt));
+        }
+        return Math.max(this.minLimit, Math.min(this.maxLimit, next));
+    }
+
+    public int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * 获取指标快照
+     *
+     * @return
+     */
+    public AdaptiveMetrics metrics() {
+        AdaptiveMetrics metrics = new AdaptiveMetrics();
+        metrics.setLimit((int) this.limit);
+        metrics.setInflight(this.inflight.get());
+        metrics.setRttNoLoadMillis(this.rttNoLoad / 1e6);
+        metrics.setPassed(this.passed.sum());
+        metrics.setRejected(this.rejected.sum());
+        return metrics;
+    }
+
+    @Data
+    public static class AdaptiveMetrics {
+        // 当前允许的并发数
+        private int limit;
+        // 正在执行的请求数
+        private int inflight;
+        // 没有排队时的耗时(ms)
+        private double rttNoLoadMillis;
+        // 放行的请求数
+        private long passed;
+        // 拒绝的请求数
+        private long rejected;
+    }
+}
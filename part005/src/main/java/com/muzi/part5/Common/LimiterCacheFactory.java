@@ -0,0 +1,45 @@
+package com.muzi.part5.Common;
+
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 创建保存限流器的缓存
+ * <br/><br/>
+ * 按调用方（ip、用户id等）限流时，key 的数量没有上限，用 ConcurrentHashMap 保存限流器会一直占用内存。
+ * 这里使用 Guava Cache：超过最大数量时淘汰最近最少使用的限流器，长时间没有访问的限流器自动过期。
+ * 被淘汰的调用方下次请求会创建新的限流器（相当于重新开始计数），过期时间需要大于限流的时间窗口。
+ */
+@Component
+public class LimiterCacheFactory {
+
+    /**
+     * 每种限流器最多保存的数量
+     */
+    @Value("${rate-limit.limiter-cache.maximum-size:100000}")
+    private long maximumSize;
+
+    /**
+     * 限流器多久没有访问后过期(秒)
+     */
+    @Value("${rate-limit.limiter-cache.expire-after-access:600}")
+    private long expireAfterAccess;
+
+    /**
+     * 创建一个有界、会过期的限流器缓存，通过 computeIfAbsent 原子地获取或创建限流器
+     *
+     * @param <V> 限流器类型
+     * @return
+     */
+    public <V> ConcurrentMap<String, V> newCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(this.maximumSize)
+                .expireAfterAccess(this.expireAfterAccess, TimeUnit.SECONDS)
+                .<String, V>build()
+                .asMap();
+    }
+}
@@ -0,0 +1,82 @@
+package com.muzi.part5.Common;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * 被限流方法的元数据，每个方法第一次调用时解析一次，之后每次调用直接使用：
+ * <ul>
+ *     <li>方法签名（method.toString() 每次都会拼接一个新的字符串）</li>
+ *     <li>注解的参数，通过 limiterFactory 捕获</li>
+ *     <li>没有配置 key 时，整个方法共用的限流器，调用时不用再查找</li>
+ * </ul>
+ * 切面中按 Method 缓存元数据，每次调用的开销只剩一次 Map 查找和限流器本身。
+ *
+ * @param <L> 限流器类型
+ */
+public class LimiterMetadata<L> {
+
+    private final Method method;
+
+    private final String methodKey;
+
+    private final String keyExpression;
+
+    private final Function<String, L> limiterFactory;
+
+    /**
+     * 没有配置 key 时整个方法共用的限流器，配置了 key 时为null
+     */
+    private final L sharedLimiter;
+
+    /**
+     * @param method         被限流的方法
+     * @param keyExpression  注解上的 key
+     * @param limiterFactory 限流器的唯一标识 -> 新的限流器
+     */
+    public LimiterMetadata(Method method, String keyExpression, Function<String, L> limiterFactory) {
+        this(method, method.toString(), keyExpression, limiterFactory);
+    }
+
+    /**
+     * @param method         被限流的方法
+     * @param methodKey      方法的唯一标识，一个方法上有多个限流注解时用来区分
+     * @param keyExpression  注解上的 key
+     * @param limiterFactory 限流器的唯一标识 -> 新的限流器
+     */
+    public LimiterMetadata(Method method, String methodKey, String keyExpression, Function<String, L> limiterFactory) {
+        this.method = method;
+        this.methodKey = methodKey;
+        this.keyExpression = keyExpression;
+        this.limiterFactory = limiterFactory;
+        this.sharedLimiter = StringUtils.hasText(keyExpression) ? null : limiterFactory.apply(this.methodKey);
+    }
+
+    /**
+     * 获取本次调用使用的限流器
+     *
+     * @param joinPoint     连接点
+     * @param keyResolver   key解析器
+     * @param keyedLimiters 按调用方区分的限流器缓存
+     * @return
+     */
+    public L getLimiter(ProceedingJoinPoint joinPoint, RateLimitKeyResolver keyResolver, ConcurrentMap<String, L> keyedLimiters) {
+        if (this.sharedLimiter != null) {
+            return this.sharedLimiter;
+        }
+        String key = keyResolver.resolve(joinPoint, this.method, this.methodKey, this.keyExpression);
+        return keyedLimiters.computeIfAbsent(key, this.limiterFactory);
+    }
+
+    public String getMethodKey() {
+        return methodKey;
+    }
+
+    public L getSharedLimiter() {
+        return sharedLimiter;
+    }
+}
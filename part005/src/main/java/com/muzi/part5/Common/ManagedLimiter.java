@@ -0,0 +1,215 @@
+package com.muzi.part5.Common;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 可以在运行时变更参数的限流器，注册到 {@link RateLimiterRegistry} 中，由管理接口查看、变更
+ * <br/><br/>
+ * 注解上的参数是编译期常量，故障期间想调小 maxRequest 只能重新发布。
+ * 这里每个被限流的方法对应一个 ManagedLimiter：
+ * <ol>
+ *     <li>当前生效的参数默认取注解上的参数，可以按方法变更，也可以只变更某一个调用方</li>
+ *     <li>参数变更后，按新参数重新创建限流器（{@link LimiterMetadata} 整体替换，按调用方的限流器从缓存中移除，下次请求时重新创建），
+ *     本机限流器的计数会从0开始，Redis中的窗口不受影响</li>
+ *     <li>统计放行、拒绝的请求数</li>
+ * </ol>
+ *
+ * @param <L> 限流器类型
+ */
+public class ManagedLimiter<L> {
+
+    private final Method method;
+
+    /**
+     * 限流器的名称，默认为方法签名
+     */
+    private final String name;
+
+    private final String keyExpression;
+
+    private final String type;
+
+    private final RateLimitSetting defaultSetting;
+
+    /**
+     * (限流器的唯一标识, 参数) -> 新的限流器
+     */
+    private final BiFunction<String, RateLimitSetting, L> limiterFactory;
+
+    /**
+     * 限流器当前已用的量，为null表示无法获取
+     */
+    private final ToIntFunction<L> usage;
+
+    /**
+     * 按调用方区分的限流器缓存，切面中所有方法共用
+     */
+    private final ConcurrentMap<String, L> keyedLimiters;
+
+    /**
+     * 单独变更过参数的调用方 -> 参数
+     */
+    private final Map<String, RateLimitSetting> keySettings = new ConcurrentHashMap<>();
+
+    private final LongAdder passed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile RateLimitSetting setting;
+
+    private volatile LimiterMetadata<L> metadata;
+
+    /**
+     * @param method         被限流的方法
+     * @param keyExpression  注解上的 key
+     * @param type           限流算法
+     * @param defaultSetting 注解上配置的参数
+     * @param keyedLimiters  按调用方区分的限流器缓存
+     * @param limiterFactory (限流器的唯一标识, 参数) -> 新的限流器
+     * @param usage          限流器当前已用的量，无法获取时传null
+     */
+    public ManagedLimiter(Method method, String keyExpression, String type, RateLimitSetting defaultSetting,
+                          ConcurrentMap<String, L> keyedLimiters, BiFunction<String, RateLimitSetting, L> limiterFactory,
+                          ToIntFunction<L> usage) {
+        this(method, method.toString(), keyExpression, type, defaultSetting, keyedLimiters, limiterFactory, usage);
+    }
+
+    /**
+     * @param method         被限流的方法
+     * @param name           限流器的名称，一个方法上有多个限流注解时用来区分
+     * @param keyExpression  注解上的 key
+     * @param type           限流算法
+     * @param defaultSetting 注解上配置的参数
+     * @param keyedLimiters  按调用方区分的限流器缓存
+     * @param limiterFactory (限流器的唯一标识, 参数) -> 新的限流器
+     * @param usage          限流器当前已用的量，无法获取时传null
+     */
+    public ManagedLimiter(Method method, String name, String keyExpression, String type, RateLimitSetting defaultSetting,
+                          ConcurrentMap<String, L> keyedLimiters, BiFunction<String, RateLimitSetting, L> limiterFactory,
+                          ToIntFunction<L> usage) {
+        this.method = method;
+        this.name = name;
+        this.keyExpression = keyExpression;
+        this.type = type;
+        this.defaultSetting = defaultSetting;
+        this.keyedLimiters = keyedLimiters;
+        this.limiterFactory = limiterFactory;
+        this.usage = usage;
+        this.setting = defaultSetting;
+        this.metadata = this.newMetadata();
+    }
+
+    /**
+     * 获取本次调用使用的限流器
+     *
+     * @param joinPoint   连接点
+     * @param keyResolver key解析器
+     * @return
+     */
+    public L getLimiter(ProceedingJoinPoint joinPoint, RateLimitKeyResolver keyResolver) {
+        return this.metadata.getLimiter(joinPoint, keyResolver, this.keyedLimiters);
+    }
+
+    /**
+     * 记录一次请求的结果
+     *
+     * @param acquired 是否放行
+     */
+    public void record(boolean acquired) {
+        if (acquired) {
+            this.passed.increment();
+        } else {
+            this.rejected.increment();
+        }
+    }
+
+    /**
+     * 变更参数
+     *
+     * @param change 变更信息，name 为方法的唯一标识时变更整个方法，为 方法的唯一标识#调用方 时只变更这个调用方
+     */
+    public synchronized void change(RateLimiterChange change) {
+        String name = change.getName();
+        if (this.getName().equals(name)) {
+            RateLimitSetting newSetting = this.validate(name, this.setting.merge(change));
+            this.setting = newSetting;
+            this.metadata = this.newMetadata();
+            this.evictKeyedLimiters();
+        } else {
+            if (!StringUtils.hasText(this.keyExpression)) {
+                throw new IllegalArgumentException(String.format("限流器[%s]没有按调用方限流", this.getName()));
+            }
+            RateLimitSetting current = this.keySettings.getOrDefault(name, this.setting);
+            this.keySettings.put(name, this.validate(name, current.merge(change)));
+            this.keyedLimiters.remove(name);
+        }
+    }
+
+    /**
+     * 恢复注解上的参数
+     *
+     * @param name 方法的唯一标识时恢复整个方法（包括单独变更过的调用方），为 方法的唯一标识#调用方 时只恢复这个调用方
+     */
+    public synchronized void reset(String name) {
+        if (this.getName().equals(name)) {
+            this.setting = this.defaultSetting;
+            this.keySettings.clear();
+            this.metadata = this.newMetadata();
+            this.evictKeyedLimiters();
+        } else if (this.keySettings.remove(name) != null) {
+            this.keyedLimiters.remove(name);
+        }
+    }
+
+    public RateLimiterInfo info() {
+        RateLimiterInfo info = new RateLimiterInfo();
+        info.setName(this.getName());
+        info.setType(this.type);
+        info.setKey(this.keyExpression);
+        info.setDefaultSetting(this.defaultSetting);
+        info.setSetting(this.setting);
+        info.setKeySettings(new LinkedHashMap<>(this.keySettings));
+        info.setPassed(this.passed.sum());
+        info.setRejected(this.rejected.sum());
+        L sharedLimiter = this.metadata.getSharedLimiter();
+        info.setUsed(sharedLimiter != null && this.usage != null ? this.usage.applyAsInt(sharedLimiter) : -1);
+        return info;
+    }
+
+    /**
+     * 方法的唯一标识，也是限流器的名称
+     *
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    private LimiterMetadata<L> newMetadata() {
+        return new LimiterMetadata<>(this.method, this.name, this.keyExpression,
+                key -> this.limiterFactory.apply(key, this.keySettings.getOrDefault(key, this.setting)));
+    }
+
+    /**
+     * 用新参数试着创建一个限流器，参数不合法时在这里抛出异常，不影响当前的限流器
+     */
+    private RateLimitSetting validate(String name, RateLimitSetting newSetting) {
+        this.limiterFactory.apply(name, newSetting);
+        return newSetting;
+    }
+
+    private void evictKeyedLimiters() {
+        String prefix = this.getName() + "#";
+        this.keyedLimiters.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
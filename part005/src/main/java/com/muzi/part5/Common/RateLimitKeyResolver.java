@@ -0,0 +1,88 @@
+package com.muzi.part5.Common;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 解析限流注解上的 key，得到限流器的唯一标识
+ * <br/><br/>
+ * key 为空时整个方法共用一个限流器；key 不为空时按 SpEL 表达式的结果区分调用方，每个调用方一个限流器，可以使用：
+ * <ul>
+ *     <li>方法参数：#参数名、#p0、#a0，如 #goodsId、#order.userId</li>
+ *     <li>#ip：客户端ip，请求来自受信任的代理时取 X-Forwarded-For 中从右往左第一个不受信任的地址，见 {@link TrustedProxies}</li>
+ *     <li>#userId：请求头 rate-limit.user-id-header（默认 X-User-Id）中的用户id</li>
+ *     <li>#tenantId：请求头 rate-limit.tenant-id-header（默认 X-Tenant-Id）中的租户id</li>
+ *     <li>#request：当前的 HttpServletRequest，如 #request.getHeader('X-App-Id')</li>
+ * </ul>
+ */
+@Component
+public class RateLimitKeyResolver {
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    /**
+     * 解析过的表达式
+     */
+    private final ConcurrentHashMap<String, Expression> expressionCache = new ConcurrentHashMap<>();
+
+    @Autowired
+    private TrustedProxies trustedProxies;
+
+    @Value("${rate-limit.user-id-header:X-User-Id}")
+    private String userIdHeader;
+
+    @Value("${rate-limit.tenant-id-header:X-Tenant-Id}")
+    private String tenantIdHeader;
+
+    /**
+     * 获取限流器的唯一标识：方法签名[#key表达式的值]
+     *
+     * @param joinPoint     连接点
+     * @param method        被限流的方法
+     * @param methodKey     方法签名，调用方预先计算好
+     * @param keyExpression 注解上的key
+     * @return
+     */
+    public String resolve(ProceedingJoinPoint joinPoint, Method method, String methodKey, String keyExpression) {
+        if (!StringUtils.hasText(keyExpression)) {
+            return methodKey;
+        }
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, joinPoint.getArgs(), this.parameterNameDiscoverer);
+        HttpServletRequest request = currentRequest();
+        if (request != null) {
+            context.setVariable("request", request);
+            context.setVariable("ip", this.trustedProxies.clientIp(request));
+            context.setVariable("userId", request.getHeader(this.userIdHeader));
+            context.setVariable("tenantId", request.getHeader(this.tenantIdHeader));
+        }
+        Expression expression = this.expressionCache.computeIfAbsent(keyExpression, this.parser::parseExpression);
+        return methodKey + "#" + expression.getValue(context, String.class);
+    }
+
+    private static HttpServletRequest currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            return ((ServletRequestAttributes) attributes).getRequest();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.muzi.part5.Common;
+
+import lombok.Data;
+
+/**
+ * 限流器的参数，不同算法使用其中的一部分：
+ * <ul>
+ *     <li>计数器、滑动窗口：limit（窗口内最大请求数）、timeWindow</li>
+ *     <li>漏桶：limit（桶的容量）、rate（每秒漏水数）</li>
+ *     <li>令牌桶：rate（每秒生成的令牌数）</li>
+ *     <li>多级配额：每一级的 limit（允许的突发量）、rate（每秒的配额）</li>
+ * </ul>
+ */
+@Data
+public class RateLimitSetting {
+    //窗口内最大请求数 / 桶的容量
+    private int limit;
+    //时间窗口(秒)
+    private int timeWindow;
+    //每秒生成的令牌数 / 每秒漏水数
+    private double rate;
+
+    public RateLimitSetting() {
+    }
+
+    public RateLimitSetting(int limit, int timeWindow, double rate) {
+        this.limit = limit;
+        this.timeWindow = timeWindow;
+        this.rate = rate;
+    }
+
+    /**
+     * 用变更中大于0的参数覆盖当前参数，得到新的参数
+     *
+     * @param change 变更信息
+     * @return
+     */
+    public RateLimitSetting merge(RateLimiterChange change) {
+        if (change.getLimit() < 0 || change.getTimeWindow() < 0 || change.getRate() < 0) {
+            throw new IllegalArgumentException("limit, timeWindow and rate must not be negative");
+        }
+        return new RateLimitSetting(
+                change.getLimit() > 0 ? change.getLimit() : this.limit,
+                change.getTimeWindow() > 0 ? change.getTimeWindow() : this.timeWindow,
+                change.getRate() > 0 ? change.getRate() : this.rate);
+    }
+}
@@ -0,0 +1,18 @@
+package com.muzi.part5.Common;
+
+import lombok.Data;
+
+/**
+ * 动态变更限流器的参数，不需要变更的参数传0
+ */
+@Data
+public class RateLimiterChange {
+    //限流器名称：方法的唯一标识，或者 方法的唯一标识#调用方（只变更这个调用方）
+    private String name;
+    //窗口内最大请求数 / 桶的容量
+    private int limit;
+    //时间窗口(秒)
+    private int timeWindow;
+    //每秒生成的令牌数 / 每秒漏水数
+    private double rate;
+}
@@ -0,0 +1,30 @@
+package com.muzi.part5.Common;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 限流器的信息
+ */
+@Data
+public class RateLimiterInfo {
+    //限流器名称（方法的唯一标识）
+    private String name;
+    //限流算法
+    private String type;
+    //注解上的 key，为空表示整个方法共用一个限流器
+    private String key;
+    //注解上配置的参数
+    private RateLimitSetting defaultSetting;
+    //当前生效的参数
+    private RateLimitSetting setting;
+    //单独变更过参数的调用方 -> 参数
+    private Map<String, RateLimitSetting> keySettings;
+    //放行的请求数
+    private long passed;
+    //拒绝的请求数
+    private long rejected;
+    //当前已用的量（窗口内的请求数、桶中的水量），按调用方限流或者无法获取时为-1
+    private int used;
+}
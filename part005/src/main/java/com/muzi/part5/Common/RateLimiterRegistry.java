@@ -0,0 +1,78 @@
+package com.muzi.part5.Common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 限流器注册中心：各个切面在方法第一次调用时把 {@link ManagedLimiter} 注册到这里，
+ * 管理接口通过这里查看所有限流器的信息、在运行时变更限流参数
+ */
+@Slf4j
+@Component
+public class RateLimiterRegistry {
+
+    private final Map<String, ManagedLimiter<?>> limiterMap = new ConcurrentHashMap<>();
+
+    /**
+     * 注册限流器
+     *
+     * @param limiter 限流器
+     * @param <L>     限流器类型
+     * @return
+     */
+    public <L> ManagedLimiter<L> register(ManagedLimiter<L> limiter) {
+        this.limiterMap.put(limiter.getName(), limiter);
+        return limiter;
+    }
+
+    /**
+     * 获取所有限流器信息
+     *
+     * @return
+     */
+    public List<RateLimiterInfo> rateLimiterInfoList() {
+        return this.limiterMap.values().stream().map(ManagedLimiter::info).collect(Collectors.toList());
+    }
+
+    /**
+     * 动态变更限流参数
+     *
+     * @param rateLimiterChange 变更信息
+     */
+    public void changeRateLimiter(RateLimiterChange rateLimiterChange) {
+        this.getLimiter(rateLimiterChange.getName()).change(rateLimiterChange);
+        log.info("限流器[{}]参数变更：{}", rateLimiterChange.getName(), rateLimiterChange);
+    }
+
+    /**
+     * 恢复注解上的限流参数
+     *
+     * @param name 限流器名称
+     */
+    public void resetRateLimiter(String name) {
+        this.getLimiter(name).reset(name);
+        log.info("限流器[{}]参数恢复", name);
+    }
+
+    /**
+     * 按名称查找限流器，名称为 方法的唯一标识#调用方 时返回方法的限流器
+     */
+    private ManagedLimiter<?> getLimiter(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        ManagedLimiter<?> limiter = this.limiterMap.get(name);
+        if (limiter == null && name.indexOf('#') > 0) {
+            limiter = this.limiterMap.get(name.substring(0, name.indexOf('#')));
+        }
+        if (limiter == null) {
+            throw new IllegalArgumentException(String.format("限流器[%s]不存在", name));
+        }
+        return limiter;
+    }
+}
@@ -0,0 +1,25 @@
+package com.muzi.part5.Common;
+
+/**
+ * 可以归还许可的限流器
+ * <br/><br/>
+ * 多级限流时（全局 → 租户 → 用户）前面的级别已经扣除了许可，后面的级别拒绝了，请求并没有被放行，
+ * 前面扣除的许可要还回去，否则被拒绝的请求也在消耗其他级别的配额。
+ */
+public interface RefundableLimiter {
+
+    /**
+     * 尝试获取许可
+     *
+     * @param permits 许可数量
+     * @return 获取成功返回true
+     */
+    boolean tryAcquire(int permits);
+
+    /**
+     * 归还 {@link #tryAcquire(int)} 获取到的许可
+     *
+     * @param permits 许可数量
+     */
+    void release(int permits);
+}
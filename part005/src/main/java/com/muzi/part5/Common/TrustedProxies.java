@@ -0,0 +1,163 @@
+package com.muzi.part5.Common;
+
+import com.google.common.net.InetAddresses;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * 受信任的代理（网关、负载均衡），只有请求来自这些地址时才使用代理设置的请求头
+ * <br/><br/>
+ * X-Forwarded-For、X-Request-Start 等请求头客户端可以随意设置：按 X-Forwarded-For 中的ip限流时，
+ * 客户端每次换一个值就能绕过限流，还能用大量不同的值把限流器缓存中正常调用方的限流器挤出去。
+ * <ul>
+ *     <li>直接连接的地址（getRemoteAddr）不是受信任的代理：请求头不可信，客户端ip就是直接连接的地址</li>
+ *     <li>是受信任的代理：从右往左遍历 X-Forwarded-For（每一跳代理在右边追加它看到的地址），第一个不受信任的地址就是客户端ip，
+ *     它左边的值都可能是客户端伪造的</li>
+ * </ul>
+ * 配置 rate-limit.trusted-proxies，ip 或 CIDR，多个用逗号分隔，默认为空（不信任任何代理）。
+ */
+@Component
+public class TrustedProxies {
+
+    private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+
+    @Value("${rate-limit.trusted-proxies:}")
+    private String[] trustedProxies;
+
+    private List<IpRange> ranges = Collections.emptyList();
+
+    @PostConstruct
+    public void init() {
+        List<IpRange> ranges = new ArrayList<>();
+        for (String proxy : this.trustedProxies) {
+            if (StringUtils.hasText(proxy)) {
+                ranges.add(IpRange.parse(proxy.trim()));
+            }
+        }
+        this.ranges = ranges;
+    }
+
+    /**
+     * 请求是否直接来自受信任的代理
+     *
+     * @param request
+     * @return
+     */
+    public boolean isFromTrustedProxy(HttpServletRequest request) {
+        return this.isTrusted(request.getRemoteAddr());
+    }
+
+    /**
+     * 客户端ip
+     *
+     * @param request
+     * @return
+     */
+    public String clientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!this.isTrusted(remoteAddr)) {
+            return remoteAddr;
+        }
+        List<String> hops = forwardedFor(request);
+        String clientIp = remoteAddr;
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            String hop = hops.get(i);
+            if (!InetAddresses.isInetAddress(hop)) {
+                //不是ip，不能作为限流的key，取离它最近的代理
+                return clientIp;
+            }
+            clientIp = hop;
+            if (!this.isTrusted(hop)) {
+                return clientIp;
+            }
+        }
+        //全部是受信任的代理，取最左边的
+        return clientIp;
+    }
+
+    boolean isTrusted(String ip) {
+        if (this.ranges.isEmpty() || ip == null || !InetAddresses.isInetAddress(ip)) {
+            return false;
+        }
+        byte[] address = InetAddresses.forString(ip).getAddress();
+        for (IpRange range : this.ranges) {
+            if (range.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按顺序取出所有 X-Forwarded-For 中的地址，多个同名请求头按出现的顺序拼接
+     */
+    private static List<String> forwardedFor(HttpServletRequest request) {
+        List<String> hops = new ArrayList<>();
+        Enumeration<String> headers = request.getHeaders(FORWARDED_FOR_HEADER);
+        while (headers != null && headers.hasMoreElements()) {
+            for (String hop : headers.nextElement().split(",")) {
+                if (StringUtils.hasText(hop)) {
+                    hops.add(hop.trim());
+                }
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * ip 或 CIDR 网段
+     */
+    private static class IpRange {
+
+        private final byte[] network;
+
+        private final int prefixLength;
+
+        IpRange(byte[] network, int prefixLength) {
+            this.network = network;
+            this.prefixLength = prefixLength;
+        }
+
+        static IpRange parse(String cidr) {
+            int index = cidr.indexOf('/');
+            String ip = index < 0 ? cidr : cidr.substring(0, index);
+            if (!InetAddresses.isInetAddress(ip)) {
+                throw new IllegalArgumentException("rate-limit.trusted-proxies 不是ip或CIDR：" + cidr);
+            }
+            InetAddress address = InetAddresses.forString(ip);
+            int maxLength = address.getAddress().length * 8;
+            int prefixLength = index < 0 ? maxLength : Integer.parseInt(cidr.substring(index + 1));
+            if (prefixLength < 0 || prefixLength > maxLength) {
+                throw new IllegalArgumentException("rate-limit.trusted-proxies 前缀长度不正确：" + cidr);
+            }
+            return new IpRange(address.getAddress(), prefixLength);
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != this.network.length) {
+                return false;
+            }
+            int bytes = this.prefixLength / 8;
+            for (int i = 0; i < bytes; i++) {
+                if (address[i] != this.network[i]) {
+                    return false;
+                }
+            }
+            int bits = this.prefixLength % 8;
+            if (bits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - bits);
+            return (address[bytes] & mask) == (this.network[bytes] & mask);
+        }
+    }
+}
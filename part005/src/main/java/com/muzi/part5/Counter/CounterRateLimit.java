@@ -26,4 +26,12 @@ public @interface CounterRateLimit {
     int timeWindow();
 
 
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个限流器，如：#ip、#userId、#goodsId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+
+
 }
\ No newline at end of file
@@ -1,14 +1,22 @@
 package com.muzi.part5.Counter;
 
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -16,11 +24,25 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Component
 public class CounterRateLimitAspect {
 
-    // 存储每个方法对应的请求次数
-    private Map<String, AtomicInteger> REQUEST_COUNT = new ConcurrentHashMap<>();
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
 
-    // 存储每个方法的时间戳
-    private Map<String, Long> REQUEST_TIMESTAMP = new ConcurrentHashMap<>();
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    // 存储每个方法的元数据（注解参数、方法签名、共用的计数窗口），只在第一次调用时解析
+    private final Map<Method, ManagedLimiter<CounterWindow>> METADATA = new ConcurrentHashMap<>();
+
+    // 按调用方限流时，存储每个调用方的计数窗口，有界、会过期，避免key无限增长
+    private ConcurrentMap<String, CounterWindow> REQUEST_WINDOW;
+
+    @PostConstruct
+    public void init() {
+        REQUEST_WINDOW = limiterCacheFactory.newCache();
+    }
 
     /**
      *
@@ -31,39 +53,74 @@ public class CounterRateLimitAspect {
     @Around("@annotation(com.muzi.part5.Counter.CounterRateLimit)")
     public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
 
-        // 获取注解信息
-        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        Method method = signature.getMethod();
+        // 获取方法的元数据
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        ManagedLimiter<CounterWindow> metadata = METADATA.get(method);
+        if (metadata == null) {
+            metadata = METADATA.computeIfAbsent(method, this::createMetadata);
+        }
+
+        // 获取计数窗口：方法共用一个，或者每个调用方一个
+        CounterWindow window = metadata.getLimiter(joinPoint, keyResolver);
+        boolean acquired = window.tryAcquire();
+        metadata.record(acquired);
+        if (!acquired) {
+            return "服务繁忙，请稍后重试";
+        }
+
+        // 方法原执行
+        return joinPoint.proceed();
+    }
+
+    private ManagedLimiter<CounterWindow> createMetadata(Method method) {
+        // 获取注解的参数，运行时可以通过 RateLimiterRegistry 变更
         CounterRateLimit annotation = method.getAnnotation(CounterRateLimit.class);
+        RateLimitSetting setting = new RateLimitSetting(annotation.maxRequest(), annotation.timeWindow(), 0);
+        return rateLimiterRegistry.register(new ManagedLimiter<>(method, annotation.key(), "counter", setting, REQUEST_WINDOW,
+                (key, s) -> new CounterWindow(s.getLimit(), TimeUnit.SECONDS.toMillis(s.getTimeWindow())),
+                CounterWindow::count));
+    }
 
-        // 获取注解的参数
-        int maxRequest = annotation.maxRequest();
-        long timeWindowInMillis = TimeUnit.SECONDS.toMillis(annotation.timeWindow());
+    private static class CounterWindow {
+        // 最大请求次数
+        private final int maxRequest;
 
-        // 获取方法名
-        String methodName = method.toString();
+        // 时间窗口(ms)
+        private final long timeWindowInMillis;
 
-        // 初始化计数器和时间戳
-        AtomicInteger count = REQUEST_COUNT.computeIfAbsent(methodName, x -> new AtomicInteger(0));
-        long startTime = REQUEST_TIMESTAMP.computeIfAbsent(methodName, x -> System.currentTimeMillis());
+        // 请求次数
+        private final AtomicInteger count = new AtomicInteger(0);
 
-        // 获取当前时间
-        long currentTimeMillis = System.currentTimeMillis();
+        // 窗口开始的时间戳
+        private volatile long startTime = System.currentTimeMillis();
 
-        // 判断： 如果当前时间超出时间窗口，则重置
-        if (currentTimeMillis - startTime > timeWindowInMillis) {
-            count.set(0);
-            REQUEST_TIMESTAMP.put(methodName, currentTimeMillis);
+        private CounterWindow(int maxRequest, long timeWindowInMillis) {
+            this.maxRequest = maxRequest;
+            this.timeWindowInMillis = timeWindowInMillis;
         }
 
-        // 原子的增加计数器并检查其值
-        if (count.incrementAndGet() > maxRequest) {
-            // 如果超出最大请求次数，递减计数器，并报错
-            count.decrementAndGet();
-            return "服务繁忙，请稍后重试";
+        private boolean tryAcquire() {
+            // 获取当前时间
+            long currentTimeMillis = System.currentTimeMillis();
+
+            // 判断： 如果当前时间超出时间窗口，则重置
+            if (currentTimeMillis - startTime > timeWindowInMillis) {
+                count.set(0);
+                startTime = currentTimeMillis;
+            }
+
+            // 原子的增加计数器并检查其值
+            if (count.incrementAndGet() > maxRequest) {
+                // 如果超出最大请求次数，递减计数器
+                count.decrementAndGet();
+                return false;
+            }
+            return true;
         }
 
-        // 方法原执行
-        return joinPoint.proceed();
+        // 当前窗口内的请求数
+        private int count() {
+            return System.currentTimeMillis() - startTime > timeWindowInMillis ? 0 : count.get();
+        }
     }
 }
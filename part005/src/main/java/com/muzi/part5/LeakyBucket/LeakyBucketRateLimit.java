@@ -23,4 +23,38 @@ public @interface LeakyBucketRateLimit {
      * @return
      */
     int leakRate();
+
+
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个限流器，如：#ip、#userId、#goodsId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+
+    /**
+     * 桶满之前的请求怎么处理，默认立即执行
+     *
+     * @return
+     */
+    Mode mode() default Mode.REJECT;
+
+    /**
+     * QUEUE 模式下最长等待时间(ms)，等待时间超过它或者排队的请求超过桶的容量时拒绝
+     *
+     * @return
+     */
+    long maxDelayMillis() default 1000;
+
+    enum Mode {
+        /**
+         * 桶没满时立即执行，桶满了拒绝（等价于令牌桶）
+         */
+        REJECT,
+        /**
+         * 按固定的速率依次执行，桶满了才拒绝，见 {@link QueueingLeakyBucket}。
+         * 方法返回 CompletableFuture 时异步等待，不占用请求线程，否则请求线程阻塞等待
+         */
+        QUEUE
+    }
 }
\ No newline at end of file
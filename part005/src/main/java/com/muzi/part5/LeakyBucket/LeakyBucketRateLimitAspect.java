@@ -1,39 +1,182 @@
 package com.muzi.part5.LeakyBucket;
 
-import com.muzi.part5.LeakyBucket.LeakyBucketRateLimit;
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
-import org.springframework.core.annotation.Order;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 
 @Aspect
 @Component
 public class LeakyBucketRateLimitAspect {
 
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
 
-    @Around("@annotation(com.muzi.part5.LeakyBucket.LeakyBucketRateLimit)")
-    public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
-        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        Method method = signature.getMethod();
-        LeakyBucketRateLimit leakyBucketRateLimit = method.getAnnotation(LeakyBucketRateLimit.class);
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    @Autowired
+    private LeakyBucketScheduler leakyBucketScheduler;
+
+    /**
+     * 存储每个方法的元数据（注解参数、方法签名、共用的限流器），只在第一次调用时解析
+     */
+    private final ConcurrentHashMap<Method, BucketMetadata> metadataMap = new ConcurrentHashMap<>();
+
+    /**
+     * 按调用方限流时，存储每个调用方的限流器，有界、会过期
+     */
+    private ConcurrentMap<String, AtomicTokenBucketLimiter> limiters;
+
+    /**
+     * QUEUE 模式下按调用方限流时，存储每个调用方的漏桶，有界、会过期
+     */
+    private ConcurrentMap<String, QueueingLeakyBucket> queueingBuckets;
 
-        int capacity = leakyBucketRateLimit.capacity();
-        int leakRate = leakyBucketRateLimit.leakRate();
+    @PostConstruct
+    public void init() {
+        limiters = limiterCacheFactory.newCache();
+        queueingBuckets = limiterCacheFactory.newCache();
+    }
 
-        // 方法签名作为唯一标识
-        String methodKey = method.toString();
+    @Around("@annotation(com.muzi.part5.LeakyBucket.LeakyBucketRateLimit)")
+    public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        BucketMetadata metadata = metadataMap.get(method);
+        if (metadata == null) {
+            metadata = metadataMap.computeIfAbsent(method, this::createMetadata);
+        }
+        if (metadata.queueing != null) {
+            return this.queue(joinPoint, metadata);
+        }
 
-        LeakyBucketLimiter limiter = LeakyBucketLimiter.createLimiter(methodKey, capacity, leakRate);
-        if (!limiter.tryAcquire()) {
+        AtomicTokenBucketLimiter limiter = metadata.rejecting.getLimiter(joinPoint, keyResolver);
+        boolean acquired = limiter.tryAcquire();
+        metadata.rejecting.record(acquired);
+        if (!acquired) {
             // 超过限制，抛出限流异常
             return "服务繁忙，请稍后重试";
         }
 
         return joinPoint.proceed();
     }
-}
\ No newline at end of file
+
+    /**
+     * QUEUE 模式：预约漏出时间，等到漏出时间再执行
+     */
+    private Object queue(ProceedingJoinPoint joinPoint, BucketMetadata metadata) throws Throwable {
+        long delayNanos = metadata.queueing.getLimiter(joinPoint, keyResolver).reserve();
+        metadata.queueing.record(delayNanos >= 0);
+        if (delayNanos < 0) {
+            String busy = "服务繁忙，请稍后重试";
+            return metadata.async ? CompletableFuture.completedFuture(busy) : busy;
+        }
+        if (delayNanos == 0) {
+            return joinPoint.proceed();
+        }
+        if (!metadata.async) {
+            // 同步方法只能阻塞请求线程
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+            return joinPoint.proceed();
+        }
+
+        // 异步方法：请求线程直接返回，到了漏出时间由时间轮触发执行
+        // 业务代码在工作线程中执行，带上请求线程的请求上下文和日志MDC，里面按 #userId、#ip 等限流时才能取到当前请求
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        leakyBucketScheduler.schedule(() -> {
+            RequestContextHolder.setRequestAttributes(requestAttributes);
+            if (mdc != null) {
+                MDC.setContextMap(mdc);
+            }
+            try {
+                Object result = joinPoint.proceed();
+                if (result instanceof CompletionStage) {
+                    ((CompletionStage<?>) result).whenComplete((value, e) -> {
+                        if (e != null) {
+                            future.completeExceptionally(e);
+                        } else {
+                            future.complete(value);
+                        }
+                    });
+                } else {
+                    future.complete(result);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+                MDC.clear();
+            }
+        }, delayNanos);
+        return future;
+    }
+
+    private BucketMetadata createMetadata(Method method) {
+        LeakyBucketRateLimit leakyBucketRateLimit = method.getAnnotation(LeakyBucketRateLimit.class);
+        // 桶的容量、漏水速率，运行时可以通过 RateLimiterRegistry 变更
+        RateLimitSetting setting = new RateLimitSetting(leakyBucketRateLimit.capacity(), 0, leakyBucketRateLimit.leakRate());
+
+        if (leakyBucketRateLimit.mode() == LeakyBucketRateLimit.Mode.QUEUE) {
+            long maxDelayMillis = leakyBucketRateLimit.maxDelayMillis();
+            boolean async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+            return new BucketMetadata(null, rateLimiterRegistry.register(new ManagedLimiter<>(method, leakyBucketRateLimit.key(), "leakyBucket-queue",
+                    setting, queueingBuckets, (key, s) -> new QueueingLeakyBucket(s.getLimit(), s.getRate(), maxDelayMillis),
+                    QueueingLeakyBucket::queued)), async);
+        }
+
+        // 按请求计量的漏桶和令牌桶是等价的：桶里的水量 = 容量 - 令牌数，漏水 = 生成令牌
+        // 这里使用无锁、连续漏水的 AtomicTokenBucketLimiter 代替 synchronized、按整秒漏水的 LeakyBucketLimiter
+        return new BucketMetadata(rateLimiterRegistry.register(new ManagedLimiter<>(method, leakyBucketRateLimit.key(), "leakyBucket", setting, limiters,
+                (key, s) -> new AtomicTokenBucketLimiter(s.getLimit(), s.getRate()),
+                limiter -> limiter.getCapacity() - limiter.availablePermits())), null, false);
+    }
+
+    private static class BucketMetadata {
+        /**
+         * REJECT 模式的限流器
+         */
+        private final ManagedLimiter<AtomicTokenBucketLimiter> rejecting;
+
+        /**
+         * QUEUE 模式的漏桶
+         */
+        private final ManagedLimiter<QueueingLeakyBucket> queueing;
+
+        /**
+         * 方法返回 CompletableFuture，可以异步等待
+         */
+        private final boolean async;
+
+        private BucketMetadata(ManagedLimiter<AtomicTokenBucketLimiter> rejecting, ManagedLimiter<QueueingLeakyBucket> queueing, boolean async) {
+            this.rejecting = rejecting;
+            this.queueing = queueing;
+            this.async = async;
+        }
+    }
+}
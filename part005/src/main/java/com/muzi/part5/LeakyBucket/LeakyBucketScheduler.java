@@ -0,0 +1,72 @@
+package com.muzi.part5.LeakyBucket;
+
+import io.netty.util.HashedWheelTimer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 排队漏桶的延迟执行：请求等到预约的漏出时间再执行
+ * <br/><br/>
+ * 每个排队的请求都用 ScheduledThreadPoolExecutor 调度，每次调度都要操作一个按时间排序的堆（O(log n)）。
+ * 这里使用时间轮（netty 的 {@link HashedWheelTimer}）：添加任务 O(1)，一个线程每个刻度检查一次到期的任务，
+ * 到期后交给工作线程执行，时间轮线程不执行业务代码。漏出时间的误差不超过一个刻度。
+ */
+@Component
+public class LeakyBucketScheduler {
+
+    /**
+     * 时间轮的刻度(ms)
+     */
+    @Value("${rate-limit.leaky-bucket.tick-millis:10}")
+    private long tickMillis;
+
+    /**
+     * 执行到期请求的工作线程数
+     */
+    @Value("${rate-limit.leaky-bucket.worker-threads:8}")
+    private int workerThreads;
+
+    private HashedWheelTimer timer;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        this.timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "leaky-bucket-timer");
+            thread.setDaemon(true);
+            return thread;
+        }, this.tickMillis, TimeUnit.MILLISECONDS, 512);
+        AtomicInteger threadNum = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.workerThreads, this.workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "leaky-bucket-worker-" + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.timer.stop();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * 延迟执行任务
+     *
+     * @param task       任务
+     * @param delayNanos 延迟时间(纳秒)
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        this.timer.newTimeout(timeout -> this.executor.execute(task), delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,78 @@
+package com.muzi.part5.LeakyBucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 排队的漏桶：请求不会因为桶满之前的突发被直接放行，而是按固定的速率依次漏出
+ * <br/><br/>
+ * {@link LeakyBucketLimiter}、{@link com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter} 桶满才拒绝，桶没满时请求立即执行，
+ * 一波突发会原样打到下游；被拒绝的请求往往马上重试，又形成新的突发。
+ * <br/>
+ * 这里只记录下一个请求可以漏出的时间点 nextTime，每个请求通过一次CAS预约一个漏出时间：
+ * <ol>
+ *     <li>漏出时间 = max(nextTime, 当前时间)，nextTime 向后移动一个漏出间隔</li>
+ *     <li>需要等待的时间 = 漏出时间 - 当前时间，超过最长等待时间（或者排队的请求超过桶的容量）则拒绝</li>
+ * </ol>
+ * 调用方等到漏出时间再执行，下游看到的是间隔均匀的请求。
+ */
+public class QueueingLeakyBucket {
+
+    /**
+     * 漏出间隔(纳秒)
+     */
+    private final long intervalNanos;
+
+    /**
+     * 最长等待时间(纳秒)
+     */
+    private final long maxDelayNanos;
+
+    /**
+     * 下一个请求可以漏出的时间点(纳秒)
+     */
+    private final AtomicLong nextTime = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param capacity       桶的容量，最多排队的请求数
+     * @param leakRate       每秒漏出的请求数
+     * @param maxDelayMillis 最长等待时间(ms)
+     */
+    public QueueingLeakyBucket(int capacity, double leakRate, long maxDelayMillis) {
+        if (capacity <= 0 || leakRate <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("capacity and leakRate must be positive, maxDelayMillis must not be negative");
+        }
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / leakRate));
+        //桶里最多 capacity 个请求：正在漏出的1个，加上排队的 capacity - 1 个
+        this.maxDelayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis), (capacity - 1) * this.intervalNanos);
+    }
+
+    /**
+     * 预约一个漏出时间
+     *
+     * @return 需要等待的时间(纳秒)，0：立即执行，-1：桶满了，拒绝
+     */
+    public long reserve() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = this.nextTime.get();
+            long delay = Math.max(current - now, 0);
+            if (delay > this.maxDelayNanos) {
+                return -1;
+            }
+            if (this.nextTime.compareAndSet(current, now + delay + this.intervalNanos)) {
+                return delay;
+            }
+        }
+    }
+
+    /**
+     * 当前桶中的水量：还没有漏完的请求数
+     *
+     * @return
+     */
+    public int queued() {
+        long delay = this.nextTime.get() - System.nanoTime();
+        return delay <= 0 ? 0 : (int) ((delay + this.intervalNanos - 1) / this.intervalNanos);
+    }
+}
@@ -0,0 +1,152 @@
+package com.muzi.part5.LoadShedding;
+
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按排队时间丢弃请求（CoDel，Controlled Delay）
+ * <br/><br/>
+ * 计数器、令牌桶等按请求数限流，限流值配高了挡不住过载，配低了浪费容量。过载真正的信号是请求在队列里等待的时间：
+ * 正常时偶尔有突发，队列很快就能排空，总有请求几乎不用排队；过载时队列排不空，每个请求都要等。
+ * <ol>
+ *     <li>每个 interval 统计一次所有请求中最短的排队时间 minDelay</li>
+ *     <li>minDelay 超过 target：整个 interval 内队列都没排空，认为过载，下一个 interval 内按优先级丢弃请求，否则恢复正常</li>
+ *     <li>过载时：{@link Priority#SHEDDABLE} 全部丢弃，{@link Priority#NORMAL} 丢弃排队时间超过 2 × target 的（等了这么久，调用方很可能已经超时），
+ *     {@link Priority#CRITICAL} 不丢弃</li>
+ * </ol>
+ * 被丢弃的请求立即返回，不再占用工作线程，队列得以排空。每个请求只有几次原子操作，每个 interval 只有一个线程切换状态。
+ */
+public class CoDelLoadShedder {
+
+    /**
+     * 目标排队时间(纳秒)
+     */
+    private final long targetNanos;
+
+    /**
+     * 统计间隔(纳秒)
+     */
+    private final long intervalNanos;
+
+    /**
+     * 当前统计间隔的结束时间(纳秒)
+     */
+    private volatile long intervalEnd;
+
+    /**
+     * 当前统计间隔内最短的排队时间(纳秒)
+     */
+    private final AtomicLong minDelay = new AtomicLong(0);
+
+    /**
+     * 新的统计间隔开始，下一个请求的排队时间直接作为 minDelay
+     */
+    private final AtomicBoolean resetDelay = new AtomicBoolean(true);
+
+    /**
+     * 上一个统计间隔是否过载
+     */
+    private volatile boolean overloaded;
+
+    private final LongAdder[] admitted = newAdders();
+
+    private final LongAdder[] shed = newAdders();
+
+    /**
+     * @param targetMillis   目标排队时间(ms)
+     * @param intervalMillis 统计间隔(ms)
+     */
+    public CoDelLoadShedder(long targetMillis, long intervalMillis) {
+        if (targetMillis <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("targetMillis and intervalMillis must be positive");
+        }
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.intervalEnd = System.nanoTime() + this.intervalNanos;
+    }
+
+    /**
+     * 请求开始处理时调用，判断是否需要丢弃
+     *
+     * @param queueDelayNanos 请求的排队时间(纳秒)
+     * @param priority        请求的优先级
+     * @return true：丢弃
+     */
+    public boolean shouldShed(long queueDelayNanos, Priority priority) {
+        return this.shouldShed(queueDelayNanos, priority, System.nanoTime());
+    }
+
+    boolean shouldShed(long queueDelayNanos, Priority priority, long now) {
+        //统计间隔结束，只让一个线程根据 minDelay 切换状态，开始新的统计间隔
+        if (now - this.intervalEnd > 0 && !this.resetDelay.get() && this.resetDelay.compareAndSet(false, true)) {
+            this.intervalEnd = now + this.intervalNanos;
+            this.overloaded = this.minDelay.get() > this.targetNanos;
+        }
+        if (this.resetDelay.get() && this.resetDelay.compareAndSet(true, false)) {
+            this.minDelay.set(queueDelayNanos);
+        } else if (queueDelayNanos < this.minDelay.get()) {
+            this.minDelay.accumulateAndGet(queueDelayNanos, Math::min);
+        }
+
+        boolean shed = this.overloaded && (priority == Priority.SHEDDABLE
+                || priority == Priority.NORMAL && queueDelayNanos > 2 * this.targetNanos);
+        (shed ? this.shed : this.admitted)[priority.ordinal()].increment();
+        return shed;
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * 指标
+     *
+     * @return
+     */
+    public LoadSheddingMetrics metrics() {
+        LoadSheddingMetrics metrics = new LoadSheddingMetrics();
+        metrics.setTargetMillis(TimeUnit.NANOSECONDS.toMillis(this.targetNanos));
+        metrics.setIntervalMillis(TimeUnit.NANOSECONDS.toMillis(this.intervalNanos));
+        metrics.setOverloaded(this.overloaded);
+        metrics.setMinDelayMillis(this.minDelay.get() / 1_000_000f);
+        Map<Priority, Long> admitted = new LinkedHashMap<>();
+        Map<Priority, Long> shed = new LinkedHashMap<>();
+        for (Priority priority : Priority.values()) {
+            admitted.put(priority, this.admitted[priority.ordinal()].sum());
+            shed.put(priority, this.shed[priority.ordinal()].sum());
+        }
+        metrics.setAdmitted(admitted);
+        metrics.setShed(shed);
+        return metrics;
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Priority.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Data
+    public static class LoadSheddingMetrics {
+        //目标排队时间(ms)
+        private long targetMillis;
+        //统计间隔(ms)
+        private long intervalMillis;
+        //是否过载
+        private boolean overloaded;
+        //当前统计间隔内最短的排队时间(ms)
+        private float minDelayMillis;
+        //每个优先级放行的请求数
+        private Map<Priority, Long> admitted;
+        //每个优先级丢弃的请求数
+        private Map<Priority, Long> shed;
+    }
+}
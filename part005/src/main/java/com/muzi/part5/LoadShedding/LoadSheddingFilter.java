@@ -0,0 +1,142 @@
+package com.muzi.part5.LoadShedding;
+
+import com.muzi.part5.Common.TrustedProxies;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按排队时间丢弃请求，见 {@link CoDelLoadShedder}
+ * <br/><br/>
+ * 排队时间 = 请求开始处理的时间 - 请求到达的时间，请求到达的时间：
+ * <ol>
+ *     <li>Tomcat 工作线程池的任务提交时间（{@link TomcatQueueTimeCustomizer}），即请求在线程池队列里等待的时间</li>
+ *     <li>没有时取网关设置的请求头 X-Request-Start（毫秒时间戳，可以带 t= 前缀），包括网关到应用的时间，需要时钟同步。
+ *     只有直接来自受信任的代理（rate-limit.trusted-proxies）的请求才使用，否则客户端伪造一个很早的时间就能让应用认为自己过载，丢弃其他人的请求</li>
+ *     <li>都没有时（比如长连接上同一个任务处理的后续请求）不参与统计，直接放行</li>
+ * </ol>
+ * 放在所有 filter 的最前面，在 DispatcherServlet 之前丢弃，被丢弃的请求几乎不消耗资源。
+ * 优先级按请求路径配置，没有配置的为 {@link Priority#NORMAL}。
+ */
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Component
+@ConditionalOnProperty(name = "rate-limit.load-shedding.enabled", havingValue = "true", matchIfMissing = true)
+public class LoadSheddingFilter extends OncePerRequestFilter {
+
+    private static final String REQUEST_START_HEADER = "X-Request-Start";
+
+    /**
+     * 目标排队时间(ms)
+     */
+    @Value("${rate-limit.load-shedding.target-millis:5}")
+    private long targetMillis;
+
+    /**
+     * 统计间隔(ms)
+     */
+    @Value("${rate-limit.load-shedding.interval-millis:100}")
+    private long intervalMillis;
+
+    /**
+     * 核心接口的路径，Ant风格，多个用逗号分隔
+     */
+    @Value("${rate-limit.load-shedding.critical-paths:}")
+    private String[] criticalPaths;
+
+    /**
+     * 可以丢弃的接口的路径，Ant风格，多个用逗号分隔
+     */
+    @Value("${rate-limit.load-shedding.sheddable-paths:}")
+    private String[] sheddablePaths;
+
+    @Autowired
+    private TrustedProxies trustedProxies;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private CoDelLoadShedder loadShedder;
+
+    @PostConstruct
+    public void init() {
+        this.loadShedder = new CoDelLoadShedder(this.targetMillis, this.intervalMillis);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        long queueDelayNanos = this.queueDelayNanos(request);
+        if (queueDelayNanos >= 0 && this.loadShedder.shouldShed(queueDelayNanos, this.priority(request))) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setContentType("text/plain;charset=UTF-8");
+            response.getWriter().write("服务繁忙，请稍后重试");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * 指标
+     *
+     * @return
+     */
+    public CoDelLoadShedder.LoadSheddingMetrics metrics() {
+        return this.loadShedder.metrics();
+    }
+
+    /**
+     * 请求的排队时间(纳秒)，无法获取时返回-1
+     */
+    private long queueDelayNanos(HttpServletRequest request) {
+        Long enqueueTime = QueueTimeExecutor.takeEnqueueTime();
+        if (enqueueTime != null) {
+            return Math.max(System.nanoTime() - enqueueTime, 0);
+        }
+        if (!this.trustedProxies.isFromTrustedProxy(request)) {
+            return -1;
+        }
+        String requestStart = request.getHeader(REQUEST_START_HEADER);
+        if (StringUtils.hasText(requestStart)) {
+            try {
+                long startMillis = Long.parseLong(requestStart.startsWith("t=") ? requestStart.substring(2) : requestStart);
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(System.currentTimeMillis() - startMillis, 0));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private Priority priority(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (this.matches(this.criticalPaths, path)) {
+            return Priority.CRITICAL;
+        }
+        if (this.matches(this.sheddablePaths, path)) {
+            return Priority.SHEDDABLE;
+        }
+        return Priority.NORMAL;
+    }
+
+    private boolean matches(String[] patterns, String path) {
+        for (String pattern : patterns) {
+            if (this.pathMatcher.match(pattern.trim(), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,19 @@
+package com.muzi.part5.LoadShedding;
+
+/**
+ * 请求的优先级，过载时从低到高丢弃
+ */
+public enum Priority {
+    /**
+     * 核心接口（下单、管理接口等），不丢弃
+     */
+    CRITICAL,
+    /**
+     * 普通接口，过载时丢弃排队时间超过 2 × target 的请求
+     */
+    NORMAL,
+    /**
+     * 可以丢弃的接口（推荐、统计等），过载时全部丢弃
+     */
+    SHEDDABLE
+}
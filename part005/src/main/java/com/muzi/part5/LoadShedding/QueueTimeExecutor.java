@@ -0,0 +1,48 @@
+package com.muzi.part5.LoadShedding;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 记录任务排队时间的线程池
+ * <br/><br/>
+ * 包装 Tomcat 的工作线程池：提交任务（请求数据到达，Poller 把连接交给线程池）时记录时间，
+ * 工作线程开始执行时把提交时间放到 ThreadLocal 中，{@link LoadSheddingFilter} 据此算出请求在线程池队列里等待的时间。
+ */
+public class QueueTimeExecutor implements Executor {
+
+    private static final ThreadLocal<Long> ENQUEUE_TIME = new ThreadLocal<>();
+
+    private final Executor delegate;
+
+    public QueueTimeExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long enqueueTime = System.nanoTime();
+        this.delegate.execute(() -> {
+            ENQUEUE_TIME.set(enqueueTime);
+            try {
+                command.run();
+            } finally {
+                ENQUEUE_TIME.remove();
+            }
+        });
+    }
+
+    /**
+     * 获取并清除当前线程正在执行的任务提交的时间
+     * <br/>
+     * 长连接上一个任务可能依次处理多个请求，只有第一个请求经历了排队，后面的请求取到null
+     *
+     * @return 提交时间(纳秒)，当前线程不是这个线程池的线程时返回null
+     */
+    public static Long takeEnqueueTime() {
+        Long enqueueTime = ENQUEUE_TIME.get();
+        if (enqueueTime != null) {
+            ENQUEUE_TIME.remove();
+        }
+        return enqueueTime;
+    }
+}
@@ -0,0 +1,50 @@
+package com.muzi.part5.LoadShedding;
+
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 Tomcat 的工作线程池换成 {@link QueueTimeExecutor}，用来统计请求在线程池队列里等待的时间
+ * <br/><br/>
+ * 线程池和 Tomcat 内部创建的一样（TaskQueue：线程数没到上限时优先创建线程），线程数取 server.tomcat.threads 的配置。
+ * 外部传入的线程池 Tomcat 不负责关闭，应用关闭时在这里关闭。
+ */
+@Component
+@ConditionalOnProperty(name = "rate-limit.load-shedding.enabled", havingValue = "true", matchIfMissing = true)
+public class TomcatQueueTimeCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory>, DisposableBean {
+
+    @Autowired
+    private ServerProperties serverProperties;
+
+    private final List<ThreadPoolExecutor> executors = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        factory.addConnectorCustomizers(connector -> {
+            ServerProperties.Tomcat.Threads threads = this.serverProperties.getTomcat().getThreads();
+            TaskQueue taskQueue = new TaskQueue();
+            TaskThreadFactory threadFactory = new TaskThreadFactory("http-exec-", true, Thread.NORM_PRIORITY);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads.getMinSpare(), threads.getMax(), 60, TimeUnit.SECONDS, taskQueue, threadFactory);
+            taskQueue.setParent(executor);
+            this.executors.add(executor);
+            connector.getProtocolHandler().setExecutor(new QueueTimeExecutor(executor));
+        });
+    }
+
+    @Override
+    public void destroy() {
+        this.executors.forEach(ThreadPoolExecutor::shutdown);
+    }
+}
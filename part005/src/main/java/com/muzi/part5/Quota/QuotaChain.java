@@ -0,0 +1,60 @@
+package com.muzi.part5.Quota;
+
+import com.muzi.part5.Common.RefundableLimiter;
+
+/**
+ * 多级限流器组成的链，所有级别都获取到许可才放行
+ * <br/><br/>
+ * 依次获取每一级的许可，某一级拒绝时，把前面已经获取到的许可归还，整体上要么全部扣除、要么全部不扣除：
+ * 被用户级别拒绝的请求不会消耗租户和全局的配额，一个租户被拒绝的请求也不会挤占其他租户的全局配额。
+ * <br/>
+ * 不加锁：每一级的获取、归还都是一次CAS或原子加法（{@link com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter}），
+ * 代价是各级之间不是一个原子快照，并发时另一个请求可能看到某一级被临时扣除、随后又归还的许可，
+ * 在配额刚好用完的边界上多拒绝个别请求，不会多放行。
+ * <br/>
+ * 链本身也是 {@link RefundableLimiter}，可以作为另一条链的一级。
+ */
+public class QuotaChain implements RefundableLimiter {
+
+    private final RefundableLimiter[] levels;
+
+    /**
+     * @param levels 每一级的限流器，按顺序检查
+     */
+    public QuotaChain(RefundableLimiter... levels) {
+        this.levels = levels;
+    }
+
+    @Override
+    public boolean tryAcquire(int permits) {
+        return tryAcquire(this.levels, permits) < 0;
+    }
+
+    @Override
+    public void release(int permits) {
+        release(this.levels, this.levels.length, permits);
+    }
+
+    /**
+     * 依次获取每一级的许可，某一级拒绝时归还前面已经获取到的许可
+     *
+     * @param levels  每一级的限流器
+     * @param permits 许可数量
+     * @return 全部获取成功返回-1，否则返回拒绝的级别的下标
+     */
+    public static int tryAcquire(RefundableLimiter[] levels, int permits) {
+        for (int i = 0; i < levels.length; i++) {
+            if (!levels[i].tryAcquire(permits)) {
+                release(levels, i, permits);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void release(RefundableLimiter[] levels, int count, int permits) {
+        for (int i = 0; i < count; i++) {
+            levels[i].release(permits);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.muzi.part5.Quota;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 多级配额，一个注解是一级，同一个方法上可以有多个，如 全局10000/秒、每个租户1000/秒、每个用户20/秒：
+ * <pre>
+ * &#64;QuotaLimit(key = "#userId", permitsPerSecond = 20)
+ * &#64;QuotaLimit(key = "#tenantId", permitsPerSecond = 1000)
+ * &#64;QuotaLimit(permitsPerSecond = 10000)
+ * </pre>
+ * 按注解的顺序检查，建议从最细的级别开始：刷接口的用户在第一级就被拒绝，碰不到租户和全局的配额。详见 {@link QuotaChain}
+ */
+@Repeatable(QuotaLimits.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface QuotaLimit {
+
+    /**
+     * 这一级的key，SpEL表达式，为空时所有调用方共用（全局配额），如：#tenantId、#userId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+
+    /**
+     * 每秒的配额
+     *
+     * @return
+     */
+    double permitsPerSecond();
+
+    /**
+     * 允许的突发量，默认为0：等于每秒的配额
+     *
+     * @return
+     */
+    int capacity() default 0;
+}
@@ -0,0 +1,92 @@
+package com.muzi.part5.Quota;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import com.muzi.part5.Common.RefundableLimiter;
+import com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 多级配额切面，每一级是一个无锁令牌桶，所有级别组成一条 {@link QuotaChain}
+ * <br/>
+ * 每一级单独注册到 {@link RateLimiterRegistry}，名称为 方法签名@下标，可以在运行时单独调整某个租户、某个用户的配额。
+ */
+@Aspect
+@Component
+public class QuotaRateLimitAspect {
+
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    // 存储每个方法每一级的元数据，只在第一次调用时解析
+    private final ConcurrentHashMap<Method, ManagedLimiter<AtomicTokenBucketLimiter>[]> metadataMap = new ConcurrentHashMap<>();
+
+    // 按租户、用户区分的限流器，所有方法、所有级别共用，有界、会过期
+    private ConcurrentMap<String, AtomicTokenBucketLimiter> limiters;
+
+    @PostConstruct
+    public void init() {
+        limiters = limiterCacheFactory.newCache();
+    }
+
+    @Around("@annotation(com.muzi.part5.Quota.QuotaLimit)||@annotation(com.muzi.part5.Quota.QuotaLimits)")
+    public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        ManagedLimiter<AtomicTokenBucketLimiter>[] metadata = metadataMap.get(method);
+        if (metadata == null) {
+            metadata = metadataMap.computeIfAbsent(method, this::createMetadata);
+        }
+
+        // 本次调用每一级使用的限流器
+        RefundableLimiter[] levels = new RefundableLimiter[metadata.length];
+        for (int i = 0; i < metadata.length; i++) {
+            levels[i] = metadata[i].getLimiter(joinPoint, keyResolver);
+        }
+
+        int rejectedLevel = QuotaChain.tryAcquire(levels, 1);
+        if (rejectedLevel < 0) {
+            for (ManagedLimiter<AtomicTokenBucketLimiter> level : metadata) {
+                level.record(true);
+            }
+            return joinPoint.proceed();
+        }
+        // 只记在拒绝的那一级上，前面级别的许可已经归还
+        metadata[rejectedLevel].record(false);
+        return "服务繁忙，请稍后重试";
+    }
+
+    @SuppressWarnings("unchecked")
+    private ManagedLimiter<AtomicTokenBucketLimiter>[] createMetadata(Method method) {
+        QuotaLimit[] quotaLimits = method.getAnnotationsByType(QuotaLimit.class);
+        ManagedLimiter<AtomicTokenBucketLimiter>[] metadata = new ManagedLimiter[quotaLimits.length];
+        for (int i = 0; i < quotaLimits.length; i++) {
+            QuotaLimit quotaLimit = quotaLimits[i];
+            int capacity = quotaLimit.capacity() > 0 ? quotaLimit.capacity() : (int) Math.ceil(quotaLimit.permitsPerSecond());
+            RateLimitSetting setting = new RateLimitSetting(capacity, 0, quotaLimit.permitsPerSecond());
+            //同一个方法上有多级配额，用下标区分
+            metadata[i] = rateLimiterRegistry.register(new ManagedLimiter<>(method, method + "@" + i, quotaLimit.key(), "quota",
+                    setting, limiters, (key, s) -> new AtomicTokenBucketLimiter(s.getLimit(), s.getRate()),
+                    limiter -> limiter.getCapacity() - limiter.availablePermits()));
+        }
+        return metadata;
+    }
+}
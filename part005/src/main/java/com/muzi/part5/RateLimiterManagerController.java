@@ -0,0 +1,59 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Common.RateLimiterChange;
+import com.muzi.part5.Common.RateLimiterInfo;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 限流器管理：查看所有限流器的参数、放行/拒绝数、当前已用的量，运行时变更限流参数
+ */
+@RestController
+@RequestMapping("/rateLimiterManager")
+public class RateLimiterManagerController {
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    /**
+     * 获取所有限流器信息
+     *
+     * @return
+     */
+    @GetMapping("/rateLimiterInfoList")
+    public List<RateLimiterInfo> rateLimiterInfoList() {
+        return this.rateLimiterRegistry.rateLimiterInfoList();
+    }
+
+    /**
+     * 动态变更限流参数（按方法，或者按方法的某个调用方）
+     *
+     * @param rateLimiterChange
+     * @return
+     */
+    @PostMapping("/rateLimiterChange")
+    public boolean rateLimiterChange(@RequestBody RateLimiterChange rateLimiterChange) {
+        this.rateLimiterRegistry.changeRateLimiter(rateLimiterChange);
+        return true;
+    }
+
+    /**
+     * 恢复注解上的限流参数
+     *
+     * @param name 限流器名称
+     * @return
+     */
+    @PostMapping("/rateLimiterReset")
+    public boolean rateLimiterReset(@RequestParam("name") String name) {
+        this.rateLimiterRegistry.resetRateLimiter(name);
+        return true;
+    }
+}
@@ -0,0 +1,261 @@
+package com.muzi.part5.SemphoreTokenBucket;
+
+import lombok.Data;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 舱壁：限制同时执行的请求数，超过的请求最多排队等待 timeout，等不到许可则快速失败
+ * <br/><br/>
+ * 同一个方法（或同一个调用方）的所有请求共用一个舱壁，统计排队耗时等指标；许可数可以在运行时调整（{@link #resize(int)}）。
+ * 开启自适应后，根据方法执行耗时的变化自动调整许可数：
+ * 每个采样窗口（100ms，且至少10个样本）结束时，用窗口的平均耗时更新指数移动平均，
+ * 超过基线（观察到的最低值，每30秒用当前的移动平均重置一次，适应下游能力的变化）的2倍时，说明下游变慢了，许可数乘以0.9（不低于 minPermits）；
+ * 耗时恢复后每个窗口+1，直到配置的许可数。
+ * 归还许可时只累加样本，每个窗口只有一个线程（tryLock 成功的那个）调整许可数。
+ */
+public class Bulkhead {
+
+    /**
+     * 自适应调整许可数的最小间隔(纳秒)
+     */
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int WINDOW_MIN_SAMPLES = 10;
+
+    private static final long BASELINE_RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ResizableSemaphore semaphore;
+
+    /**
+     * 配置的许可数，自适应时许可数的上限
+     */
+    private final int configuredPermits;
+
+    /**
+     * 当前的许可数
+     */
+    private volatile int maxPermits;
+
+    private final boolean adaptive;
+
+    private final int minPermits;
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 正在排队等待许可的请求数
+     */
+    private final LongAdder waiting = new LongAdder();
+
+    /**
+     * 获取到许可的请求的排队总耗时(纳秒)
+     */
+    private final LongAdder totalQueueNanos = new LongAdder();
+
+    private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 当前采样窗口：执行总耗时(纳秒)、样本数，自适应时使用
+     */
+    private final LongAdder windowExecuteNanos = new LongAdder();
+
+    private final LongAdder windowSamples = new LongAdder();
+
+    private volatile long windowStartNanos = System.nanoTime();
+
+    private final ReentrantLock adjustLock = new ReentrantLock();
+
+    /**
+     * 执行耗时的指数移动平均、基线(纳秒)，只在持有 adjustLock 时读写
+     */
+    private double executeNanosEwma;
+
+    private double executeNanosBaseline;
+
+    private long baselineResetNanos;
+
+    /**
+     * 基线的重置间隔(纳秒)
+     */
+    private final long baselineResetIntervalNanos;
+
+    public Bulkhead(int permits, boolean fair, boolean adaptive, int minPermits) {
+        this(permits, fair, adaptive, minPermits, BASELINE_RESET_NANOS);
+    }
+
+    Bulkhead(int permits, boolean fair, boolean adaptive, int minPermits, long baselineResetIntervalNanos) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        this.semaphore = new ResizableSemaphore(permits, fair);
+        this.configuredPermits = permits;
+        this.maxPermits = permits;
+        this.adaptive = adaptive;
+        this.minPermits = Math.max(1, Math.min(minPermits, permits));
+        this.baselineResetIntervalNanos = baselineResetIntervalNanos;
+    }
+
+    /**
+     * 获取许可，最多等待 timeout
+     *
+     * @return 是否获取到许可，获取到之后必须调用 {@link #release(long)}
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        //有空闲许可时不用排队，不记录等待（带超时的 tryAcquire 在公平模式下不会插队）
+        if (this.semaphore.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            this.admitted.increment();
+            return true;
+        }
+        this.waiting.increment();
+        long startTime = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = this.semaphore.tryAcquire(timeout, unit);
+        } finally {
+            this.waiting.decrement();
+        }
+        if (acquired) {
+            long queueNanos = System.nanoTime() - startTime;
+            this.admitted.increment();
+            this.totalQueueNanos.add(queueNanos);
+            this.maxQueueNanos.accumulate(queueNanos);
+        } else {
+            this.rejected.increment();
+        }
+        return acquired;
+    }
+
+    /**
+     * 没有执行方法，直接归还许可
+     */
+    public void release() {
+        this.semaphore.release();
+    }
+
+    /**
+     * 方法执行结束，归还许可
+     *
+     * @param executeNanos 方法执行耗时(纳秒)
+     */
+    public void release(long executeNanos) {
+        this.semaphore.release();
+        if (this.adaptive) {
+            this.windowExecuteNanos.add(executeNanos);
+            this.windowSamples.increment();
+            this.maybeAdapt();
+        }
+    }
+
+    /**
+     * 调整许可数：调大时立即生效；调小时，已经发出去的许可归还后才会真正减少并发
+     *
+     * @param permits 新的许可数
+     */
+    public synchronized void resize(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive");
+        }
+        int delta = permits - this.maxPermits;
+        if (delta > 0) {
+            this.semaphore.release(delta);
+        } else if (delta < 0) {
+            this.semaphore.reducePermits(-delta);
+        }
+        this.maxPermits = permits;
+    }
+
+    private void maybeAdapt() {
+        long now = System.nanoTime();
+        if (now - this.windowStartNanos < ADJUST_INTERVAL_NANOS || this.windowSamples.sum() < WINDOW_MIN_SAMPLES) {
+            return;
+        }
+        if (!this.adjustLock.tryLock()) {
+            return;
+        }
+        try {
+            //其他线程刚刚调整过
+            if (now - this.windowStartNanos < ADJUST_INTERVAL_NANOS) {
+                return;
+            }
+            long samples = this.windowSamples.sumThenReset();
+            long executeNanos = this.windowExecuteNanos.sumThenReset();
+            this.windowStartNanos = now;
+            if (samples == 0) {
+                return;
+            }
+            double avg = (double) executeNanos / samples;
+            this.executeNanosEwma = this.executeNanosEwma == 0 ? avg : this.executeNanosEwma * 0.7 + avg * 0.3;
+            if (this.executeNanosBaseline == 0 || this.executeNanosEwma < this.executeNanosBaseline
+                    || now - this.baselineResetNanos > this.baselineResetIntervalNanos) {
+                this.executeNanosBaseline = this.executeNanosEwma;
+                this.baselineResetNanos = now;
+            }
+            if (this.executeNanosEwma > this.executeNanosBaseline * 2) {
+                this.resize(Math.max(this.minPermits, (int) (this.maxPermits * 0.9)));
+            } else if (this.maxPermits < this.configuredPermits) {
+                this.resize(this.maxPermits + 1);
+            }
+        } finally {
+            this.adjustLock.unlock();
+        }
+    }
+
+    /**
+     * 获取指标快照
+     *
+     * @return
+     */
+    public BulkheadMetrics metrics() {
+        BulkheadMetrics metrics = new BulkheadMetrics();
+        long admitted = this.admitted.sum();
+        metrics.setMaxPermits(this.maxPermits);
+        metrics.setAvailablePermits(this.semaphore.availablePermits());
+        metrics.setWaiting(this.waiting.sum());
+        metrics.setAdmitted(admitted);
+        metrics.setRejected(this.rejected.sum());
+        metrics.setAvgQueueMillis(admitted == 0 ? 0 : this.totalQueueNanos.sum() / 1e6 / admitted);
+        metrics.setMaxQueueMillis(this.maxQueueNanos.get() / 1e6);
+        return metrics;
+    }
+
+    @Data
+    public static class BulkheadMetrics {
+        // 当前的许可数
+        private int maxPermits;
+        // 空闲的许可数
+        private int availablePermits;
+        // 正在排队的请求数
+        private long waiting;
+        // 放行的请求数
+        private long admitted;
+        // 拒绝的请求数
+        private long rejected;
+        // 放行的请求平均排队耗时(ms)
+        private double avgQueueMillis;
+        // 最大排队耗时(ms)
+        private double maxQueueMillis;
+    }
+
+    /**
+     * 公开 reducePermits，用于调小许可数
+     */
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits, boolean fair) {
+            super(permits, fair);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -28,4 +28,28 @@ public @interface FrequencyControl {
 
     TimeUnit unit() default TimeUnit.SECONDS;
 
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个舱壁，如：#ip、#userId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     */
+
+    String key() default "";
+
+    /**
+     * 是否公平：公平模式下按排队顺序获取许可，非公平模式吞吐量更高 默认非公平
+     */
+
+    boolean fair() default false;
+
+    /**
+     * 是否根据方法执行耗时自动调整许可数，permits 为上限 默认关闭，详见 {@link Bulkhead}
+     */
+
+    boolean adaptive() default false;
+
+    /**
+     * 自适应时的最小许可数 默认为1
+     */
+
+    int minPermits() default 1;
+
 }
@@ -1,18 +1,25 @@
 package com.muzi.part5.SemphoreTokenBucket;
 
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.LimiterMetadata;
+import com.muzi.part5.Common.RateLimitKeyResolver;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Aspect
@@ -20,38 +27,101 @@ import java.util.concurrent.Semaphore;
 @Order(0)
 public class FrequrenControlAspect {
 
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    /**
+     * 每个方法的元数据（每个注解一个：注解参数、方法签名、共用的舱壁），只在第一次调用时解析
+     */
+    private final ConcurrentHashMap<Method, ControlMetadata[]> metadataMap = new ConcurrentHashMap<>();
+
+    /**
+     * 按调用方限流时，每个调用方的舱壁，所有请求共用，有界、会过期
+     */
+    private ConcurrentMap<String, Bulkhead> bulkheads;
+
+    @PostConstruct
+    public void init() {
+        bulkheads = limiterCacheFactory.newCache();
+    }
+
     @Around("@annotation(com.muzi.part5.SemphoreTokenBucket.FrequencyControl)||@annotation(com.muzi.part5.SemphoreTokenBucket.FrequncyControContainer)")
     public  Object around(ProceedingJoinPoint joinPoint) throws Throwable {
         Method method =((MethodSignature)joinPoint.getSignature()).getMethod();
-        FrequencyControl[] annotationsByType = method.getAnnotationsByType(FrequencyControl.class);
-        HashMap<String, FrequencyControl> keyMap = new HashMap<>();
-        boolean flag = true;
-         List<Semaphore> semaphores = new ArrayList<>();
-        for (int i =0;i<annotationsByType.length;i++){
-            FrequencyControl frequencyControl = annotationsByType[i];
-            Semaphore semaphore = new Semaphore(frequencyControl.permits());
-            semaphores.add(semaphore);
-            boolean b = semaphore.tryAcquire(1, frequencyControl.timeout(), frequencyControl.unit());
-            log.info("创建信号量成功");
-            if (!b){
-                flag=false;
-            }
-
+        ControlMetadata[] controls = metadataMap.get(method);
+        if (controls == null) {
+            controls = metadataMap.computeIfAbsent(method, this::createMetadata);
         }
-        if (flag){
+        Bulkhead[] acquired = new Bulkhead[controls.length];
+        int acquiredNum = 0;
+        try {
+            for (ControlMetadata control : controls) {
+                Bulkhead bulkhead = control.metadata.getLimiter(joinPoint, keyResolver, bulkheads);
+                if (!bulkhead.tryAcquire(control.timeout, control.unit)) {
+                    return "系统繁忙，请稍后重试";
+                }
+                acquired[acquiredNum++] = bulkhead;
+            }
+            long startTime = System.nanoTime();
             try {
                 return joinPoint.proceed();
             } finally {
+                long executeNanos = System.nanoTime() - startTime;
                 //这里一定不要漏掉了，令牌用完了，要还回去
-                for (Semaphore semaphore:
-                semaphores) {
-                    semaphore.release();
+                for (int i = 0; i < acquiredNum; i++) {
+                    acquired[i].release(executeNanos);
                 }
-
+                acquiredNum = 0;
+            }
+        } finally {
+            //后面的注解没有获取到许可时，前面已经获取到的许可也要还回去
+            for (int i = 0; i < acquiredNum; i++) {
+                acquired[i].release();
             }
-        }else {
-            return "系统繁忙，请稍后重试";
         }
+    }
+
+    private ControlMetadata[] createMetadata(Method method) {
+        FrequencyControl[] annotationsByType = method.getAnnotationsByType(FrequencyControl.class);
+        ControlMetadata[] controls = new ControlMetadata[annotationsByType.length];
+        for (int i = 0; i < annotationsByType.length; i++) {
+            FrequencyControl frequencyControl = annotationsByType[i];
+            //同一个方法上可以有多个注解，用下标区分
+            LimiterMetadata<Bulkhead> metadata = new LimiterMetadata<>(method, method + "@" + i, frequencyControl.key(),
+                    key -> new Bulkhead(frequencyControl.permits(), frequencyControl.fair(), frequencyControl.adaptive(), frequencyControl.minPermits()));
+            controls[i] = new ControlMetadata(metadata, frequencyControl.timeout(), frequencyControl.unit());
+        }
+        return controls;
+    }
 
+    /**
+     * 所有舱壁的指标
+     *
+     * @return key -> 指标
+     */
+    public Map<String, Bulkhead.BulkheadMetrics> metrics() {
+        Map<String, Bulkhead.BulkheadMetrics> metrics = new LinkedHashMap<>();
+        metadataMap.values().stream().flatMap(Arrays::stream).map(control -> control.metadata)
+                .filter(metadata -> metadata.getSharedLimiter() != null)
+                .forEach(metadata -> metrics.put(metadata.getMethodKey(), metadata.getSharedLimiter().metrics()));
+        bulkheads.forEach((key, bulkhead) -> metrics.put(key, bulkhead.metrics()));
+        return metrics;
+    }
+
+    private static class ControlMetadata {
+        private final LimiterMetadata<Bulkhead> metadata;
+
+        private final long timeout;
+
+        private final TimeUnit unit;
+
+        private ControlMetadata(LimiterMetadata<Bulkhead> metadata, long timeout, TimeUnit unit) {
+            this.metadata = metadata;
+            this.timeout = timeout;
+            this.unit = unit;
+        }
     }
 }
@@ -0,0 +1,59 @@
+package com.muzi.part5.SlidingWindow;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 本机内存中的滑动窗口，和 {@link RedisSlidingWindowStore} 的语义相同：每个key一个按时间排序的请求队列，
+ * 用于没有Redis的本地开发和单元测试，只能限制当前节点；Redis 不可用时 {@link RedisSlidingWindowStore} 也用它兜底
+ */
+@Component
+@ConditionalOnProperty(name = "rate-limit.zset.backend", havingValue = "memory")
+public class InMemorySlidingWindowStore implements SlidingWindowStore {
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    private ConcurrentMap<String, ArrayDeque<Long>> windows;
+
+    public InMemorySlidingWindowStore() {
+    }
+
+    /**
+     * 不作为 Spring Bean 时使用
+     *
+     * @param limiterCacheFactory
+     */
+    InMemorySlidingWindowStore(LimiterCacheFactory limiterCacheFactory) {
+        this.limiterCacheFactory = limiterCacheFactory;
+        this.init();
+    }
+
+    @PostConstruct
+    public void init() {
+        windows = limiterCacheFactory.newCache();
+    }
+
+    @Override
+    public int tryAcquire(String key, int permits, int maxRequest, long windowMillis) {
+        ArrayDeque<Long> requestTimes = windows.computeIfAbsent(key, k -> new ArrayDeque<>());
+        // 和 Lua 脚本一样，清理、统计、记录在一起原子地执行
+        synchronized (requestTimes) {
+            long now = System.currentTimeMillis();
+            while (!requestTimes.isEmpty() && requestTimes.peekFirst() <= now - windowMillis) {
+                requestTimes.pollFirst();
+            }
+            int granted = Math.max(0, Math.min(permits, maxRequest - requestTimes.size()));
+            for (int i = 0; i < granted; i++) {
+                requestTimes.addLast(now);
+            }
+            return granted;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.muzi.part5.SlidingWindow;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 Redis 有序集合的滑动窗口：score 为请求时间，member 为请求的唯一标识
+ * <br/><br/>
+ * 清理过期请求、统计窗口内请求数、记录新请求在一个 Lua 脚本中执行，一次网络交互，并且是原子的。
+ * 时间取 Redis 服务器的时间，集群中各节点的时钟不一致也不影响窗口。
+ * <br/><br/>
+ * Redis 不可用时不能让异常抛给业务方法，按 rate-limit.zset.failure-policy 处理，见 {@link FailurePolicy}；
+ * 失败后 rate-limit.zset.retry-interval-millis 内不再访问 Redis（每次访问都要等到超时），之后再试一次，成功则恢复。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "rate-limit.zset.backend", havingValue = "redis", matchIfMissing = true)
+public class RedisSlidingWindowStore implements SlidingWindowStore {
+
+    private static final String KEY_PREFIX = "rate_limit:zset:";
+
+    /**
+     * KEYS[1]：有序集合的key
+     * ARGV[1]：窗口大小(ms)，ARGV[2]：窗口内允许的最大请求数，ARGV[3]：希望获取的许可数，ARGV[4]：member前缀
+     * 返回实际获取到的许可数
+     */
+    private static final String SCRIPT =
+            "redis.replicate_commands() " +
+            "local time = redis.call('TIME') " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+            "local window = tonumber(ARGV[1]) " +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window) " +
+            "local grant = math.min(tonumber(ARGV[3]), tonumber(ARGV[2]) - redis.call('ZCARD', KEYS[1])) " +
+            "if grant <= 0 then return 0 end " +
+            "for i = 1, grant do redis.call('ZADD', KEYS[1], now, ARGV[4] .. ':' .. i) end " +
+            "redis.call('PEXPIRE', KEYS[1], window) " +
+            "return grant";
+
+    /**
+     * 当前节点的标识 + 序号，保证 member 在集群内唯一
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    /**
+     * Redis 不可用时的处理方式：local、allow、deny
+     */
+    @Value("${rate-limit.zset.failure-policy:local}")
+    private String failurePolicyName;
+
+    /**
+     * Redis 访问失败后，多久之后再访问 Redis(ms)
+     */
+    @Value("${rate-limit.zset.retry-interval-millis:1000}")
+    private long retryIntervalMillis;
+
+    private FailurePolicy failurePolicy;
+
+    /**
+     * Redis 不可用时使用的本机窗口
+     */
+    private InMemorySlidingWindowStore localStore;
+
+    /**
+     * 在这个时间之前不访问 Redis(ms)，0 表示 Redis 正常
+     */
+    private volatile long redisRetryAt;
+
+    @PostConstruct
+    public void init() {
+        this.failurePolicy = FailurePolicy.valueOf(this.failurePolicyName.trim().toUpperCase(Locale.ROOT));
+        this.localStore = new InMemorySlidingWindowStore(this.limiterCacheFactory);
+    }
+
+    @Override
+    public int tryAcquire(String key, int permits, int maxRequest, long windowMillis) {
+        long retryAt = this.redisRetryAt;
+        if (retryAt != 0 && System.currentTimeMillis() < retryAt) {
+            return this.fallback(key, permits, maxRequest, windowMillis);
+        }
+        int granted;
+        try {
+            granted = this.eval(key, permits, maxRequest, windowMillis);
+        } catch (RuntimeException e) {
+            if (this.redisRetryAt == 0) {
+                log.error("滑动窗口访问Redis失败，{}ms内按 {} 处理", this.retryIntervalMillis, this.failurePolicy, e);
+            }
+            this.redisRetryAt = System.currentTimeMillis() + this.retryIntervalMillis;
+            return this.fallback(key, permits, maxRequest, windowMillis);
+        }
+        if (retryAt != 0) {
+            this.redisRetryAt = 0;
+            log.info("滑动窗口访问Redis恢复");
+        }
+        return granted;
+    }
+
+    private int eval(String key, int permits, int maxRequest, long windowMillis) {
+        RScript script = this.redissonClient.getScript(StringCodec.INSTANCE);
+        Long granted = script.eval(RScript.Mode.READ_WRITE, SCRIPT, RScript.ReturnType.INTEGER,
+                Collections.singletonList(KEY_PREFIX + key),
+                String.valueOf(windowMillis), String.valueOf(maxRequest), String.valueOf(permits),
+                this.nodeId + ":" + this.sequence.incrementAndGet());
+        return granted == null ? 0 : granted.intValue();
+    }
+
+    private int fallback(String key, int permits, int maxRequest, long windowMillis) {
+        switch (this.failurePolicy) {
+            case ALLOW:
+                return permits;
+            case DENY:
+                return 0;
+            default:
+                return this.localStore.tryAcquire(key, permits, maxRequest, windowMillis);
+        }
+    }
+
+    /**
+     * Redis 不可用时的处理方式
+     */
+    public enum FailurePolicy {
+        /**
+         * 使用本机内存中的窗口（{@link InMemorySlidingWindowStore}），每个节点各自按 maxRequest 限流，整体放行的请求数是节点数倍，默认
+         */
+        LOCAL,
+        /**
+         * 放行所有请求（fail-open），限流只是保护，不能因为 Redis 故障影响业务
+         */
+        ALLOW,
+        /**
+         * 拒绝所有请求（fail-closed），用于宁可不可用也不能超出额度的场景，比如调用按次计费的第三方接口
+         */
+        DENY
+    }
+}
@@ -0,0 +1,137 @@
+package com.muzi.part5.SlidingWindow;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 环形数组实现的滑动窗口计数器
+ * <br/><br/>
+ * 时间窗口被划分为 buckets 个小格子，每个格子占用 AtomicLongArray 中的一个long：
+ * 高40位是格子的序号（从创建开始的第几个格子），低24位是格子内的请求数。
+ * <ol>
+ *     <li>请求进来：CAS 当前格子，序号相同则计数+1，序号过期（上一圈的数据）则直接覆盖为 (当前序号, 1)</li>
+ *     <li>统计窗口内请求数：累加序号在最近 buckets 个格子内的计数，固定 buckets 次读</li>
+ * </ol>
+ * 序号和计数在同一个long里，格子的重置和计数不会互相覆盖；内存固定为 buckets 个long，和请求量无关。
+ * 精度为一个格子的长度：格子越多越接近按时间戳的精确滑动窗口。
+ */
+public class SlidingWindowCounter implements SlidingWindowLimiter {
+
+    private static final int COUNT_BITS = 24;
+
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /**
+     * 窗口内允许的最大请求数
+     */
+    private final int maxRequest;
+
+    /**
+     * 格子数量
+     */
+    private final int buckets;
+
+    /**
+     * 每个格子的时长(ms)
+     */
+    private final long bucketMillis;
+
+    /**
+     * 创建时间，格子序号从这里开始计算
+     */
+    private final long startMillis;
+
+    private final AtomicLongArray slots;
+
+    /**
+     * @param maxRequest 窗口内允许的最大请求数
+     * @param timeWindow 时间窗口，单位秒
+     * @param buckets    窗口划分的格子数量
+     */
+    public SlidingWindowCounter(int maxRequest, int timeWindow, int buckets) {
+        if (maxRequest <= 0 || maxRequest >= (1 << (COUNT_BITS - 1))) {
+            throw new IllegalArgumentException("maxRequest must be in (0, " + (1 << (COUNT_BITS - 1)) + ")");
+        }
+        if (timeWindow <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("timeWindow and buckets must be positive");
+        }
+        this.maxRequest = maxRequest;
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, TimeUnit.SECONDS.toMillis(timeWindow) / buckets);
+        this.startMillis = System.currentTimeMillis();
+        this.slots = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * 尝试获取许可：先计数，超过限制再退回
+     *
+     * @return
+     */
+    @Override
+    public boolean tryAcquire() {
+        long seq = this.currentSeq();
+        int index = (int) (seq % this.buckets);
+        if (!this.add(index, seq, 1)) {
+            //格子已经滚动到下一圈，说明这次请求耗时超过了整个窗口，按超限处理
+            return false;
+        }
+        if (this.count(seq) > this.maxRequest) {
+            this.add(index, seq, -1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前窗口内的请求数
+     *
+     * @return
+     */
+    @Override
+    public int count() {
+        return this.count(this.currentSeq());
+    }
+
+    private long currentSeq() {
+        return (System.currentTimeMillis() - this.startMillis) / this.bucketMillis;
+    }
+
+    /**
+     * 给序号为 seq 的格子加上 delta
+     *
+     * @return false：格子已经被更新的序号占用
+     */
+    private boolean add(int index, long seq, int delta) {
+        while (true) {
+            long slot = this.slots.get(index);
+            long slotSeq = slot >>> COUNT_BITS;
+            long next;
+            if (slotSeq == seq) {
+                next = slot + delta;
+            } else if (slotSeq < seq) {
+                //上一圈的数据，直接覆盖
+                if (delta < 0) {
+                    return true;
+                }
+                next = (seq << COUNT_BITS) | delta;
+            } else {
+                return false;
+            }
+            if (this.slots.compareAndSet(index, slot, next)) {
+                return true;
+            }
+        }
+    }
+
+    private int count(long seq) {
+        long total = 0;
+        for (int i = 0; i < this.buckets; i++) {
+            long slot = this.slots.get(i);
+            long slotSeq = slot >>> COUNT_BITS;
+            if (slotSeq <= seq && seq - slotSeq < this.buckets) {
+                total += slot & COUNT_MASK;
+            }
+        }
+        return (int) total;
+    }
+}
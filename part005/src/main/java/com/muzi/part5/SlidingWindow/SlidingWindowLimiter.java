@@ -0,0 +1,22 @@
+package com.muzi.part5.SlidingWindow;
+
+/**
+ * 本机滑动窗口限流器，{@link SlidingWindowRateLimit.Type} 的两种实现：
+ * {@link TimestampQueueWindow}、{@link SlidingWindowCounter}
+ */
+public interface SlidingWindowLimiter {
+
+    /**
+     * 尝试获取许可
+     *
+     * @return
+     */
+    boolean tryAcquire();
+
+    /**
+     * 当前窗口内的请求数
+     *
+     * @return
+     */
+    int count();
+}
@@ -26,4 +26,41 @@ public @interface SlidingWindowRateLimit {
      */
     int timeWindow();
 
+
+    /**
+     * 滑动窗口的实现方式，默认记录每个请求的时间戳
+     *
+     * @return
+     */
+    Type type() default Type.TIMESTAMP_QUEUE;
+
+
+    /**
+     * 窗口划分的格子数量，type = RING_BUFFER 时有效
+     *
+     * @return
+     */
+    int buckets() default 10;
+
+
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个限流器，如：#ip、#userId、#goodsId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+
+
+    enum Type {
+        /**
+         * 队列中记录窗口内每个请求的时间戳，精确，但内存和请求数成正比，每次检查的耗时也和请求数成正比
+         */
+        TIMESTAMP_QUEUE,
+
+        /**
+         * 窗口划分为固定数量的格子，环形数组中记录每个格子的请求数（{@link SlidingWindowCounter}），内存固定，检查耗时固定
+         */
+        RING_BUFFER
+    }
+
 }
\ No newline at end of file
@@ -1,62 +1,65 @@
 package com.muzi.part5.SlidingWindow;
 
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentMap;
 
 
 @Aspect
 @Component
 public class SlidingWindowRateLimitAspect {
 
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
     /**
-     * 使用 ConcurrentHashMap 保存每个方法的请求时间戳队列
+     * 保存每个方法的元数据（注解参数、方法签名、共用的滑动窗口），只在第一次调用时解析
      */
-    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>> REQUEST_TIMES_MAP = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, ManagedLimiter<SlidingWindowLimiter>> METADATA = new ConcurrentHashMap<>();
+
+    /**
+     * 按调用方限流时，保存每个调用方的滑动窗口，有界、会过期
+     */
+    private ConcurrentMap<String, SlidingWindowLimiter> WINDOW_MAP;
+
+    @PostConstruct
+    public void init() {
+        WINDOW_MAP = limiterCacheFactory.newCache();
+    }
 
 
     @Around("@annotation(com.muzi.part5.SlidingWindow.SlidingWindowRateLimit)")
     public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
 
-        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        Method method = signature.getMethod();
-        com.muzi.part5.SlidingWindow.SlidingWindowRateLimit rateLimit = method.getAnnotation(com.muzi.part5.SlidingWindow.SlidingWindowRateLimit.class);
-
-        // 允许的最大请求数
-        int requests = rateLimit.maxRequest();
-        // 滑动窗口的大小(秒)
-        int timeWindow = rateLimit.timeWindow();
-
-        // 获取方法名称字符串
-        String methodName = method.toString();
-        // 如果不存在当前方法的请求时间戳队列，则初始化一个新的队列
-        ConcurrentLinkedQueue<Long> requestTimes = REQUEST_TIMES_MAP.computeIfAbsent(methodName,
-                k -> new ConcurrentLinkedQueue<>());
-
-        // 当前时间
-        long currentTime = System.currentTimeMillis();
-        // 计算时间窗口的开始时间戳
-        long thresholdTime = currentTime - TimeUnit.SECONDS.toMillis(timeWindow);
-
-        // 这一段代码是滑动窗口限流算法中的关键部分，其功能是移除当前滑动窗口之前的请求时间戳。这样做是为了确保窗口内只保留最近时间段内的请求记录。
-        // requestTimes.isEmpty() 是检查队列是否为空的条件。如果队列为空，则意味着没有任何请求记录，不需要进行移除操作。
-        // requestTimes.peek() < thresholdTime 是检查队列头部的时间戳是否早于滑动窗口的开始时间。如果是，说明这个时间戳已经不在当前的时间窗口内，应当被移除。
-        while (!requestTimes.isEmpty() && requestTimes.peek() < thresholdTime) {
-            // 移除队列头部的过期时间戳
-            requestTimes.poll();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        ManagedLimiter<SlidingWindowLimiter> metadata = METADATA.get(method);
+        if (metadata == null) {
+            metadata = METADATA.computeIfAbsent(method, this::createMetadata);
         }
 
         // 检查当前时间窗口内的请求次数是否超过限制
-        if (requestTimes.size() < requests) {
-            // 未超过限制，记录当前请求时间
-            requestTimes.add(currentTime);
+        boolean acquired = metadata.getLimiter(joinPoint, keyResolver).tryAcquire();
+        metadata.record(acquired);
+        if (acquired) {
             return joinPoint.proceed();
         } else {
             // 超过限制，抛出限流异常
@@ -64,5 +67,18 @@ public class SlidingWindowRateLimitAspect {
         }
     }
 
+    private ManagedLimiter<SlidingWindowLimiter> createMetadata(Method method) {
+        SlidingWindowRateLimit rateLimit = method.getAnnotation(SlidingWindowRateLimit.class);
+        // 允许的最大请求数、滑动窗口的大小(秒)，运行时可以通过 RateLimiterRegistry 变更
+        RateLimitSetting setting = new RateLimitSetting(rateLimit.maxRequest(), rateLimit.timeWindow(), 0);
+        int buckets = rateLimit.buckets();
+        if (rateLimit.type() == SlidingWindowRateLimit.Type.RING_BUFFER) {
+            return rateLimiterRegistry.register(new ManagedLimiter<>(method, rateLimit.key(), "slidingWindow-ringBuffer", setting, WINDOW_MAP,
+                    (key, s) -> new SlidingWindowCounter(s.getLimit(), s.getTimeWindow(), buckets), SlidingWindowLimiter::count));
+        }
+        return rateLimiterRegistry.register(new ManagedLimiter<>(method, rateLimit.key(), "slidingWindow", setting, WINDOW_MAP,
+                (key, s) -> new TimestampQueueWindow(s.getLimit(), s.getTimeWindow()), SlidingWindowLimiter::count));
+    }
+
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.muzi.part5.SlidingWindow;
+
+/**
+ * 滑动窗口的存储，{@link ZsetSlidingWindowRateLimitAspect} 通过它记录窗口内的请求
+ * <ul>
+ *     <li>{@link RedisSlidingWindowStore}：Redis 有序集合，集群内所有节点共享一个窗口</li>
+ *     <li>{@link InMemorySlidingWindowStore}：本机内存，没有Redis时使用（本地开发、单元测试）</li>
+ * </ul>
+ * 通过 rate-limit.zset.backend 选择：redis（默认）、memory
+ */
+public interface SlidingWindowStore {
+
+    /**
+     * 原子地：移除窗口之外的请求，在窗口剩余的额度内记录最多 permits 个请求
+     *
+     * @param key          限流key
+     * @param permits      希望获取的许可数
+     * @param maxRequest   窗口内允许的最大请求数
+     * @param windowMillis 窗口大小(ms)
+     * @return 实际获取到的许可数，0 ~ permits
+     */
+    int tryAcquire(String key, int permits, int maxRequest, long windowMillis);
+}
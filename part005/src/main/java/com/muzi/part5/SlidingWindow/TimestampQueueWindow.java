@@ -0,0 +1,64 @@
+package com.muzi.part5.SlidingWindow;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录窗口内每个请求时间戳的滑动窗口
+ */
+public class TimestampQueueWindow implements SlidingWindowLimiter {
+
+    /**
+     * 允许的最大请求数
+     */
+    private final int requests;
+
+    /**
+     * 滑动窗口的大小(ms)
+     */
+    private final long timeWindowInMillis;
+
+    /**
+     * 请求时间戳队列
+     */
+    private final ConcurrentLinkedQueue<Long> requestTimes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param requests   允许的最大请求数
+     * @param timeWindow 滑动窗口的大小(秒)
+     */
+    public TimestampQueueWindow(int requests, int timeWindow) {
+        this.requests = requests;
+        this.timeWindowInMillis = TimeUnit.SECONDS.toMillis(timeWindow);
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        // 当前时间
+        long currentTime = System.currentTimeMillis();
+        // 计算时间窗口的开始时间戳
+        long thresholdTime = currentTime - timeWindowInMillis;
+
+        // 这一段代码是滑动窗口限流算法中的关键部分，其功能是移除当前滑动窗口之前的请求时间戳。这样做是为了确保窗口内只保留最近时间段内的请求记录。
+        // requestTimes.isEmpty() 是检查队列是否为空的条件。如果队列为空，则意味着没有任何请求记录，不需要进行移除操作。
+        // requestTimes.peek() < thresholdTime 是检查队列头部的时间戳是否早于滑动窗口的开始时间。如果是，说明这个时间戳已经不在当前的时间窗口内，应当被移除。
+        while (!requestTimes.isEmpty() && requestTimes.peek() < thresholdTime) {
+            // 移除队列头部的过期时间戳
+            requestTimes.poll();
+        }
+
+        // 检查当前时间窗口内的请求次数是否超过限制
+        if (requestTimes.size() < requests) {
+            // 未超过限制，记录当前请求时间
+            requestTimes.add(currentTime);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int count() {
+        long thresholdTime = System.currentTimeMillis() - timeWindowInMillis;
+        return (int) requestTimes.stream().filter(requestTime -> requestTime >= thresholdTime).count();
+    }
+}
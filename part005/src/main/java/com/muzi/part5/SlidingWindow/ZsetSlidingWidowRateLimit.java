@@ -5,6 +5,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * 基于 Redis 有序集合的分布式滑动窗口限流，集群内所有节点共享窗口，详见 {@link ZsetSlidingWindowRateLimitAspect}
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface ZsetSlidingWidowRateLimit {
@@ -24,4 +27,28 @@ public @interface ZsetSlidingWidowRateLimit {
     int timeWindow();
 
 
+    /**
+     * 限流的key，SpEL表达式，为空时整个方法共用一个限流器，如：#ip、#userId、#goodsId，详见 {@link com.muzi.part5.Common.RateLimitKeyResolver}
+     *
+     * @return
+     */
+    String key() default "";
+
+
+    /**
+     * 每次从Redis中预留的许可数，默认1：每个请求都访问一次Redis，大于1时为批量租约模式，详见 {@link ZsetSlidingWindowLimiter}
+     *
+     * @return
+     */
+    int leaseSize() default 1;
+
+
+    /**
+     * 租约有效期，单位毫秒
+     *
+     * @return
+     */
+    int leaseMillis() default 100;
+
+
 }
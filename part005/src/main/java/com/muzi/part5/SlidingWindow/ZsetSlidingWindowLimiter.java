@@ -0,0 +1,108 @@
+package com.muzi.part5.SlidingWindow;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分布式滑动窗口限流器
+ * <br/><br/>
+ * leaseSize = 1 时，每个请求都到 {@link SlidingWindowStore} 中获取许可（一次Redis交互）。
+ * <br/>
+ * leaseSize > 1 时为批量租约模式：当前节点一次从Redis中预留 leaseSize 个许可，在 leaseMillis 内本地消耗，用完或过期再去预留，
+ * Redis交互次数约为原来的 1/leaseSize。Redis拒绝时同样在 leaseMillis 内本地直接拒绝，过载时也不会打满Redis。
+ * <br/>
+ * 代价：预留的许可按预留时间计入窗口，租约期内没用完的许可会浪费掉（少放行），
+ * 在预留之后 leaseMillis 内使用的许可会晚于记录的时间（最多多放行一个租约的量），leaseMillis 越小误差越小。
+ */
+public class ZsetSlidingWindowLimiter {
+
+    private final SlidingWindowStore store;
+
+    private final String key;
+
+    private final int maxRequest;
+
+    private final long windowMillis;
+
+    private final int leaseSize;
+
+    private final long leaseMillis;
+
+    private volatile Lease lease;
+
+    public ZsetSlidingWindowLimiter(SlidingWindowStore store, String key, int maxRequest, long windowMillis, int leaseSize, long leaseMillis) {
+        this.store = store;
+        this.key = key;
+        this.maxRequest = maxRequest;
+        this.windowMillis = windowMillis;
+        this.leaseSize = Math.max(1, Math.min(leaseSize, maxRequest));
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * 尝试获取许可
+     *
+     * @return
+     */
+    public boolean tryAcquire() {
+        if (this.leaseSize == 1) {
+            return this.store.tryAcquire(this.key, 1, this.maxRequest, this.windowMillis) == 1;
+        }
+        while (true) {
+            Lease current = this.lease;
+            long now = System.currentTimeMillis();
+            if (current != null && now < current.expireTime) {
+                if (current.denied) {
+                    return false;
+                }
+                if (current.tryTake()) {
+                    return true;
+                }
+            }
+            // 租约用完或过期，只让一个线程去Redis预留，其他线程等它预留完使用新的租约
+            synchronized (this) {
+                if (this.lease != current) {
+                    continue;
+                }
+                int granted = this.store.tryAcquire(this.key, this.leaseSize, this.maxRequest, this.windowMillis);
+                // 当前请求直接使用预留到的第一个许可
+                this.lease = new Lease(granted - 1, granted == 0, System.currentTimeMillis() + this.leaseMillis);
+                return granted > 0;
+            }
+        }
+    }
+
+    private static class Lease {
+        /**
+         * 剩余的许可数
+         */
+        private final AtomicInteger remaining;
+
+        /**
+         * Redis拒绝了预留：租约期内直接拒绝
+         */
+        private final boolean denied;
+
+        /**
+         * 租约过期时间
+         */
+        private final long expireTime;
+
+        private Lease(int remaining, boolean denied, long expireTime) {
+            this.remaining = new AtomicInteger(Math.max(remaining, 0));
+            this.denied = denied;
+            this.expireTime = expireTime;
+        }
+
+        private boolean tryTake() {
+            while (true) {
+                int current = this.remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (this.remaining.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
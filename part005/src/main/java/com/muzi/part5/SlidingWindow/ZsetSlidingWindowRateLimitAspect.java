@@ -1,4 +1,86 @@
 package com.muzi.part5.SlidingWindow;
 
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式滑动窗口限流
+ * <br/><br/>
+ * {@link SlidingWindowRateLimitAspect} 的窗口在本机内存中，集群部署N个节点时整体放行的请求数是 maxRequest 的N倍。
+ * 这里窗口保存在 Redis 有序集合中（{@link RedisSlidingWindowStore}），所有节点共享；
+ * 没有Redis时可以配置 rate-limit.zset.backend=memory 使用本机内存（{@link InMemorySlidingWindowStore}）。
+ */
+@Aspect
+@Component
 public class ZsetSlidingWindowRateLimitAspect {
+
+    @Autowired
+    private SlidingWindowStore slidingWindowStore;
+
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    /**
+     * 保存每个方法的元数据（注解参数、方法签名、共用的限流器），只在第一次调用时解析
+     */
+    private final ConcurrentHashMap<Method, ManagedLimiter<ZsetSlidingWindowLimiter>> metadataMap = new ConcurrentHashMap<>();
+
+    /**
+     * 按调用方限流时，保存每个调用方的限流器，有界、会过期
+     */
+    private ConcurrentMap<String, ZsetSlidingWindowLimiter> limiters;
+
+    @PostConstruct
+    public void init() {
+        limiters = limiterCacheFactory.newCache();
+    }
+
+    @Around("@annotation(com.muzi.part5.SlidingWindow.ZsetSlidingWidowRateLimit)")
+    public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        ManagedLimiter<ZsetSlidingWindowLimiter> metadata = metadataMap.get(method);
+        if (metadata == null) {
+            metadata = metadataMap.computeIfAbsent(method, this::createMetadata);
+        }
+
+        boolean acquired = metadata.getLimiter(joinPoint, keyResolver).tryAcquire();
+        metadata.record(acquired);
+        if (acquired) {
+            return joinPoint.proceed();
+        }
+        return "服务繁忙，请稍后重试";
+    }
+
+    private ManagedLimiter<ZsetSlidingWindowLimiter> createMetadata(Method method) {
+        ZsetSlidingWidowRateLimit rateLimit = method.getAnnotation(ZsetSlidingWidowRateLimit.class);
+        // 允许的最大请求数、滑动窗口的大小(秒)，运行时可以通过 RateLimiterRegistry 变更
+        RateLimitSetting setting = new RateLimitSetting(rateLimit.maxRequest(), rateLimit.timeWindow(), 0);
+        int leaseSize = rateLimit.leaseSize();
+        int leaseMillis = rateLimit.leaseMillis();
+        // key 同时也是Redis中有序集合的key，参数变更后新的限流器继续使用原来的窗口；窗口内的请求数需要访问Redis，这里不提供
+        return rateLimiterRegistry.register(new ManagedLimiter<>(method, rateLimit.key(), "zsetSlidingWindow", setting, limiters,
+                (key, s) -> new ZsetSlidingWindowLimiter(slidingWindowStore, key, s.getLimit(),
+                        TimeUnit.SECONDS.toMillis(s.getTimeWindow()), leaseSize, leaseMillis), null));
+    }
 }
@@ -1,19 +1,41 @@
 package com.muzi.part5;
 
+import com.muzi.part5.Adaptive.AdaptiveConcurrencyLimit;
+import com.muzi.part5.Adaptive.AdaptiveConcurrencyLimitAspect;
+import com.muzi.part5.Adaptive.AdaptiveConcurrencyLimiter;
 import com.muzi.part5.LeakyBucket.LeakyBucketRateLimit;
+import com.muzi.part5.LoadShedding.CoDelLoadShedder;
+import com.muzi.part5.LoadShedding.LoadSheddingFilter;
+import com.muzi.part5.Quota.QuotaLimit;
+import com.muzi.part5.SemphoreTokenBucket.Bulkhead;
 import com.muzi.part5.SemphoreTokenBucket.FrequencyControl;
+import com.muzi.part5.SemphoreTokenBucket.FrequrenControlAspect;
 import com.muzi.part5.Counter.CounterRateLimit;
 import com.muzi.part5.SlidingWindow.SlidingWindowRateLimit;
+import com.muzi.part5.SlidingWindow.ZsetSlidingWidowRateLimit;
 import com.muzi.part5.TokenBucket.TokenBucketRateLimit;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @RestController
 public class TestController {
 
+    @Autowired
+    private FrequrenControlAspect frequrenControlAspect;
+
+    @Autowired
+    private AdaptiveConcurrencyLimitAspect adaptiveConcurrencyLimitAspect;
+
+    @Autowired(required = false)
+    private LoadSheddingFilter loadSheddingFilter;
+
     /**
      * Juc中的Semaphore可以实现限流功能，可以将 Semaphore 想象成停车场入口的大爷，
      * 大爷手里面拥有一定数量的停车卡（也可以说是令牌），卡的数量是多少呢？就是Semaphore构造方法中指定的，如下就是50个卡，
@@ -52,6 +74,48 @@ public class TestController {
 //            return "系统繁忙，请稍后重试";
 //        }
     }
+    /**
+     * 舱壁指标：许可数、排队数、放行数、拒绝数、排队耗时
+     *
+     * @return
+     */
+    @GetMapping("/bulkheads")
+    public Map<String, Bulkhead.BulkheadMetrics> bulkheads() {
+        return this.frequrenControlAspect.metrics();
+    }
+
+    /**
+     * 按排队时间丢弃请求的指标：是否过载、最短排队时间、每个优先级放行和丢弃的请求数
+     *
+     * @return
+     */
+    @GetMapping("/loadShedding")
+    public CoDelLoadShedder.LoadSheddingMetrics loadShedding() {
+        return this.loadSheddingFilter == null ? null : this.loadSheddingFilter.metrics();
+    }
+
+    /**
+     * 自适应并发限流：不用配置固定的限流值，并发数随下单耗时自动调整
+     *
+     * @return
+     */
+    @GetMapping("/adaptive")
+    @AdaptiveConcurrencyLimit(initialLimit = 20, maxLimit = 200)
+    public String adaptive() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(50);
+        return "下单成功";
+    }
+
+    /**
+     * 自适应并发限流的指标：当前并发数、正在执行的请求数、无排队耗时、放行数、拒绝数
+     *
+     * @return
+     */
+    @GetMapping("/adaptiveLimiters")
+    public Map<String, AdaptiveConcurrencyLimiter.AdaptiveMetrics> adaptiveLimiters() {
+        return this.adaptiveConcurrencyLimitAspect.metrics();
+    }
+
     /**
      * 固定窗口限流
      */
@@ -81,6 +145,28 @@ public class TestController {
         return "下单成功";
     }
 
+    /**
+     * 环形数组实现的滑动窗口，2秒的窗口划分为20个格子
+     *
+     * @return
+     */
+    @GetMapping("/slidingWindow2")
+    @SlidingWindowRateLimit(maxRequest = 50, timeWindow = 2, type = SlidingWindowRateLimit.Type.RING_BUFFER, buckets = 20)
+    public String slidingWindow2() {
+        return "下单成功";
+    }
+
+    /**
+     * 分布式滑动窗口：集群所有节点加起来2秒内最多50次，每个节点每次从Redis中预留10个许可
+     *
+     * @return
+     */
+    @GetMapping("/zsetSlidingWindow")
+    @ZsetSlidingWidowRateLimit(maxRequest = 50, timeWindow = 2, leaseSize = 10)
+    public String zsetSlidingWindow() {
+        return "下单成功";
+    }
+
     /**
      *
      *
@@ -92,9 +178,57 @@ public class TestController {
         return "下单成功";
     }
 
+    /**
+     * 排队的漏桶：每100ms执行一个请求，突发的请求排队等待，桶里超过20个请求才拒绝；
+     * 返回 CompletableFuture，排队时不占用请求线程
+     *
+     * @return
+     */
+    @GetMapping("/leakyBucketQueue")
+    @LeakyBucketRateLimit(capacity = 20, leakRate = 10, mode = LeakyBucketRateLimit.Mode.QUEUE, maxDelayMillis = 3000)
+    public CompletableFuture<String> leakyBucketQueue() {
+        return CompletableFuture.completedFuture("下单成功");
+    }
+
     @GetMapping("/tokenBucket")
     @TokenBucketRateLimit(permitsPerSecond = 50)
     public String tokenBucket() {
         return "下单成功";
     }
+
+    /**
+     * 按用户限流：每个用户（请求头 X-User-Id）每秒最多5次，某个用户刷接口不会影响其他用户
+     *
+     * @return
+     */
+    @GetMapping("/tokenBucketPerUser")
+    @TokenBucketRateLimit(permitsPerSecond = 5, key = "#userId")
+    public String tokenBucketPerUser() {
+        return "下单成功";
+    }
+
+    /**
+     * 多级配额：每个用户（请求头 X-User-Id）每秒20次，每个租户（请求头 X-Tenant-Id）每秒1000次，全局每秒10000次
+     *
+     * @return
+     */
+    @GetMapping("/quota")
+    @QuotaLimit(key = "#userId", permitsPerSecond = 20)
+    @QuotaLimit(key = "#tenantId", permitsPerSecond = 1000)
+    @QuotaLimit(permitsPerSecond = 10000)
+    public String quota() {
+        return "下单成功";
+    }
+
+    /**
+     * 按商品限流：每个商品每2秒最多50次
+     *
+     * @param goodsId 商品id
+     * @return
+     */
+    @GetMapping("/counterPerGoods")
+    @CounterRateLimit(maxRequest = 50, timeWindow = 2, key = "#goodsId")
+    public String counterPerGoods(@RequestParam("goodsId") String goodsId) {
+        return "下单成功";
+    }
 }
\ No newline at end of file
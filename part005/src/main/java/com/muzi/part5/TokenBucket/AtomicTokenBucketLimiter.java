@@ -0,0 +1,111 @@
+package com.muzi.part5.TokenBucket;
+
+import com.muzi.part5.Common.RefundableLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * <br/><br/>
+ * {@link com.muzi.part5.LeakyBucket.LeakyBucketLimiter} 每次获取许可都要进入 synchronized，并且按整秒漏水，
+ * 高并发时所有线程都在竞争同一把锁，漏水也是一秒一次的突发。
+ * <br/>
+ * 这里桶的全部状态只有一个 AtomicLong：令牌为0的（虚拟）时间点 zeroTime，
+ * 当前令牌数 = min(容量, (当前时间 - zeroTime) / 每个令牌的生成间隔)，
+ * 令牌数和上次补充令牌的时间都编码在这一个值里，令牌按纳秒连续补充，获取许可只需要一次CAS。
+ * 归还许可就是把 zeroTime 往前挪，一次原子加法，见 {@link RefundableLimiter}。
+ */
+public class AtomicTokenBucketLimiter implements RefundableLimiter {
+
+    /**
+     * 桶的容量
+     */
+    private final int capacity;
+
+    /**
+     * 生成一个令牌需要的时间(纳秒)
+     */
+    private final long nanosPerPermit;
+
+    /**
+     * 令牌为0的时间点(纳秒)
+     */
+    private final AtomicLong zeroTime;
+
+    /**
+     * 创建令牌桶，初始时桶是满的
+     *
+     * @param capacity         桶的容量
+     * @param permitsPerSecond 每秒生成的令牌数
+     */
+    public AtomicTokenBucketLimiter(int capacity, double permitsPerSecond) {
+        if (capacity <= 0 || permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and permitsPerSecond must be positive");
+        }
+        this.capacity = capacity;
+        this.nanosPerPermit = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.zeroTime = new AtomicLong(System.nanoTime() - this.capacity * this.nanosPerPermit);
+    }
+
+    /**
+     * 尝试获取1个许可
+     *
+     * @return
+     */
+    public boolean tryAcquire() {
+        return this.tryAcquire(1);
+    }
+
+    /**
+     * 尝试获取许可，如果获取成功返回true，否则返回false
+     *
+     * @param permits 许可数量
+     * @return
+     */
+    @Override
+    public boolean tryAcquire(int permits) {
+        long cost = permits * this.nanosPerPermit;
+        long now = System.nanoTime();
+        //桶满之后不再累积令牌：zeroTime 最早只能是 now - 容量 * 生成间隔
+        long fullTime = now - this.capacity * this.nanosPerPermit;
+        while (true) {
+            long current = this.zeroTime.get();
+            long next = Math.max(current, fullTime) + cost;
+            // 扣除令牌后 zeroTime 超过了当前时间，说明令牌不够
+            if (next - now > 0) {
+                return false;
+            }
+            if (this.zeroTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还许可
+     * <br/>
+     * 期间桶可能已经补满了，归还后 zeroTime 早于 now - 容量 * 生成间隔，
+     * 获取许可、统计令牌数时都会按容量截断，不会超过桶的容量。
+     *
+     * @param permits 许可数量
+     */
+    @Override
+    public void release(int permits) {
+        this.zeroTime.addAndGet(-permits * this.nanosPerPermit);
+    }
+
+    /**
+     * 当前可用的令牌数
+     *
+     * @return
+     */
+    public int availablePermits() {
+        long elapsed = System.nanoTime() - this.zeroTime.get();
+        return (int) Math.max(0, Math.min(this.capacity, elapsed / this.nanosPerPermit));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
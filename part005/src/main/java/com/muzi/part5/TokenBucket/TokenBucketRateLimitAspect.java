@@ -1,15 +1,22 @@
 package com.muzi.part5.TokenBucket;
 
 import com.google.common.util.concurrent.RateLimiter;
-import com.muzi.part5.TokenBucket.TokenBucketRateLimit;
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.ManagedLimiter;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Common.RateLimitSetting;
+import com.muzi.part5.Common.RateLimiterRegistry;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 
@@ -17,33 +24,57 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component
 public class TokenBucketRateLimitAspect {
 
-    // 使用ConcurrentHashMap来存储每个方法的限流器
-    private final ConcurrentHashMap<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+    @Autowired
+    private RateLimitKeyResolver keyResolver;
+
+    @Autowired
+    private LimiterCacheFactory limiterCacheFactory;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    // 存储每个方法的元数据（注解参数、方法签名、共用的限流器），只在第一次调用时解析
+    private final ConcurrentHashMap<Method, ManagedLimiter<RateLimiter>> metadataMap = new ConcurrentHashMap<>();
+
+    // 按调用方限流时，存储每个调用方的限流器，有界、会过期
+    private ConcurrentMap<String, RateLimiter> limiters;
+
+    @PostConstruct
+    public void init() {
+        limiters = limiterCacheFactory.newCache();
+    }
 
     // 环绕通知，用于在方法执行前后添加限流逻辑
     @Around("@annotation(com.muzi.part5.TokenBucket.TokenBucketRateLimit)")
     public Object rateLimit(ProceedingJoinPoint joinPoint) throws Throwable {
-        // 获取方法签名，用于获取方法信息
-        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
         // 根据方法签名获取方法对象
-        Method method = signature.getMethod();
-        // 从方法对象中获取限流注解
-        TokenBucketRateLimit rateLimit = method.getAnnotation(TokenBucketRateLimit.class);
-
-        // 获取注解中定义的每秒令牌数
-        double permitsPerSecond = rateLimit.permitsPerSecond();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        ManagedLimiter<RateLimiter> metadata = metadataMap.get(method);
+        if (metadata == null) {
+            metadata = metadataMap.computeIfAbsent(method, this::createMetadata);
+        }
 
-        // 获取方法名，作为限流器的唯一标识
-        String methodName = method.toString();
-        // 如果限流器缓存中没有该方法的限流器，则创建一个新的
-        RateLimiter rateLimiter = limiters.computeIfAbsent(methodName, k -> RateLimiter.create(permitsPerSecond));
+        // 获取限流器：方法共用一个，或者每个调用方一个
+        RateLimiter rateLimiter = metadata.getLimiter(joinPoint, keyResolver);
 
         // 尝试获取令牌，如果可以获取，则继续执行方法
-        if (rateLimiter.tryAcquire()) {
+        boolean acquired = rateLimiter.tryAcquire();
+        metadata.record(acquired);
+        if (acquired) {
             return joinPoint.proceed();
         } else {
             // 如果无法获取令牌，则抛出异常，告知用户请求过于频繁
             return "服务繁忙，请稍后重试";
         }
     }
-}
\ No newline at end of file
+
+    private ManagedLimiter<RateLimiter> createMetadata(Method method) {
+        // 从方法对象中获取限流注解
+        TokenBucketRateLimit rateLimit = method.getAnnotation(TokenBucketRateLimit.class);
+        // 获取注解中定义的每秒令牌数，运行时可以通过 RateLimiterRegistry 变更
+        RateLimitSetting setting = new RateLimitSetting(0, 0, rateLimit.permitsPerSecond());
+        // Guava RateLimiter 不提供当前令牌数
+        return rateLimiterRegistry.register(new ManagedLimiter<>(method, rateLimit.key(), "tokenBucket", setting, limiters,
+                (key, s) -> RateLimiter.create(s.getRate()), null));
+    }
+}
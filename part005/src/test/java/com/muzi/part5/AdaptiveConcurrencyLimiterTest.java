@@ -0,0 +1,67 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Adaptive.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应并发限流：模拟一个同时只能处理20个请求的下游，超过20个并发时请求开始排队，耗时随排队增长
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * 下游能同时处理的请求数
+     */
+    private static final int CAPACITY = 20;
+
+    /**
+     * 不排队时的耗时(ms)
+     */
+    private static final int BASE_RTT_MS = 5;
+
+    @Test
+    public void test1() throws InterruptedException {
+        //初始并发数远大于下游的能力
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(150, 1, 200);
+        //下游：20个工作线程，每个请求处理5ms，其余请求排队
+        Semaphore downstream = new Semaphore(CAPACITY, true);
+
+        //100个线程持续请求5秒
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        CountDownLatch countDownLatch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        if (!limiter.tryAcquire()) {
+                            TimeUnit.MILLISECONDS.sleep(1);
+                            continue;
+                        }
+                        long st = System.nanoTime();
+                        downstream.acquire();
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(BASE_RTT_MS);
+                        } finally {
+                            downstream.release();
+                        }
+                        limiter.release(System.nanoTime() - st);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    countDownLatch.countDown();
+                }
+            }).start();
+        }
+        countDownLatch.await();
+        System.out.println(limiter.metrics());
+
+        //并发数从150降到下游能力附近
+        Assertions.assertTrue(limiter.getLimit() < 45, "limit: " + limiter.getLimit());
+        Assertions.assertTrue(limiter.getLimit() >= CAPACITY / 2, "limit: " + limiter.getLimit());
+    }
+}
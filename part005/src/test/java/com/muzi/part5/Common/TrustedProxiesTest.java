@@ -0,0 +1,69 @@
+package com.muzi.part5.Common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 受信任的代理：只有来自受信任的代理的请求才使用 X-Forwarded-For
+ */
+public class TrustedProxiesTest {
+
+    @Test
+    public void test1() {
+        //没有配置受信任的代理：忽略 X-Forwarded-For
+        TrustedProxies trustedProxies = trustedProxies();
+        Assertions.assertEquals("203.0.113.7", trustedProxies.clientIp(request("203.0.113.7", "1.1.1.1")));
+
+        //请求不是来自受信任的代理：忽略 X-Forwarded-For
+        trustedProxies = trustedProxies("10.0.0.0/8", "192.168.1.10");
+        Assertions.assertEquals("203.0.113.7", trustedProxies.clientIp(request("203.0.113.7", "1.1.1.1")));
+        Assertions.assertEquals("192.168.1.11", trustedProxies.clientIp(request("192.168.1.11", "1.1.1.1")));
+    }
+
+    @Test
+    public void test2() {
+        TrustedProxies trustedProxies = trustedProxies("10.0.0.0/8", "192.168.1.10");
+
+        //客户端伪造了最左边的值，取从右往左第一个不受信任的地址
+        Assertions.assertEquals("203.0.113.7", trustedProxies.clientIp(request("10.0.0.1", "1.1.1.1, 203.0.113.7")));
+        Assertions.assertEquals("203.0.113.7", trustedProxies.clientIp(request("10.0.0.1", "1.1.1.1, 203.0.113.7, 192.168.1.10, 10.1.2.3")));
+        //多个同名请求头
+        Assertions.assertEquals("203.0.113.7", trustedProxies.clientIp(request("10.0.0.1", "1.1.1.1", "203.0.113.7, 10.1.2.3")));
+
+        //全部是受信任的代理，取最左边的
+        Assertions.assertEquals("10.9.9.9", trustedProxies.clientIp(request("10.0.0.1", "10.9.9.9, 10.1.2.3")));
+        //没有 X-Forwarded-For，取直接连接的地址
+        Assertions.assertEquals("10.0.0.1", trustedProxies.clientIp(request("10.0.0.1")));
+        //不是ip的值不能作为限流的key，取离它最近的代理
+        Assertions.assertEquals("10.1.2.3", trustedProxies.clientIp(request("10.0.0.1", "unknown, 10.1.2.3")));
+    }
+
+    @Test
+    public void test3() {
+        TrustedProxies trustedProxies = trustedProxies("192.168.0.0/23", "fd00::/8");
+        Assertions.assertEquals("8.8.8.8", trustedProxies.clientIp(request("192.168.1.255", "8.8.8.8")));
+        Assertions.assertEquals("192.168.2.1", trustedProxies.clientIp(request("192.168.2.1", "8.8.8.8")));
+        Assertions.assertEquals("2001:db8::1", trustedProxies.clientIp(request("fd12::1", "2001:db8::1")));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trustedProxies("gateway.local"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trustedProxies("10.0.0.0/33"));
+    }
+
+    private static TrustedProxies trustedProxies(String... proxies) {
+        TrustedProxies trustedProxies = new TrustedProxies();
+        ReflectionTestUtils.setField(trustedProxies, "trustedProxies", proxies);
+        trustedProxies.init();
+        return trustedProxies;
+    }
+
+    private static MockHttpServletRequest request(String remoteAddr, String... forwardedFor) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        for (String value : forwardedFor) {
+            request.addHeader("X-Forwarded-For", value);
+        }
+        return request;
+    }
+}
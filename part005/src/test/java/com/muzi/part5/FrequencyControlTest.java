@@ -0,0 +1,53 @@
+package com.muzi.part5;
+
+import com.muzi.part5.SemphoreTokenBucket.Bulkhead;
+import com.muzi.part5.SemphoreTokenBucket.FrequrenControlAspect;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 信号量限流（舱壁）：/placeOrder 最多50个并发，下单耗时2秒，超过的请求最多等待1秒
+ */
+@SpringBootTest(classes = part5Application.class, properties = {
+        "rate-limit.zset.backend=memory",
+        "spring.autoconfigure.exclude=org.redisson.spring.starter.RedissonAutoConfiguration"})
+public class FrequencyControlTest {
+
+    @Autowired
+    private TestController testController;
+
+    @Autowired
+    private FrequrenControlAspect frequrenControlAspect;
+
+    @Test
+    public void test1() throws InterruptedException {
+        AtomicInteger successNum = new AtomicInteger(0);
+        AtomicInteger failNum = new AtomicInteger(0);
+
+        //模拟100个人同时下单，只有50个能拿到许可，其余的等待1秒后失败
+        LoadRunnerUtils.LoadRunnerResult loadRunnerResult = LoadRunnerUtils.run(100, 100, () -> {
+            try {
+                if ("下单成功".equals(this.testController.placeOrder())) {
+                    successNum.incrementAndGet();
+                } else {
+                    failNum.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        System.out.println(loadRunnerResult);
+        System.out.println(this.frequrenControlAspect.metrics());
+
+        Assertions.assertEquals(50, successNum.get());
+        Assertions.assertEquals(50, failNum.get());
+        Bulkhead.BulkheadMetrics metrics = this.frequrenControlAspect.metrics().values().iterator().next();
+        Assertions.assertEquals(50, metrics.getAdmitted());
+        Assertions.assertEquals(50, metrics.getRejected());
+        Assertions.assertEquals(50, metrics.getAvailablePermits());
+    }
+}
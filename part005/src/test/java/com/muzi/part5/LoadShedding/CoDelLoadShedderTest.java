@@ -0,0 +1,55 @@
+package com.muzi.part5.LoadShedding;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按排队时间丢弃请求：target 5ms，interval 100ms
+ */
+public class CoDelLoadShedderTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void test1() {
+        CoDelLoadShedder loadShedder = new CoDelLoadShedder(5, 100);
+        long now = System.nanoTime();
+
+        //突发：有请求排队20ms，但也有不排队的请求，队列能排空，不过载
+        for (int i = 0; i < 300; i++) {
+            now += MS;
+            Assertions.assertFalse(loadShedder.shouldShed(i % 10 == 0 ? 0 : 20 * MS, Priority.NORMAL, now));
+        }
+        Assertions.assertFalse(loadShedder.isOverloaded());
+
+        //持续排队：一个 interval 内最短的排队时间都超过5ms，下一个 interval 过载
+        for (int i = 0; i < 300; i++) {
+            now += MS;
+            loadShedder.shouldShed(8 * MS, Priority.CRITICAL, now);
+        }
+        Assertions.assertTrue(loadShedder.isOverloaded());
+
+        //过载时按优先级丢弃
+        now += MS;
+        Assertions.assertFalse(loadShedder.shouldShed(20 * MS, Priority.CRITICAL, now));
+        Assertions.assertTrue(loadShedder.shouldShed(20 * MS, Priority.NORMAL, now));
+        Assertions.assertFalse(loadShedder.shouldShed(8 * MS, Priority.NORMAL, now));
+        Assertions.assertTrue(loadShedder.shouldShed(6 * MS, Priority.SHEDDABLE, now));
+
+        //队列排空：一个 interval 内出现了不排队的请求，下一个 interval 恢复
+        for (int i = 0; i < 300; i++) {
+            now += MS;
+            loadShedder.shouldShed(i % 50 == 0 ? MS : 8 * MS, Priority.NORMAL, now);
+        }
+        Assertions.assertFalse(loadShedder.isOverloaded());
+        Assertions.assertFalse(loadShedder.shouldShed(6 * MS, Priority.SHEDDABLE, now + MS));
+
+        CoDelLoadShedder.LoadSheddingMetrics metrics = loadShedder.metrics();
+        System.out.println(metrics);
+        Assertions.assertEquals(1, metrics.getShed().get(Priority.NORMAL));
+        Assertions.assertEquals(1, metrics.getShed().get(Priority.SHEDDABLE));
+        Assertions.assertEquals(0, metrics.getShed().get(Priority.CRITICAL));
+    }
+}
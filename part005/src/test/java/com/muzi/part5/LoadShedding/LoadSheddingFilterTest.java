@@ -0,0 +1,62 @@
+package com.muzi.part5.LoadShedding;
+
+import com.muzi.part5.Common.TrustedProxies;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * X-Request-Start 只信任来自受信任的代理的请求：客户端伪造很早的时间不能让应用认为自己过载
+ */
+public class LoadSheddingFilterTest {
+
+    @Test
+    public void test1() throws Exception {
+        LoadSheddingFilter filter = filter("10.0.0.0/8");
+
+        //客户端直接请求，带了1分钟之前的 X-Request-Start
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertEquals(200, this.doFilter(filter, "203.0.113.7"));
+            Thread.sleep(2);
+        }
+        Assertions.assertFalse(filter.metrics().isOverloaded());
+
+        //同样的请求头经过网关：排队时间超过目标，过载后丢弃
+        int shed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (this.doFilter(filter, "10.0.0.1") == 503) {
+                shed++;
+            }
+            Thread.sleep(2);
+        }
+        Assertions.assertTrue(filter.metrics().isOverloaded());
+        Assertions.assertTrue(shed > 0);
+    }
+
+    private int doFilter(LoadSheddingFilter filter, String remoteAddr) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/counter");
+        request.setRemoteAddr(remoteAddr);
+        request.addHeader("X-Request-Start", "t=" + (System.currentTimeMillis() - 60_000));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response.getStatus();
+    }
+
+    private static LoadSheddingFilter filter(String... proxies) {
+        TrustedProxies trustedProxies = new TrustedProxies();
+        ReflectionTestUtils.setField(trustedProxies, "trustedProxies", proxies);
+        trustedProxies.init();
+
+        LoadSheddingFilter filter = new LoadSheddingFilter();
+        ReflectionTestUtils.setField(filter, "targetMillis", 5L);
+        ReflectionTestUtils.setField(filter, "intervalMillis", 1L);
+        ReflectionTestUtils.setField(filter, "criticalPaths", new String[0]);
+        ReflectionTestUtils.setField(filter, "sheddablePaths", new String[0]);
+        ReflectionTestUtils.setField(filter, "trustedProxies", trustedProxies);
+        filter.init();
+        return filter;
+    }
+}
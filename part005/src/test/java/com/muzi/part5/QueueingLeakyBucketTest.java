@@ -0,0 +1,129 @@
+package com.muzi.part5;
+
+import com.muzi.part5.LeakyBucket.LeakyBucketRateLimit;
+import com.muzi.part5.TokenBucket.TokenBucketRateLimit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 排队的漏桶：/leakyBucketQueue 每100ms漏出一个请求，桶的容量20；排队后在工作线程中执行时仍能取到请求上下文和MDC
+ */
+@SpringBootTest(classes = {part5Application.class, QueueingLeakyBucketTest.QueueingConfig.class}, properties = {
+        "rate-limit.zset.backend=memory",
+        "spring.autoconfigure.exclude=org.redisson.spring.starter.RedissonAutoConfiguration"})
+public class QueueingLeakyBucketTest {
+
+    @Autowired
+    private TestController testController;
+
+    @Autowired
+    private QueueingService queueingService;
+
+    @Test
+    public void test1() {
+        //一次突发30个请求：20个进入桶中排队，10个拒绝
+        long startTime = System.nanoTime();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        List<Long> doneTimes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(this.testController.leakyBucketQueue().whenComplete((result, e) -> {
+                synchronized (doneTimes) {
+                    if ("下单成功".equals(result)) {
+                        doneTimes.add(System.nanoTime() - startTime);
+                    }
+                }
+            }));
+        }
+        //排队不占用请求线程
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        Assertions.assertTrue(submitMillis < 500, "submit cost " + submitMillis + "ms");
+
+        //被拒绝的请求立即返回；提交期间每过100ms会多漏出一个请求，放行的请求可能略多于20个
+        long rejectNum = futures.stream().filter(future -> future.isDone() && !"下单成功".equals(future.join())).count();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        Assertions.assertEquals(30, rejectNum + doneTimes.size());
+        Assertions.assertTrue(doneTimes.size() >= 20 && doneTimes.size() <= 20 + submitMillis / 100 + 1, "passed " + doneTimes.size());
+
+        //按固定速率漏出：第k个请求在 k*100ms 左右执行
+        doneTimes.sort(Long::compare);
+        System.out.println(doneTimes.stream().map(TimeUnit.NANOSECONDS::toMillis).collect(Collectors.toList()));
+        for (int k = 0; k < doneTimes.size(); k++) {
+            long doneMillis = TimeUnit.NANOSECONDS.toMillis(doneTimes.get(k));
+            Assertions.assertTrue(doneMillis >= k * 100 - 20, "request " + k + " done at " + doneMillis + "ms");
+        }
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(doneTimes.get(doneTimes.size() - 1)) < 2500 + submitMillis);
+    }
+
+    @Test
+    public void test2() {
+        //第1个请求立即执行，后面2个排队；里面按用户每秒限1次，排队后执行时取到的仍然是各自请求中的用户
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String userId : new String[]{"u1", "u1", "u2"}) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader("X-User-Id", userId);
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            MDC.put("traceId", "trace-" + futures.size());
+            try {
+                futures.add(this.queueingService.queue());
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+                MDC.clear();
+            }
+        }
+        Assertions.assertEquals("u1 trace-0", futures.get(0).join());
+        Assertions.assertEquals("服务繁忙，请稍后重试", futures.get(1).join());
+        Assertions.assertEquals("u2 trace-2", futures.get(2).join());
+    }
+
+    @TestConfiguration
+    static class QueueingConfig {
+
+        @Bean
+        public PerUserService perUserService() {
+            return new PerUserService();
+        }
+
+        @Bean
+        public QueueingService queueingService(PerUserService perUserService) {
+            return new QueueingService(perUserService);
+        }
+    }
+
+    static class QueueingService {
+
+        private final PerUserService perUserService;
+
+        QueueingService(PerUserService perUserService) {
+            this.perUserService = perUserService;
+        }
+
+        @LeakyBucketRateLimit(capacity = 10, leakRate = 10, mode = LeakyBucketRateLimit.Mode.QUEUE)
+        public CompletableFuture<String> queue() {
+            return CompletableFuture.completedFuture(this.perUserService.call());
+        }
+    }
+
+    static class PerUserService {
+
+        @TokenBucketRateLimit(permitsPerSecond = 1, key = "#userId")
+        public String call() {
+            HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+            return request.getHeader("X-User-Id") + " " + MDC.get("traceId");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Common.RefundableLimiter;
+import com.muzi.part5.Quota.QuotaChain;
+import com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多级配额获取许可的开销：1~3级无锁令牌桶组成的 {@link QuotaChain}，
+ * 以及最后一级拒绝、前面两级归还许可的情况，和用一把锁包住3级的写法对比。
+ * <br/>
+ * 运行 main 方法即可，需要先编译测试代码（mvn test-compile）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuotaChainBenchmark {
+
+    private RefundableLimiter[] oneLevel;
+
+    private RefundableLimiter[] twoLevels;
+
+    private RefundableLimiter[] threeLevels;
+
+    /**
+     * 最后一级每10秒一个令牌，几乎每次都拒绝
+     */
+    private RefundableLimiter[] rejectAtLastLevel;
+
+    @Setup
+    public void setup() {
+        this.oneLevel = new RefundableLimiter[]{newLimiter()};
+        this.twoLevels = new RefundableLimiter[]{newLimiter(), newLimiter()};
+        this.threeLevels = new RefundableLimiter[]{newLimiter(), newLimiter(), newLimiter()};
+        this.rejectAtLastLevel = new RefundableLimiter[]{newLimiter(), newLimiter(), new AtomicTokenBucketLimiter(1, 0.1)};
+    }
+
+    @Benchmark
+    public int oneLevel() {
+        return QuotaChain.tryAcquire(this.oneLevel, 1);
+    }
+
+    @Benchmark
+    public int twoLevels() {
+        return QuotaChain.tryAcquire(this.twoLevels, 1);
+    }
+
+    @Benchmark
+    public int threeLevels() {
+        return QuotaChain.tryAcquire(this.threeLevels, 1);
+    }
+
+    @Benchmark
+    public int rejectAtLastLevel() {
+        return QuotaChain.tryAcquire(this.rejectAtLastLevel, 1);
+    }
+
+    @Benchmark
+    public int threeLevelsSynchronized() {
+        synchronized (this) {
+            return QuotaChain.tryAcquire(this.threeLevels, 1);
+        }
+    }
+
+    private static AtomicTokenBucketLimiter newLimiter() {
+        return new AtomicTokenBucketLimiter(1_000_000_000, 1_000_000_000);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QuotaChainBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,91 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Common.RateLimiterChange;
+import com.muzi.part5.Common.RateLimiterInfo;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * 多级配额：/quota 每个用户20、每个租户50、全局80，补充令牌的速度调到很慢，测试期间可以忽略
+ */
+@SpringBootTest(classes = part5Application.class, properties = {
+        "rate-limit.zset.backend=memory",
+        "spring.autoconfigure.exclude=org.redisson.spring.starter.RedissonAutoConfiguration"})
+public class QuotaRateLimitTest {
+
+    @Autowired
+    private TestController testController;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    @Test
+    public void test1() {
+        this.call("0", "0", 1);
+        this.change(0, 20);
+        this.change(1, 50);
+        this.change(2, 80);
+
+        //用户级别
+        Assertions.assertEquals(20, this.call("A", "user1", 30));
+        Assertions.assertEquals(20, this.call("A", "user2", 20));
+        //租户A的配额用完，user3被租户级别拒绝的10次，用户级别的许可归还了
+        Assertions.assertEquals(10, this.call("A", "user3", 20));
+        Assertions.assertEquals(10, this.call("B", "user3", 20));
+        //全局的配额用完，被拒绝的请求不消耗租户C和user5的配额
+        Assertions.assertEquals(20, this.call("C", "user4", 30));
+        Assertions.assertEquals(0, this.call("C", "user5", 10));
+
+        Assertions.assertEquals(30, this.info(0).getRejected());
+        Assertions.assertEquals(10, this.info(1).getRejected());
+        Assertions.assertEquals(10, this.info(2).getRejected());
+        //包括第一次调用
+        Assertions.assertEquals(81, this.info(2).getPassed());
+        Assertions.assertEquals(80, this.info(2).getUsed());
+
+        //全局的配额恢复后，租户C和user5还有完整的配额
+        this.rateLimiterRegistry.resetRateLimiter(this.info(2).getName());
+        Assertions.assertEquals(20, this.call("C", "user5", 30));
+    }
+
+    /**
+     * 把第 level 级的容量调为 capacity，每10秒补充一个
+     */
+    private void change(int level, int capacity) {
+        RateLimiterChange change = new RateLimiterChange();
+        change.setName(this.info(level).getName());
+        change.setLimit(capacity);
+        change.setRate(0.1);
+        this.rateLimiterRegistry.changeRateLimiter(change);
+    }
+
+    private int call(String tenantId, String userId, int times) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Tenant-Id", tenantId);
+        request.addHeader("X-User-Id", userId);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            int successNum = 0;
+            for (int i = 0; i < times; i++) {
+                if ("下单成功".equals(this.testController.quota())) {
+                    successNum++;
+                }
+            }
+            return successNum;
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    private RateLimiterInfo info(int level) {
+        return this.rateLimiterRegistry.rateLimiterInfoList().stream()
+                .filter(info -> info.getName().endsWith("TestController.quota()@" + level))
+                .findFirst().orElseThrow(IllegalStateException::new);
+    }
+}
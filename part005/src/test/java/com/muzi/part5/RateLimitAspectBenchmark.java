@@ -0,0 +1,146 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import com.muzi.part5.Common.RateLimitKeyResolver;
+import com.muzi.part5.Counter.CounterRateLimit;
+import com.muzi.part5.Counter.CounterRateLimitAspect;
+import com.muzi.part5.LeakyBucket.LeakyBucketRateLimit;
+import com.muzi.part5.LeakyBucket.LeakyBucketRateLimitAspect;
+import com.muzi.part5.Quota.QuotaLimit;
+import com.muzi.part5.Quota.QuotaRateLimitAspect;
+import com.muzi.part5.SlidingWindow.SlidingWindowRateLimit;
+import com.muzi.part5.SlidingWindow.SlidingWindowRateLimitAspect;
+import com.muzi.part5.TokenBucket.TokenBucketRateLimit;
+import com.muzi.part5.TokenBucket.TokenBucketRateLimitAspect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流切面的开销：通过 AspectJProxyFactory 代理被限流的方法，测量每次调用的耗时，
+ * 限流值设置得足够大，测到的是切面本身（获取注解、计算key、查找限流器）加上限流器的开销。
+ * <br/>
+ * 运行 main 方法即可，需要先编译测试代码（mvn test-compile）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitAspectBenchmark {
+
+    public static class OrderService {
+
+        public String direct() {
+            return "下单成功";
+        }
+
+        @CounterRateLimit(maxRequest = Integer.MAX_VALUE, timeWindow = 1)
+        public String counter() {
+            return "下单成功";
+        }
+
+        @SlidingWindowRateLimit(maxRequest = 8_000_000, timeWindow = 1, type = SlidingWindowRateLimit.Type.RING_BUFFER)
+        public String slidingWindow() {
+            return "下单成功";
+        }
+
+        @TokenBucketRateLimit(permitsPerSecond = 1_000_000_000)
+        public String tokenBucket() {
+            return "下单成功";
+        }
+
+        @LeakyBucketRateLimit(capacity = 1_000_000_000, leakRate = 1_000_000_000)
+        public String leakyBucket() {
+            return "下单成功";
+        }
+
+        @QuotaLimit(key = "#userId", permitsPerSecond = 1_000_000_000)
+        @QuotaLimit(key = "#tenantId", permitsPerSecond = 1_000_000_000)
+        @QuotaLimit(permitsPerSecond = 1_000_000_000)
+        public String quota(String tenantId, String userId) {
+            return "下单成功";
+        }
+    }
+
+    private OrderService target;
+
+    private OrderService proxy;
+
+    @Setup
+    public void setup() {
+        LimiterCacheFactory limiterCacheFactory = new LimiterCacheFactory();
+        ReflectionTestUtils.setField(limiterCacheFactory, "maximumSize", 100000L);
+        ReflectionTestUtils.setField(limiterCacheFactory, "expireAfterAccess", 600L);
+        RateLimiterRegistry rateLimiterRegistry = new RateLimiterRegistry();
+        RateLimitKeyResolver keyResolver = new RateLimitKeyResolver();
+
+        this.target = new OrderService();
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(this.target);
+        proxyFactory.setProxyTargetClass(true);
+        for (Object aspect : new Object[]{new CounterRateLimitAspect(), new SlidingWindowRateLimitAspect(),
+                new TokenBucketRateLimitAspect(), new LeakyBucketRateLimitAspect(), new QuotaRateLimitAspect()}) {
+            ReflectionTestUtils.setField(aspect, "keyResolver", keyResolver);
+            ReflectionTestUtils.setField(aspect, "limiterCacheFactory", limiterCacheFactory);
+            ReflectionTestUtils.setField(aspect, "rateLimiterRegistry", rateLimiterRegistry);
+            ReflectionTestUtils.invokeMethod(aspect, "init");
+            proxyFactory.addAspect(aspect);
+        }
+        this.proxy = proxyFactory.getProxy();
+    }
+
+    @Benchmark
+    public String direct() {
+        return this.target.direct();
+    }
+
+    @Benchmark
+    public String proxyWithoutLimit() {
+        return this.proxy.direct();
+    }
+
+    @Benchmark
+    public String counter() {
+        return this.proxy.counter();
+    }
+
+    @Benchmark
+    public String slidingWindow() {
+        return this.proxy.slidingWindow();
+    }
+
+    @Benchmark
+    public String tokenBucket() {
+        return this.proxy.tokenBucket();
+    }
+
+    @Benchmark
+    public String leakyBucket() {
+        return this.proxy.leakyBucket();
+    }
+
+    @Benchmark
+    public String quota() {
+        return this.proxy.quota("tenant1", "user1");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RateLimitAspectBenchmark.class.getSimpleName()).build()).run();
+    }
+}
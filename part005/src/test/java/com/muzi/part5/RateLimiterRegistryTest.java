@@ -0,0 +1,97 @@
+package com.muzi.part5;
+
+import com.muzi.part5.Common.RateLimiterChange;
+import com.muzi.part5.Common.RateLimiterInfo;
+import com.muzi.part5.Common.RateLimiterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * 运行时变更限流参数：/counter 注解上是2秒50次，变更为2秒100次
+ */
+@SpringBootTest(classes = part5Application.class, properties = {
+        "rate-limit.zset.backend=memory",
+        "spring.autoconfigure.exclude=org.redisson.spring.starter.RedissonAutoConfiguration"})
+public class RateLimiterRegistryTest {
+
+    @Autowired
+    private TestController testController;
+
+    @Autowired
+    private RateLimiterRegistry rateLimiterRegistry;
+
+    @Test
+    public void test1() {
+        Assertions.assertEquals(50, this.call(60));
+        RateLimiterInfo info = this.info("counter()");
+        Assertions.assertEquals(50, info.getPassed());
+        Assertions.assertEquals(10, info.getRejected());
+        Assertions.assertEquals(50, info.getUsed());
+
+        //变更后按新参数重新创建计数器
+        RateLimiterChange change = new RateLimiterChange();
+        change.setName(info.getName());
+        change.setLimit(100);
+        this.rateLimiterRegistry.changeRateLimiter(change);
+        Assertions.assertEquals(100, this.call(120));
+        info = this.info("counter()");
+        Assertions.assertEquals(100, info.getSetting().getLimit());
+        Assertions.assertEquals(2, info.getSetting().getTimeWindow());
+        Assertions.assertEquals(150, info.getPassed());
+        Assertions.assertEquals(30, info.getRejected());
+
+        //恢复注解上的参数
+        this.rateLimiterRegistry.resetRateLimiter(info.getName());
+        Assertions.assertEquals(50, this.call(60));
+    }
+
+    @Test
+    public void test2() {
+        this.testController.counterPerGoods("1");
+        RateLimiterInfo info = this.info("counterPerGoods(java.lang.String)");
+
+        //只调小商品1的限流
+        RateLimiterChange change = new RateLimiterChange();
+        change.setName(info.getName() + "#1");
+        change.setLimit(5);
+        this.rateLimiterRegistry.changeRateLimiter(change);
+        Assertions.assertEquals(5, this.callPerGoods("1", 60));
+        Assertions.assertEquals(50, this.callPerGoods("2", 60));
+        Assertions.assertEquals(5, this.info("counterPerGoods(java.lang.String)").getKeySettings().get(change.getName()).getLimit());
+
+        //不存在的限流器、不合法的参数
+        change.setName("none");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.rateLimiterRegistry.changeRateLimiter(change));
+        change.setName(info.getName());
+        change.setLimit(-1);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.rateLimiterRegistry.changeRateLimiter(change));
+    }
+
+    private int call(int times) {
+        int successNum = 0;
+        for (int i = 0; i < times; i++) {
+            if ("下单成功".equals(this.testController.counter())) {
+                successNum++;
+            }
+        }
+        return successNum;
+    }
+
+    private int callPerGoods(String goodsId, int times) {
+        int successNum = 0;
+        for (int i = 0; i < times; i++) {
+            if ("下单成功".equals(this.testController.counterPerGoods(goodsId))) {
+                successNum++;
+            }
+        }
+        return successNum;
+    }
+
+    private RateLimiterInfo info(String method) {
+        return this.rateLimiterRegistry.rateLimiterInfoList().stream()
+                .filter(info -> info.getName().endsWith("TestController." + method))
+                .findFirst().orElseThrow(IllegalStateException::new);
+    }
+}
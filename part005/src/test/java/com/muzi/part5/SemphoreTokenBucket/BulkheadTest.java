@@ -0,0 +1,45 @@
+package com.muzi.part5.SemphoreTokenBucket;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应舱壁：下游变慢时许可数下降，基线重置后恢复到配置的许可数
+ */
+public class BulkheadTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void test1() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(20, false, true, 2, TimeUnit.MILLISECONDS.toNanos(800));
+
+        //正常耗时1ms
+        this.run(bulkhead, 1 * MS, 3);
+        Assertions.assertEquals(20, bulkhead.metrics().getMaxPermits());
+
+        //下游变慢到10ms，许可数下降
+        this.run(bulkhead, 10 * MS, 3);
+        int reduced = bulkhead.metrics().getMaxPermits();
+        Assertions.assertTrue(reduced < 20, "reduced: " + reduced);
+
+        //一直是10ms，基线重置后不再判定为变慢，许可数逐步恢复
+        this.run(bulkhead, 10 * MS, 25);
+        Assertions.assertEquals(20, bulkhead.metrics().getMaxPermits());
+    }
+
+    /**
+     * 跑 windows 个窗口，每个窗口20个样本
+     */
+    private void run(Bulkhead bulkhead, long executeNanos, int windows) throws InterruptedException {
+        for (int w = 0; w < windows; w++) {
+            Thread.sleep(110);
+            for (int i = 0; i < 20; i++) {
+                Assertions.assertTrue(bulkhead.tryAcquire(1, TimeUnit.SECONDS));
+                bulkhead.release(executeNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.muzi.part5.SlidingWindow;
+
+import com.muzi.part5.Common.LimiterCacheFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.Redisson;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisConnectionException;
+import org.redisson.config.Config;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Redis 滑动窗口：Lua 脚本需要本机的Redis（-Dredis.address，默认 redis://127.0.0.1:6379），连不上时跳过；
+ * Redis 故障的处理使用 mock 的 RedissonClient
+ */
+public class RedisSlidingWindowStoreTest {
+
+    @Test
+    public void test1() throws InterruptedException {
+        RedissonClient redissonClient = connect();
+        Assumptions.assumeTrue(redissonClient != null, "没有可用的Redis");
+        try {
+            RedisSlidingWindowStore store = store(redissonClient, "deny", 1000);
+            String key = "test1:" + UUID.randomUUID();
+
+            //1秒内最多5个，额度不够时只给剩余的
+            Assertions.assertEquals(3, store.tryAcquire(key, 3, 5, 1000));
+            Assertions.assertEquals(2, store.tryAcquire(key, 3, 5, 1000));
+            Assertions.assertEquals(0, store.tryAcquire(key, 1, 5, 1000));
+            //脚本设置了过期时间
+            long ttl = redissonClient.getKeys().remainTimeToLive("rate_limit:zset:" + key);
+            Assertions.assertTrue(ttl > 0 && ttl <= 1000, "ttl=" + ttl);
+
+            //窗口滑过之后额度恢复
+            TimeUnit.MILLISECONDS.sleep(1100);
+            Assertions.assertEquals(5, store.tryAcquire(key, 5, 5, 1000));
+        } finally {
+            redissonClient.shutdown();
+        }
+    }
+
+    @Test
+    public void test2() {
+        //Redis 不可用：local 使用本机窗口兜底，失败后重试间隔内不再访问 Redis
+        AtomicBoolean redisDown = new AtomicBoolean(true);
+        AtomicInteger evalCalls = new AtomicInteger();
+        RedisSlidingWindowStore store = store(mockRedis(redisDown, evalCalls), "local", 60000);
+        Assertions.assertEquals(2, store.tryAcquire("test2", 2, 3, 1000));
+        Assertions.assertEquals(1, store.tryAcquire("test2", 2, 3, 1000));
+        Assertions.assertEquals(0, store.tryAcquire("test2", 2, 3, 1000));
+        Assertions.assertEquals(1, evalCalls.get());
+
+        //allow：全部放行；deny：全部拒绝
+        Assertions.assertEquals(10, store(mockRedis(redisDown, evalCalls), "allow", 60000).tryAcquire("test2", 10, 3, 1000));
+        Assertions.assertEquals(0, store(mockRedis(redisDown, evalCalls), "deny", 60000).tryAcquire("test2", 1, 3, 1000));
+    }
+
+    @Test
+    public void test3() throws InterruptedException {
+        //重试间隔过后再访问 Redis，成功则恢复
+        AtomicBoolean redisDown = new AtomicBoolean(true);
+        AtomicInteger evalCalls = new AtomicInteger();
+        RedisSlidingWindowStore store = store(mockRedis(redisDown, evalCalls), "deny", 50);
+        Assertions.assertEquals(0, store.tryAcquire("test3", 1, 3, 1000));
+        redisDown.set(false);
+        Assertions.assertEquals(0, store.tryAcquire("test3", 1, 3, 1000));
+        Assertions.assertEquals(1, evalCalls.get());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        Assertions.assertEquals(1, store.tryAcquire("test3", 1, 3, 1000));
+        Assertions.assertEquals(1, store.tryAcquire("test3", 1, 3, 1000));
+        Assertions.assertEquals(3, evalCalls.get());
+    }
+
+    private static RedisSlidingWindowStore store(RedissonClient redissonClient, String failurePolicy, long retryIntervalMillis) {
+        LimiterCacheFactory limiterCacheFactory = new LimiterCacheFactory();
+        ReflectionTestUtils.setField(limiterCacheFactory, "maximumSize", 1000L);
+        ReflectionTestUtils.setField(limiterCacheFactory, "expireAfterAccess", 600L);
+        RedisSlidingWindowStore store = new RedisSlidingWindowStore();
+        ReflectionTestUtils.setField(store, "redissonClient", redissonClient);
+        ReflectionTestUtils.setField(store, "limiterCacheFactory", limiterCacheFactory);
+        ReflectionTestUtils.setField(store, "failurePolicyName", failurePolicy);
+        ReflectionTestUtils.setField(store, "retryIntervalMillis", retryIntervalMillis);
+        store.init();
+        return store;
+    }
+
+    /**
+     * eval 在 redisDown 为 true 时抛出连接异常，否则返回1
+     */
+    private static RedissonClient mockRedis(AtomicBoolean redisDown, AtomicInteger evalCalls) {
+        RScript script = Mockito.mock(RScript.class, invocation -> {
+            if (!"eval".equals(invocation.getMethod().getName())) {
+                return null;
+            }
+            evalCalls.incrementAndGet();
+            if (redisDown.get()) {
+                throw new RedisConnectionException("Unable to connect to Redis server");
+            }
+            return 1L;
+        });
+        RedissonClient redissonClient = Mockito.mock(RedissonClient.class);
+        Mockito.when(redissonClient.getScript(Mockito.any())).thenReturn(script);
+        return redissonClient;
+    }
+
+    private static RedissonClient connect() {
+        Config config = new Config();
+        config.useSingleServer()
+                .setAddress(System.getProperty("redis.address", "redis://127.0.0.1:6379"))
+                .setConnectTimeout(1000)
+                .setTimeout(1000)
+                .setRetryAttempts(0);
+        try {
+            return Redisson.create(config);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.muzi.part5;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.muzi.part5.LeakyBucket.LeakyBucketLimiter;
+import com.muzi.part5.TokenBucket.AtomicTokenBucketLimiter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 限流器 tryAcquire 吞吐量对比：LeakyBucketLimiter（synchronized）、Guava RateLimiter、AtomicTokenBucketLimiter（CAS）
+ * <br/>
+ * 1~64个线程，每个线程在固定时间内不停调用 tryAcquire，统计每秒调用次数和获取成功的许可数
+ */
+public class TokenBucketLimiterBenchmark {
+
+    /**
+     * 每轮压测的时长(ms)
+     */
+    private static final long DURATION_MS = 2000;
+
+    /**
+     * 限流速率，5万/秒
+     */
+    private static final int RATE = 50_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+        System.out.println(String.format("%-30s %8s %16s %16s", "limiter", "threads", "calls/s", "acquired/s"));
+        for (int threads : threadCounts) {
+            LeakyBucketLimiter leakyBucketLimiter = LeakyBucketLimiter.createLimiter("benchmark-" + threads, RATE, RATE);
+            RateLimiter rateLimiter = RateLimiter.create(RATE);
+            AtomicTokenBucketLimiter atomicLimiter = new AtomicTokenBucketLimiter(RATE, RATE);
+
+            run("LeakyBucketLimiter", threads, leakyBucketLimiter::tryAcquire);
+            run("Guava RateLimiter", threads, rateLimiter::tryAcquire);
+            run("AtomicTokenBucketLimiter", threads, atomicLimiter::tryAcquire);
+        }
+    }
+
+    private static void run(String name, int threads, BooleanSupplier tryAcquire) throws InterruptedException {
+        LongAdder calls = new LongAdder();
+        LongAdder acquired = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS + 200);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                long localCalls = 0, localAcquired = 0;
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        //每次检查时间前调用多次，减少 nanoTime 对结果的影响
+                        for (int j = 0; j < 64; j++) {
+                            if (tryAcquire.getAsBoolean()) {
+                                localAcquired++;
+                            }
+                        }
+                        localCalls += 64;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    calls.add(localCalls);
+                    acquired.add(localAcquired);
+                    end.countDown();
+                }
+            }).start();
+        }
+        long st = System.nanoTime();
+        start.countDown();
+        end.await();
+        double seconds = (System.nanoTime() - st) / 1e9;
+        System.out.println(String.format("%-30s %8d %16.0f %16.0f", name, threads, calls.sum() / seconds, acquired.sum() / seconds));
+    }
+}
@@ -0,0 +1,56 @@
+package com.muzi.part5;
+
+import com.muzi.part5.SlidingWindow.SlidingWindowStore;
+import com.muzi.part5.SlidingWindow.ZsetSlidingWindowLimiter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分布式滑动窗口限流，使用内存中的滑动窗口代替Redis
+ */
+@SpringBootTest(classes = part5Application.class, properties = {
+        "rate-limit.zset.backend=memory",
+        "spring.autoconfigure.exclude=org.redisson.spring.starter.RedissonAutoConfiguration"})
+public class ZsetSlidingWindowRateLimitTest {
+
+    @Autowired
+    private TestController testController;
+
+    @Autowired
+    private SlidingWindowStore slidingWindowStore;
+
+    @Test
+    public void test1() {
+        //2秒内最多50次，每次预留10个许可
+        int successNum = 0;
+        for (int i = 0; i < 100; i++) {
+            if ("下单成功".equals(this.testController.zsetSlidingWindow())) {
+                successNum++;
+            }
+        }
+        Assertions.assertEquals(50, successNum);
+    }
+
+    @Test
+    public void test2() {
+        //租约模式下，50个许可只需要访问5次存储；额度用完后访问1次存储被拒绝，租约期内剩下的请求直接在本地拒绝
+        AtomicInteger storeCalls = new AtomicInteger();
+        SlidingWindowStore countingStore = (key, permits, maxRequest, windowMillis) -> {
+            storeCalls.incrementAndGet();
+            return this.slidingWindowStore.tryAcquire(key, permits, maxRequest, windowMillis);
+        };
+        ZsetSlidingWindowLimiter limiter = new ZsetSlidingWindowLimiter(countingStore, "test2", 50, 2000, 10, 1000);
+        int successNum = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire()) {
+                successNum++;
+            }
+        }
+        Assertions.assertEquals(50, successNum);
+        Assertions.assertEquals(6, storeCalls.get());
+    }
+}
@@ -0,0 +1,46 @@
+package com.muzi.part6;
+
+import com.muzi.part6.aggregation.AggregationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 必需的数据源失败时返回503，告诉调用方是哪个数据源、稍后重试，而不是笼统的500
+ * <br/>
+ * 同步接口 join() 抛出的是包装了 AggregationException 的 CompletionException，没有处理 CompletionException 的方法时 Spring MVC 按 cause 匹配；
+ * 异步接口返回的 future 失败时，Spring MVC 先解开 CompletionException，同样由这里处理。
+ */
+@RestControllerAdvice
+public class GlobalExceptionHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobalExceptionHandler.class);
+
+    /**
+     * 处理必需的数据源超时、异常
+     *
+     * @param e
+     * @param request
+     * @return
+     */
+    @ExceptionHandler(AggregationException.class)
+    public ResponseEntity<Map<String, Object>> handleAggregationException(AggregationException e, HttpServletRequest request) {
+        LOGGER.warn("请求：{}，{}", request.getRequestURI(), e.getMessage());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("code", HttpStatus.SERVICE_UNAVAILABLE.value());
+        body.put("message", e.getCause() instanceof TimeoutException ? "服务繁忙，请稍后重试" : "服务暂时不可用，请稍后重试");
+        body.put("unavailable", e.getKey());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(body);
+    }
+}
@@ -1,15 +1,25 @@
-package com.itsoku.lesson006;
+package com.muzi.part6;
 
-import com.muzi.part6.GoodsDetailResponse;
+import com.muzi.part6.aggregation.AggregationEngine;
+import com.muzi.part6.aggregation.AggregationPlan;
+import com.muzi.part6.aggregation.BatchLoader;
+import com.muzi.part6.aggregation.DataKey;
+import com.muzi.part6.aggregation.NearCache;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -20,8 +30,102 @@ public class GoodsController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GoodsController.class);
 
+    private static final DataKey<String> GOODS_INFO = DataKey.of("goodsInfo");
+
+    private static final DataKey<String> GOODS_DESCRIPTION = DataKey.of("goodsDescription");
+
+    private static final DataKey<Integer> COMMENT_COUNT = DataKey.of("commentCount");
+
+    private static final DataKey<Integer> FAVORITE_COUNT = DataKey.of("favoriteCount");
+
+    @Autowired
+    private ThreadPoolTaskExecutor goodsBatchThreadPool;
+
     @Autowired
-    private ThreadPoolTaskExecutor goodsThreadPool;
+    private ThreadPoolTaskScheduler goodsBatchScheduler;
+
+    @Autowired
+    private AggregationEngine goodsAggregationEngine;
+
+    /**
+     * 合并请求：5ms内所有请求的商品id合并成一次批量查询，最多100个，相同的商品id只查一次
+     */
+    private BatchLoader<String, String> goodsInfoLoader;
+
+    private BatchLoader<String, Integer> goodsCommentCountLoader;
+
+    private BatchLoader<String, String> goodsDescriptionLoader;
+
+    private BatchLoader<String, Integer> goodsFavoriteCountLoader;
+
+    /**
+     * 本地缓存：基本信息、描述很少变化，缓存10分钟，8分钟后提前刷新；评论量、收藏量缓存10秒，5秒后提前刷新
+     */
+    private NearCache<String, String> goodsInfoCache;
+
+    private NearCache<String, String> goodsDescriptionCache;
+
+    private NearCache<String, Integer> goodsCommentCountCache;
+
+    private NearCache<String, Integer> goodsFavoriteCountCache;
+
+    /**
+     * 商品详情的数据源，4个数据源互不依赖，并行加载
+     * <br/>
+     * 新增数据源只需要再注册一个 loader，依赖其他数据的（比如根据商品基本信息查店铺）通过 dependsOn 声明，引擎会等依赖加载完成后再执行
+     * <br/>
+     * 商品基本信息是必需的，失败时整个请求失败；描述、评论量、收藏量超过150ms使用默认值；整个请求最多等待250ms，
+     * 响应时间由预算决定，而不是最慢的那个后端
+     */
+    private AggregationPlan<String, GoodsDetailResponse> goodsDetailPlan;
+
+    @PostConstruct
+    public void init() {
+        this.goodsInfoLoader = new BatchLoader<>("goodsInfo", this::getGoodsInfoBatch,
+                this.goodsBatchThreadPool, this.goodsBatchScheduler.getScheduledExecutor(), 5, 100);
+        this.goodsCommentCountLoader = new BatchLoader<>("goodsCommentCount", this::getGoodsCommentCountBatch,
+                this.goodsBatchThreadPool, this.goodsBatchScheduler.getScheduledExecutor(), 5, 100);
+        this.goodsDescriptionLoader = new BatchLoader<>("goodsDescription", this::getGoodsDescriptionBatch,
+                this.goodsBatchThreadPool, this.goodsBatchScheduler.getScheduledExecutor(), 5, 100);
+        this.goodsFavoriteCountLoader = new BatchLoader<>("goodsFavoriteCount", this::getGoodsFavoriteCountBatch,
+                this.goodsBatchThreadPool, this.goodsBatchScheduler.getScheduledExecutor(), 5, 100);
+
+        this.goodsInfoCache = new NearCache<>("goodsInfo", this.goodsInfoLoader::load,
+                10000, TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(8));
+        this.goodsDescriptionCache = new NearCache<>("goodsDescription", this.goodsDescriptionLoader::load,
+                10000, TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(8));
+        this.goodsCommentCountCache = new NearCache<>("goodsCommentCount", this.goodsCommentCountLoader::load,
+                10000, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(5));
+        this.goodsFavoriteCountCache = new NearCache<>("goodsFavoriteCount", this.goodsFavoriteCountLoader::load,
+                10000, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(5));
+
+        this.goodsDetailPlan = AggregationPlan.<String, GoodsDetailResponse>builder()
+                // 1、获取商品基本信息，耗时100ms，本地缓存 -> 合并请求批量查询
+                .asyncLoader(GOODS_INFO, context -> this.goodsInfoCache.get(context.getParam()))
+                //2、获取商品描述信息，耗时100ms，本地缓存 -> 合并请求批量查询
+                .asyncLoader(GOODS_DESCRIPTION, context -> this.goodsDescriptionCache.get(context.getParam()))
+                //3、获取商品评论量，耗时100ms，本地缓存 -> 合并请求批量查询
+                .asyncLoader(COMMENT_COUNT, context -> this.goodsCommentCountCache.get(context.getParam()))
+                //4、获取商品收藏量，耗时100ms，本地缓存 -> 合并请求批量查询
+                .asyncLoader(FAVORITE_COUNT, context -> this.goodsFavoriteCountCache.get(context.getParam()))
+                .timeout(GOODS_DESCRIPTION, 150)
+                .fallback(GOODS_DESCRIPTION, "")
+                .timeout(COMMENT_COUNT, 150)
+                .fallback(COMMENT_COUNT, 0)
+                .timeout(FAVORITE_COUNT, 150)
+                .fallback(FAVORITE_COUNT, 0)
+                .budget(250)
+                .assembler(context -> {
+                    GoodsDetailResponse goodsDetailResponse = new GoodsDetailResponse();
+                    goodsDetailResponse.setGoodsInfo(context.get(GOODS_INFO));
+                    goodsDetailResponse.setGoodsDescription(context.get(GOODS_DESCRIPTION));
+                    goodsDetailResponse.setCommentCount(context.get(COMMENT_COUNT));
+                    goodsDetailResponse.setFavoriteCount(context.get(FAVORITE_COUNT));
+                    goodsDetailResponse.setDegradedFields(context.getDegradedKeys());
+                    return goodsDetailResponse;
+                })
+                .build();
+    }
 
     /**
      * 根据商品id获取商品信息(基本信息、描述信息、评论量，收藏量)
@@ -60,26 +164,52 @@ public class GoodsController {
     @GetMapping("/getGoodsDetailNew")
     public GoodsDetailResponse getGoodsDetailNew(@RequestParam("goodsId") String goodsId) {
         long st = System.currentTimeMillis();
-        GoodsDetailResponse goodsDetailResponse = new GoodsDetailResponse();
 
-        // 1、获取商品基本信息，耗时100ms
-        CompletableFuture<Void> goodsInfoCf = CompletableFuture.runAsync(() -> goodsDetailResponse.setGoodsInfo(this.getGoodsInfo(goodsId)), this.goodsThreadPool);
+        //按聚合计划在线程池中并行加载各个数据源，等待组装完成
+        GoodsDetailResponse goodsDetailResponse = this.goodsAggregationEngine.execute(this.goodsDetailPlan, goodsId).join();
 
-        //2、获取商品描述信息，耗时100ms
-        CompletableFuture<Void> goodsDescriptionCf = CompletableFuture.runAsync(() -> goodsDetailResponse.setGoodsDescription(this.getGoodsDescription(goodsId)), this.goodsThreadPool);
+        LOGGER.info("获取商品信息，使用线程池并行查询耗时：{} ms", (System.currentTimeMillis() - st));
 
-        //3、获取商品评论量，耗时100ms
-        CompletableFuture<Void> goodsCommentCountCf = CompletableFuture.runAsync(() -> goodsDetailResponse.setCommentCount(this.getGoodsCommentCount(goodsId)), this.goodsThreadPool);
+        return goodsDetailResponse;
+    }
 
-        //4、获取商品收藏量，耗时100ms
-        CompletableFuture<Void> goodsFavoriteCountCf = CompletableFuture.runAsync(() -> goodsDetailResponse.setFavoriteCount(this.getGoodsFavoriteCount(goodsId)), this.goodsThreadPool);
+    /**
+     * 获取商品详情，异步返回
+     * <br/>
+     * 和 {@link #getGoodsDetailNew(String)} 一样按聚合计划加载，但直接返回 CompletableFuture，不在 Tomcat 线程中 join 等待：
+     * Spring MVC 以 Servlet 异步请求处理，数据源加载期间 Tomcat 线程被释放去处理其他请求，future 完成后再由容器线程写出响应
+     *
+     * @param goodsId
+     * @return
+     */
+    @GetMapping("/getGoodsDetailAsync")
+    public CompletableFuture<GoodsDetailResponse> getGoodsDetailAsync(@RequestParam("goodsId") String goodsId) {
+        long st = System.currentTimeMillis();
 
-        //等待上面执行结束
-        CompletableFuture.allOf(goodsInfoCf, goodsDescriptionCf, goodsCommentCountCf, goodsFavoriteCountCf).join();
+        return this.goodsAggregationEngine.execute(this.goodsDetailPlan, goodsId)
+                .whenComplete((goodsDetailResponse, e) -> LOGGER.info("获取商品信息，异步返回耗时：{} ms", (System.currentTimeMillis() - st)));
+    }
 
-        LOGGER.info("获取商品信息，使用线程池并行查询耗时：{} ms", (System.currentTimeMillis() - st));
+    /**
+     * 合并请求的指标：load 调用次数、合并的次数、批量接口的调用次数
+     *
+     * @return
+     */
+    @GetMapping("/goodsBatchLoaders")
+    public List<BatchLoader.BatchLoaderMetrics> goodsBatchLoaders() {
+        return Arrays.asList(this.goodsInfoLoader.metrics(), this.goodsDescriptionLoader.metrics(),
+                this.goodsCommentCountLoader.metrics(), this.goodsFavoriteCountLoader.metrics());
+    }
 
-        return goodsDetailResponse;
+    /**
+     * 本地缓存的指标：命中率、加载次数（包括提前刷新）、淘汰次数
+     *
+     * @return
+     */
+    @GetMapping("/goodsNearCaches")
+    public List<NearCache.NearCacheMetrics> goodsNearCaches() {
+        return Arrays.asList(this.goodsInfoCache.metrics(), this.goodsDescriptionCache.metrics(),
+                this.goodsCommentCountCache.metrics(), this.goodsFavoriteCountCache.metrics());
     }
 
     private int getGoodsFavoriteCount(String goodsId) {
@@ -127,4 +257,68 @@ public class GoodsController {
         return "商品基本信息";
     }
 
+    /**
+     * 批量获取商品评论量，一次调用耗时100ms
+     */
+    private Map<String, Integer> getGoodsCommentCountBatch(List<String> goodsIds) {
+        try {
+            log.info("批量获取商品评论量，{}个", goodsIds.size());
+            TimeUnit.MILLISECONDS.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        goodsIds.forEach(goodsId -> result.put(goodsId, 10000));
+        return result;
+    }
+
+    /**
+     * 批量获取商品描述，一次调用耗时100ms
+     */
+    private Map<String, String> getGoodsDescriptionBatch(List<String> goodsIds) {
+        try {
+            log.info("批量获取商品描述，{}个", goodsIds.size());
+            TimeUnit.MILLISECONDS.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        goodsIds.forEach(goodsId -> result.put(goodsId, "商品描述信息"));
+        return result;
+    }
+
+    /**
+     * 批量获取商品收藏量，一次调用耗时100ms
+     */
+    private Map<String, Integer> getGoodsFavoriteCountBatch(List<String> goodsIds) {
+        try {
+            log.info("批量获取商品收藏量，{}个", goodsIds.size());
+            TimeUnit.MILLISECONDS.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        goodsIds.forEach(goodsId -> result.put(goodsId, 10000));
+        return result;
+    }
+
+    /**
+     * 批量获取商品基本信息，一次调用耗时100ms
+     */
+    public Map<String, String> getGoodsInfoBatch(List<String> goodsIds) {
+        try {
+            log.info("批量获取商品基本信息，{}个", goodsIds.size());
+            TimeUnit.MILLISECONDS.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        goodsIds.forEach(goodsId -> result.put(goodsId, "商品基本信息"));
+        return result;
+    }
+
 }
@@ -2,6 +2,8 @@ package com.muzi.part6;
 
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 public class GoodsDetailResponse {
     //商品基本信息
@@ -15,4 +17,7 @@ public class GoodsDetailResponse {
 
     // 收藏量
     private int favoriteCount;
+
+    // 降级了的字段：数据源超时、异常时使用了默认值，前端可以据此隐藏或提示
+    private List<String> degradedFields;
 }
@@ -1,8 +1,10 @@
 package com.muzi.part6;
 
+import com.muzi.part6.aggregation.AggregationEngine;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -18,4 +20,39 @@ public class ThreadPoolConfig {
         threadPoolTaskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
         return threadPoolTaskExecutor;
     }
+
+    /**
+     * 在 goodsThreadPool 中并行加载商品详情的各个数据源
+     */
+    @Bean
+    public AggregationEngine goodsAggregationEngine(ThreadPoolTaskExecutor goodsThreadPool) {
+        return new AggregationEngine(goodsThreadPool);
+    }
+
+    /**
+     * 执行合并请求的批量调用，和 goodsThreadPool 分开：
+     * 批次由请求线程或定时器线程发出，线程池满了时直接拒绝（这一批的请求失败、降级），不能 CallerRuns 阻塞 Tomcat 线程或定时器
+     */
+    @Bean
+    public ThreadPoolTaskExecutor goodsBatchThreadPool() {
+        ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
+        threadPoolTaskExecutor.setThreadNamePrefix("ThreadPool-GoodsBatch-");
+        threadPoolTaskExecutor.setCorePoolSize(Runtime.getRuntime().availableProcessors() * 16);
+        threadPoolTaskExecutor.setMaxPoolSize(Runtime.getRuntime().availableProcessors() * 32);
+        threadPoolTaskExecutor.setQueueCapacity(Runtime.getRuntime().availableProcessors() * 16);
+        threadPoolTaskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return threadPoolTaskExecutor;
+    }
+
+    /**
+     * 合并请求时，定时发出收集到的key
+     */
+    @Bean
+    public ThreadPoolTaskScheduler goodsBatchScheduler() {
+        ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
+        threadPoolTaskScheduler.setThreadNamePrefix("Scheduler-GoodsBatch-");
+        threadPoolTaskScheduler.setPoolSize(1);
+        threadPoolTaskScheduler.setRemoveOnCancelPolicy(true);
+        return threadPoolTaskScheduler;
+    }
 }
@@ -0,0 +1,132 @@
+package com.muzi.part6.aggregation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 一次聚合的上下文：请求参数、每个数据源的结果、哪些数据源降级了
+ * <br/>
+ * 数据源只能取声明过依赖的数据，组装结果时可以取所有数据。
+ *
+ * @param <P> 请求参数类型
+ */
+public class AggregationContext<P> {
+
+    private final P param;
+
+    /**
+     * 所有数据源的key，按计划中的顺序（依赖关系排好的顺序）
+     */
+    private final List<DataKey<?>> keys;
+
+    private final Map<String, CompletableFuture<Loaded>> futures;
+
+    /**
+     * 可以取的数据，为null时可以取所有数据
+     */
+    private final Set<String> visible;
+
+    /**
+     * 超过了请求的总时间预算，还没开始的数据源不再执行
+     */
+    private volatile boolean expired;
+
+    AggregationContext(P param, List<DataKey<?>> keys) {
+        this(param, keys, new ConcurrentHashMap<>(), null);
+    }
+
+    private AggregationContext(P param, List<DataKey<?>> keys, Map<String, CompletableFuture<Loaded>> futures, Set<String> visible) {
+        this.param = param;
+        this.keys = keys;
+        this.futures = futures;
+        this.visible = visible;
+    }
+
+    public P getParam() {
+        return param;
+    }
+
+    /**
+     * 获取数据源的结果，降级时为降级值
+     *
+     * @param key 数据的key
+     * @param <T> 数据类型
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(DataKey<T> key) {
+        return (T) this.loaded(key).value;
+    }
+
+    /**
+     * 数据源是否降级了（超时、异常时使用了降级值）
+     *
+     * @param key 数据的key
+     * @return
+     */
+    public boolean isDegraded(DataKey<?> key) {
+        return this.loaded(key).degraded;
+    }
+
+    /**
+     * 所有降级了的数据源
+     *
+     * @return 数据的key，按计划中的顺序
+     */
+    public List<String> getDegradedKeys() {
+        return this.keys.stream().filter(key -> {
+            CompletableFuture<Loaded> future = this.futures.get(key.getName());
+            return future != null && future.isDone() && !future.isCompletedExceptionally() && future.join().degraded;
+        }).map(DataKey::getName).collect(Collectors.toList());
+    }
+
+    private Loaded loaded(DataKey<?> key) {
+        CompletableFuture<Loaded> future = this.futures.get(key.getName());
+        if (this.visible != null && !this.visible.contains(key.getName()) || future == null || !future.isDone()) {
+            throw new IllegalStateException(String.format("数据[%s]不可用：没有在 dependsOn 中声明依赖，或者还没有加载完成", key));
+        }
+        return future.join();
+    }
+
+    /**
+     * 给数据源使用的上下文，只能取它声明过依赖的数据
+     */
+    AggregationContext<P> forLoader(DataLoader<P, ?> loader) {
+        Set<String> dependencies = loader.getDependencies().stream().map(DataKey::getName).collect(Collectors.toSet());
+        return new AggregationContext<>(this.param, this.keys, this.futures, dependencies);
+    }
+
+    CompletableFuture<Loaded> future(DataKey<?> key) {
+        return this.futures.get(key.getName());
+    }
+
+    void register(DataKey<?> key, CompletableFuture<Loaded> future) {
+        this.futures.put(key.getName(), future);
+    }
+
+    boolean isExpired() {
+        return expired;
+    }
+
+    void expire() {
+        this.expired = true;
+    }
+
+    /**
+     * 数据源的结果：值、是否降级，一起放在 future 中，组装时不会看到值和降级标记不一致的中间状态
+     */
+    static class Loaded {
+        final Object value;
+
+        final boolean degraded;
+
+        Loaded(Object value, boolean degraded) {
+            this.value = value;
+            this.degraded = degraded;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.muzi.part6.aggregation;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 按 {@link AggregationPlan} 并行加载数据并组装响应
+ * <br/><br/>
+ * <ol>
+ *     <li>没有依赖的数据源立即提交到线程池，互相之间并行</li>
+ *     <li>有依赖的数据源在依赖全部完成后提交，通过 {@link AggregationContext#get} 拿到依赖的结果</li>
+ *     <li>数据源超时、异常时使用降级值，没有降级值时依赖它的数据源不会执行，返回的 future 以 {@link AggregationException} 结束</li>
+ *     <li>超过请求的总时间预算时，还没完成的数据源全部使用降级值，立即组装响应</li>
+ *     <li>所有数据源完成后组装响应，每个数据源只写自己的结果，不再并发写同一个响应对象</li>
+ * </ol>
+ * 超时由一个单线程的定时器触发（Java 8 没有 CompletableFuture.orTimeout），数据源正常完成时取消定时任务。
+ */
+@Slf4j
+public class AggregationEngine {
+
+    private final Executor executor;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @param executor 执行同步数据源的线程池
+     */
+    public AggregationEngine(Executor executor) {
+        this.executor = executor;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "aggregation-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //大部分数据源会在超时前完成，取消的定时任务立即从队列中移除
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 执行聚合计划
+     *
+     * @param plan  聚合计划
+     * @param param 请求参数
+     * @param <P>   请求参数类型
+     * @param <R>   响应类型
+     * @return 组装好的响应
+     */
+    @SuppressWarnings("unchecked")
+    public <P, R> CompletableFuture<R> execute(AggregationPlan<P, R> plan, P param) {
+        List<DataLoader<P, ?>> loaders = plan.getLoaders();
+        AggregationContext<P> context = new AggregationContext<>(param, plan.getKeys());
+        CompletableFuture<AggregationContext.Loaded>[] futures = new CompletableFuture[loaders.size()];
+        //先开始计时：线程池满了（CallerRunsPolicy）时数据源在当前线程中执行，这段时间也要算在预算里
+        ScheduledFuture<?> budget = plan.getBudgetMillis() > 0
+                ? this.timer.schedule(() -> this.expire(loaders, context, futures, plan.getBudgetMillis()), plan.getBudgetMillis(), TimeUnit.MILLISECONDS)
+                : null;
+        for (int i = 0; i < loaders.size(); i++) {
+            DataLoader<P, ?> loader = loaders.get(i);
+            //按依赖关系排好了序，依赖的数据源已经提交
+            CompletableFuture<?>[] dependencies = loader.getDependencies().stream().map(context::future).toArray(CompletableFuture[]::new);
+            CompletableFuture<?> loaded = dependencies.length == 0
+                    ? this.load(loader, context)
+                    : CompletableFuture.allOf(dependencies).thenCompose(v -> this.load(loader, context));
+            CompletableFuture<AggregationContext.Loaded> future = new CompletableFuture<>();
+            loaded.whenComplete((value, e) -> this.complete(loader, future, value, e));
+            context.register(loader.getKey(), future);
+            futures[i] = future;
+        }
+
+        CompletableFuture<R> result = CompletableFuture.allOf(futures).thenApply(v -> plan.getAssembler().apply(context));
+        if (budget != null) {
+            result.whenComplete((r, e) -> budget.cancel(false));
+            //预算在提交的过程中就到期了，后面提交的数据源看到 expired 不会执行，这里结束剩下的
+            if (context.isExpired()) {
+                this.expire(loaders, context, futures, plan.getBudgetMillis());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 总时间预算到期，还没完成的数据源按依赖顺序结束，依赖它的数据源看到 expired 不会再执行
+     */
+    private <P> void expire(List<DataLoader<P, ?>> loaders, AggregationContext<P> context,
+                            CompletableFuture<AggregationContext.Loaded>[] futures, long budgetMillis) {
+        context.expire();
+        TimeoutException e = new TimeoutException("超过请求的总时间预算 " + budgetMillis + "ms");
+        for (int i = 0; i < futures.length; i++) {
+            //还没有提交的数据源为null
+            CompletableFuture<AggregationContext.Loaded> future = futures[i];
+            if (future != null && !future.isDone()) {
+                this.complete(loaders.get(i), future, null, e);
+            }
+        }
+    }
+
+    /**
+     * 关闭定时器，作为 Spring Bean 时容器关闭时自动调用
+     */
+    public void shutdown() {
+        this.timer.shutdownNow();
+    }
+
+    private <P, T> CompletableFuture<T> load(DataLoader<P, T> loader, AggregationContext<P> aggregationContext) {
+        if (aggregationContext.isExpired()) {
+            return failed(new TimeoutException("超过请求的总时间预算，不再执行"));
+        }
+        AggregationContext<P> context = aggregationContext.forLoader(loader);
+        CompletableFuture<T> future;
+        if (loader.isAsync()) {
+            try {
+                future = loader.getAsyncLoader().apply(context).toCompletableFuture();
+            } catch (Throwable e) {
+                return failed(e);
+            }
+        } else {
+            future = CompletableFuture.supplyAsync(() -> loader.getLoader().apply(context), this.executor);
+        }
+        return this.withTimeout(future, loader);
+    }
+
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, DataLoader<?, T> loader) {
+        if (loader.getTimeoutMillis() <= 0 || future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = this.timer.schedule(
+                () -> result.completeExceptionally(new TimeoutException("数据源[" + loader.getKey() + "]超时 " + loader.getTimeoutMillis() + "ms")),
+                loader.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        future.whenComplete((value, e) -> {
+            timeout.cancel(false);
+            if (e == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 数据源结束：正常完成、超时或异常时使用降级值，没有降级值时以 {@link AggregationException} 结束
+     * <br/>
+     * 依赖的数据源失败时，cause 已经是依赖的 AggregationException，直接传递，调用方看到的是最初失败的那个数据源
+     * <br/>
+     * 正常完成和总时间预算到期可能同时发生，future 只会被完成一次
+     */
+    private <T> void complete(DataLoader<?, T> loader, CompletableFuture<AggregationContext.Loaded> future, Object value, Throwable e) {
+        if (e == null) {
+            future.complete(new AggregationContext.Loaded(value, false));
+            return;
+        }
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (loader.getFallback() == null) {
+            future.completeExceptionally(cause instanceof AggregationException ? cause : new AggregationException(loader.getKey(), cause));
+            return;
+        }
+        T fallbackValue;
+        try {
+            fallbackValue = loader.getFallback().apply(cause);
+        } catch (Throwable fallbackException) {
+            future.completeExceptionally(new AggregationException(loader.getKey(), fallbackException));
+            return;
+        }
+        if (future.complete(new AggregationContext.Loaded(fallbackValue, true))) {
+            log.warn("数据源[{}]降级：{}", loader.getKey(), cause.toString());
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+}
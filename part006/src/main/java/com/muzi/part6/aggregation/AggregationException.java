@@ -0,0 +1,25 @@
+package com.muzi.part6.aggregation;
+
+/**
+ * 必需的数据源（没有降级值）超时、异常，整个聚合失败
+ * <br/>
+ * 原始异常（比如 {@link java.util.concurrent.TimeoutException}）作为 cause，调用方按这个异常返回明确的错误，而不是笼统的500。
+ */
+public class AggregationException extends RuntimeException {
+
+    private final String key;
+
+    public AggregationException(DataKey<?> key, Throwable cause) {
+        super(String.format("必需的数据源[%s]失败：%s", key, cause), cause);
+        this.key = key.getName();
+    }
+
+    /**
+     * 失败的数据源
+     *
+     * @return 数据的key
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,241 @@
+package com.muzi.part6.aggregation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 聚合计划：注册数据源和它们的依赖，以及如何把所有数据组装成响应
+ * <br/><br/>
+ * 创建时校验依赖（依赖的数据源必须注册过、不能有环），并按依赖关系排好顺序，每次请求直接交给 {@link AggregationEngine} 执行。
+ * 计划是无状态的，创建一次，所有请求共用。
+ * <pre>
+ * AggregationPlan.&lt;String, GoodsDetailResponse&gt;builder()
+ *         .loader(GOODS_INFO, context -&gt; getGoodsInfo(context.getParam()))
+ *         .loader(SHOP_INFO, context -&gt; getShopInfo(context.get(GOODS_INFO)), GOODS_INFO)
+ *         .timeout(SHOP_INFO, 150)
+ *         .fallback(SHOP_INFO, "")
+ *         .budget(300)
+ *         .assembler(context -&gt; ...)
+ *         .build();
+ * </pre>
+ * 没有降级值的数据源是必需的，失败时整个聚合以 {@link AggregationException} 失败；有降级值的数据源超时、异常时使用降级值，
+ * 通过 {@link AggregationContext#getDegradedKeys()} 告诉调用方哪些数据是降级的。
+ *
+ * @param <P> 请求参数类型
+ * @param <R> 响应类型
+ */
+public class AggregationPlan<P, R> {
+
+    /**
+     * 按依赖关系排好序的数据源，每个数据源都排在它依赖的数据源后面
+     */
+    private final List<DataLoader<P, ?>> loaders;
+
+    private final List<DataKey<?>> keys;
+
+    private final Function<AggregationContext<P>, R> assembler;
+
+    /**
+     * 请求的总时间预算(ms)，0表示不限制
+     */
+    private final long budgetMillis;
+
+    private AggregationPlan(List<DataLoader<P, ?>> loaders, Function<AggregationContext<P>, R> assembler, long budgetMillis) {
+        this.loaders = Collections.unmodifiableList(loaders);
+        this.keys = Collections.unmodifiableList(loaders.stream().map(DataLoader::getKey).collect(Collectors.toList()));
+        this.assembler = assembler;
+        this.budgetMillis = budgetMillis;
+    }
+
+    public static <P, R> Builder<P, R> builder() {
+        return new Builder<>();
+    }
+
+    public List<DataLoader<P, ?>> getLoaders() {
+        return loaders;
+    }
+
+    public Function<AggregationContext<P>, R> getAssembler() {
+        return assembler;
+    }
+
+    /**
+     * 所有数据源的key，按依赖关系排好的顺序
+     *
+     * @return
+     */
+    public List<DataKey<?>> getKeys() {
+        return this.keys;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public static class Builder<P, R> {
+
+        private final Map<String, DataLoader<P, ?>> loaders = new LinkedHashMap<>();
+
+        private Function<AggregationContext<P>, R> assembler;
+
+        private long budgetMillis;
+
+        /**
+         * 注册同步的数据源，在线程池中执行
+         *
+         * @param key       数据的key
+         * @param loader    加载数据，可以通过 context.get 取依赖的数据
+         * @param dependsOn 依赖的数据，全部加载完成后才会执行
+         * @param <T>       数据类型
+         * @return
+         */
+        public <T> Builder<P, R> loader(DataKey<T> key, Function<AggregationContext<P>, T> loader, DataKey<?>... dependsOn) {
+            return this.add(new DataLoader<>(key, Arrays.asList(dependsOn), loader, null));
+        }
+
+        /**
+         * 注册异步的数据源，方法本身不能阻塞，直接在依赖完成的线程中调用
+         *
+         * @param key         数据的key
+         * @param asyncLoader 加载数据
+         * @param dependsOn   依赖的数据
+         * @param <T>         数据类型
+         * @return
+         */
+        public <T> Builder<P, R> asyncLoader(DataKey<T> key, Function<AggregationContext<P>, CompletionStage<T>> asyncLoader, DataKey<?>... dependsOn) {
+            return this.add(new DataLoader<>(key, Arrays.asList(dependsOn), null, asyncLoader));
+        }
+
+        /**
+         * 数据源的超时时间，从数据源开始执行（依赖都完成）时算起，超时后使用降级值，没有降级值时整个聚合失败
+         * <br/>
+         * 超时只是不再等待，已经发出的调用会继续执行完
+         *
+         * @param key           数据的key
+         * @param timeoutMillis 超时时间(ms)
+         * @return
+         */
+        public Builder<P, R> timeout(DataKey<?> key, long timeoutMillis) {
+            if (timeoutMillis < 0) {
+                throw new IllegalArgumentException("timeoutMillis 不能小于0");
+            }
+            this.get(key).setTimeoutMillis(timeoutMillis);
+            return this;
+        }
+
+        /**
+         * 数据源超时、异常时的降级值
+         *
+         * @param key           数据的key
+         * @param fallbackValue 降级值
+         * @param <T>           数据类型
+         * @return
+         */
+        public <T> Builder<P, R> fallback(DataKey<T> key, T fallbackValue) {
+            return this.fallbackWith(key, e -> fallbackValue);
+        }
+
+        /**
+         * 数据源超时、异常时的降级方法，比如根据异常类型返回不同的值、从缓存中取旧值
+         *
+         * @param key      数据的key
+         * @param fallback 异常 -> 降级值
+         * @param <T>      数据类型
+         * @return
+         */
+        public <T> Builder<P, R> fallbackWith(DataKey<T> key, Function<Throwable, T> fallback) {
+            this.get(key).setFallback(fallback);
+            return this;
+        }
+
+        /**
+         * 请求的总时间预算，到期时还没完成的数据源使用降级值，立即组装响应，响应时间不会超过预算
+         *
+         * @param budgetMillis 总时间预算(ms)，0表示不限制
+         * @return
+         */
+        public Builder<P, R> budget(long budgetMillis) {
+            if (budgetMillis < 0) {
+                throw new IllegalArgumentException("budgetMillis 不能小于0");
+            }
+            this.budgetMillis = budgetMillis;
+            return this;
+        }
+
+        /**
+         * 所有数据源加载完成后，组装响应
+         *
+         * @param assembler
+         * @return
+         */
+        public Builder<P, R> assembler(Function<AggregationContext<P>, R> assembler) {
+            this.assembler = assembler;
+            return this;
+        }
+
+        public AggregationPlan<P, R> build() {
+            if (this.assembler == null) {
+                throw new IllegalStateException("assembler 不能为空");
+            }
+            return new AggregationPlan<>(this.sort(), this.assembler, this.budgetMillis);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> DataLoader<P, T> get(DataKey<T> key) {
+            DataLoader<P, ?> loader = this.loaders.get(key.getName());
+            if (loader == null) {
+                throw new IllegalArgumentException(String.format("数据源[%s]没有注册", key));
+            }
+            return (DataLoader<P, T>) loader;
+        }
+
+        private Builder<P, R> add(DataLoader<P, ?> loader) {
+            if (this.loaders.putIfAbsent(loader.getKey().getName(), loader) != null) {
+                throw new IllegalArgumentException(String.format("数据源[%s]重复注册", loader.getKey()));
+            }
+            return this;
+        }
+
+        /**
+         * 拓扑排序（Kahn）：依赖都排好了的数据源才能排进去，排不完说明有环
+         */
+        private List<DataLoader<P, ?>> sort() {
+            Map<String, Integer> inDegree = new LinkedHashMap<>();
+            Map<String, List<DataLoader<P, ?>>> dependents = new LinkedHashMap<>();
+            for (DataLoader<P, ?> loader : this.loaders.values()) {
+                inDegree.put(loader.getKey().getName(), loader.getDependencies().size());
+                for (DataKey<?> dependency : loader.getDependencies()) {
+                    if (!this.loaders.containsKey(dependency.getName())) {
+                        throw new IllegalArgumentException(String.format("数据源[%s]依赖的[%s]没有注册", loader.getKey(), dependency));
+                    }
+                    dependents.computeIfAbsent(dependency.getName(), k -> new ArrayList<>()).add(loader);
+                }
+            }
+            Deque<DataLoader<P, ?>> ready = new ArrayDeque<>();
+            this.loaders.values().stream().filter(loader -> loader.getDependencies().isEmpty()).forEach(ready::add);
+            List<DataLoader<P, ?>> sorted = new ArrayList<>(this.loaders.size());
+            while (!ready.isEmpty()) {
+                DataLoader<P, ?> loader = ready.poll();
+                sorted.add(loader);
+                for (DataLoader<P, ?> dependent : dependents.getOrDefault(loader.getKey().getName(), Collections.emptyList())) {
+                    if (inDegree.merge(dependent.getKey().getName(), -1, Integer::sum) == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            if (sorted.size() != this.loaders.size()) {
+                throw new IllegalArgumentException("数据源之间存在循环依赖");
+            }
+            return sorted;
+        }
+    }
+}
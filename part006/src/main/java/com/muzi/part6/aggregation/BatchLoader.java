@@ -0,0 +1,219 @@
+package com.muzi.part6.aggregation;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 合并请求、批量加载（DataLoader）
+ * <br/><br/>
+ * 高峰期大量并发请求查询相同或相邻的商品，每个请求各自调用一次后端。这里把请求合并起来：
+ * <ol>
+ *     <li>相同的key正在加载（排队或批量调用中）时，直接返回同一个 future，不再重复加载</li>
+ *     <li>新的key先排队，等待 maxWaitMillis 收集其他请求的key，或者攒够 maxBatchSize 个立即发出</li>
+ *     <li>一批key只调用一次批量接口，在线程池中执行，结果按key分发给每个请求的 future</li>
+ * </ol>
+ * 加载完成后key从正在加载中移除，之后的请求会重新加载，这里不做缓存。批量接口没有返回的key结果为null。
+ * <br/>
+ * 发出批次的可能是请求线程（攒够 maxBatchSize 个时）或单线程的定时器，批量调用必须交给线程池执行，不能在发出的线程中执行：
+ * 线程池要用有界队列和 AbortPolicy，不能用 CallerRunsPolicy，否则线程池满了时 Tomcat 线程或定时器线程会被一次批量调用阻塞，
+ * 定时器被阻塞时所有 BatchLoader 的批次都发不出去。线程池拒绝时这一批的请求以 RejectedExecutionException 结束，由降级值或调用方处理。
+ *
+ * @param <K> key类型
+ * @param <V> 值类型
+ */
+public class BatchLoader<K, V> {
+
+    private final String name;
+
+    /**
+     * 批量接口：一批key -> 每个key的值
+     */
+    private final Function<List<K>, Map<K, V>> batchFunction;
+
+    private final Executor executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 收集key的最长时间(ms)
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * 一批最多的key数量
+     */
+    private final int maxBatchSize;
+
+    /**
+     * 正在加载（排队或批量调用中）的key
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 排队等待发出的key
+     */
+    private final ConcurrentLinkedQueue<K> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * 是否已经安排了定时发出
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder loadedKeys = new LongAdder();
+
+    /**
+     * @param name          名称
+     * @param batchFunction 批量接口：一批key -> 每个key的值
+     * @param executor      执行批量接口的线程池，有界队列，拒绝时抛出 RejectedExecutionException（不能在调用者线程中执行）
+     * @param scheduler     定时发出的定时器
+     * @param maxWaitMillis 收集key的最长时间(ms)
+     * @param maxBatchSize  一批最多的key数量
+     */
+    public BatchLoader(String name, Function<List<K>, Map<K, V>> batchFunction, Executor executor,
+                       ScheduledExecutorService scheduler, long maxWaitMillis, int maxBatchSize) {
+        if (maxWaitMillis < 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxWaitMillis 不能小于0，maxBatchSize 必须大于0");
+        }
+        this.name = name;
+        this.batchFunction = batchFunction;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 加载一个key
+     *
+     * @param key
+     * @return 批量接口返回后完成
+     */
+    public CompletableFuture<V> load(K key) {
+        this.requests.increment();
+        CompletableFuture<V> future = this.pending.get(key);
+        if (future == null) {
+            CompletableFuture<V> created = new CompletableFuture<>();
+            future = this.pending.putIfAbsent(key, created);
+            if (future == null) {
+                this.enqueue(key);
+                return created;
+            }
+        }
+        this.coalesced.increment();
+        return future;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 指标
+     *
+     * @return
+     */
+    public BatchLoaderMetrics metrics() {
+        BatchLoaderMetrics metrics = new BatchLoaderMetrics();
+        metrics.setName(this.name);
+        metrics.setRequests(this.requests.sum());
+        metrics.setCoalesced(this.coalesced.sum());
+        metrics.setBatches(this.batches.sum());
+        metrics.setLoadedKeys(this.loadedKeys.sum());
+        metrics.setPending(this.pending.size());
+        return metrics;
+    }
+
+    private void enqueue(K key) {
+        this.queue.add(key);
+        if (this.queued.incrementAndGet() >= this.maxBatchSize) {
+            this.dispatch();
+        } else if (!this.scheduled.get() && this.scheduled.compareAndSet(false, true)) {
+            this.scheduler.schedule(this::dispatch, this.maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 把排队的key按 maxBatchSize 分批发出
+     * <br/>
+     * 先清除定时标记再取key：之后排队的key会安排新的定时，不会被漏掉
+     */
+    private void dispatch() {
+        this.scheduled.set(false);
+        while (true) {
+            List<K> batch = new ArrayList<>(Math.min(this.maxBatchSize, Math.max(this.queued.get(), 1)));
+            K key;
+            while (batch.size() < this.maxBatchSize && (key = this.queue.poll()) != null) {
+                batch.add(key);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            this.queued.addAndGet(-batch.size());
+            try {
+                this.executor.execute(() -> this.fetch(batch));
+            } catch (RejectedExecutionException e) {
+                batch.forEach(k -> this.pending.remove(k).completeExceptionally(e));
+            }
+            if (batch.size() < this.maxBatchSize) {
+                return;
+            }
+        }
+    }
+
+    private void fetch(List<K> batch) {
+        this.batches.increment();
+        this.loadedKeys.add(batch.size());
+        Map<K, V> values;
+        try {
+            values = this.batchFunction.apply(Collections.unmodifiableList(batch));
+        } catch (Throwable e) {
+            for (K key : batch) {
+                this.pending.remove(key).completeExceptionally(e);
+            }
+            return;
+        }
+        for (K key : batch) {
+            //先移除再完成：完成之后的请求会重新加载，不会拿到已经完成的旧 future
+            this.pending.remove(key).complete(values == null ? null : values.get(key));
+        }
+    }
+
+    @Data
+    public static class BatchLoaderMetrics {
+        //名称
+        private String name;
+        //load 调用次数，不合并时就是后端的调用次数
+        private long requests;
+        //和正在加载的相同key合并的次数
+        private long coalesced;
+        //批量接口的调用次数
+        private long batches;
+        //批量接口加载的key数量
+        private long loadedKeys;
+        //正在加载的key数量
+        private int pending;
+    }
+}
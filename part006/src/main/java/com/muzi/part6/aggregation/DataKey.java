@@ -0,0 +1,28 @@
+package com.muzi.part6.aggregation;
+
+/**
+ * 数据的key，带上数据的类型，从 {@link AggregationContext} 中取结果时不需要强转
+ *
+ * @param <T> 数据类型
+ */
+public final class DataKey<T> {
+
+    private final String name;
+
+    private DataKey(String name) {
+        this.name = name;
+    }
+
+    public static <T> DataKey<T> of(String name) {
+        return new DataKey<>(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,82 @@
+package com.muzi.part6.aggregation;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * 一个数据源：key、依赖的数据、加载数据的方法、超时时间、降级值
+ *
+ * @param <P> 请求参数类型
+ * @param <T> 数据类型
+ */
+public class DataLoader<P, T> {
+
+    private final DataKey<T> key;
+
+    private final List<DataKey<?>> dependencies;
+
+    /**
+     * 同步加载时为null
+     */
+    private final Function<AggregationContext<P>, T> loader;
+
+    /**
+     * 异步加载时不为null
+     */
+    private final Function<AggregationContext<P>, CompletionStage<T>> asyncLoader;
+
+    /**
+     * 超时时间(ms)，从数据源开始执行（依赖都完成）时算起，0表示不超时
+     */
+    private long timeoutMillis;
+
+    /**
+     * 超时、异常时的降级值，为null时异常直接抛出，整个聚合失败
+     */
+    private Function<Throwable, T> fallback;
+
+    DataLoader(DataKey<T> key, List<DataKey<?>> dependencies, Function<AggregationContext<P>, T> loader,
+               Function<AggregationContext<P>, CompletionStage<T>> asyncLoader) {
+        this.key = key;
+        this.dependencies = dependencies;
+        this.loader = loader;
+        this.asyncLoader = asyncLoader;
+    }
+
+    public DataKey<T> getKey() {
+        return key;
+    }
+
+    public List<DataKey<?>> getDependencies() {
+        return dependencies;
+    }
+
+    public Function<AggregationContext<P>, T> getLoader() {
+        return loader;
+    }
+
+    public Function<AggregationContext<P>, CompletionStage<T>> getAsyncLoader() {
+        return asyncLoader;
+    }
+
+    public boolean isAsync() {
+        return asyncLoader != null;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public Function<Throwable, T> getFallback() {
+        return fallback;
+    }
+
+    void setFallback(Function<Throwable, T> fallback) {
+        this.fallback = fallback;
+    }
+}
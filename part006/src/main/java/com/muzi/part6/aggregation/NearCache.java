@@ -0,0 +1,179 @@
+package com.muzi.part6.aggregation;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.Data;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 本地缓存（近端缓存），提前异步刷新
+ * <br/><br/>
+ * 商品基本信息、描述很少变化，却每次请求都要花100ms查询。这里在数据源前面加一层本地缓存（Guava Cache）：
+ * <ol>
+ *     <li>有界：超过 maximumSize 时淘汰最近最少使用的</li>
+ *     <li>过期：写入 expireAfterWriteMillis 后过期，下次访问重新加载</li>
+ *     <li>提前刷新：写入 refreshAfterWriteMillis 后（小于过期时间）第一次访问时异步重新加载，加载期间和加载失败时继续返回旧值，
+ *     热点数据一直有值，不会在过期的那一刻所有请求一起等待</li>
+ *     <li>防击穿：缓存的是加载中的 future，同一个key同时只有一次加载（包括刷新），并发的请求共用这一次加载的结果</li>
+ * </ol>
+ * 缓存未命中时也不阻塞调用线程，直接返回加载中的 future，可以作为 {@link AggregationPlan.Builder#asyncLoader} 使用。
+ * 加载失败的 future 会从缓存中移除，下次访问重新加载。
+ * <br/>
+ * 不做负缓存：值为null（比如 {@link BatchLoader} 批量接口没有返回的商品id）时和加载失败一样从缓存中移除，
+ * 否则先查询、后创建的商品要等到过期（基本信息10分钟）才能查到；不存在的id每次都会查询后端，并发的查询由 BatchLoader 合并。
+ * 刷新时值为null按刷新失败处理，保留旧值到过期，删除数据时需要调用 {@link #invalidate}。
+ *
+ * @param <K> key类型
+ * @param <V> 值类型
+ */
+public class NearCache<K, V> {
+
+    private final String name;
+
+    private final LoadingCache<K, CompletableFuture<V>> cache;
+
+    /**
+     * @param name                    名称
+     * @param loader                  加载数据，不能阻塞，比如 {@link BatchLoader#load}
+     * @param maximumSize             最多缓存的数量
+     * @param expireAfterWriteMillis  写入后多久过期(ms)
+     * @param refreshAfterWriteMillis 写入后多久提前刷新(ms)，需要小于过期时间
+     */
+    public NearCache(String name, Function<K, CompletableFuture<V>> loader, long maximumSize,
+                     long expireAfterWriteMillis, long refreshAfterWriteMillis) {
+        this(name, loader, maximumSize, expireAfterWriteMillis, refreshAfterWriteMillis, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker 时钟，测试时用来控制过期、提前刷新
+     */
+    NearCache(String name, Function<K, CompletableFuture<V>> loader, long maximumSize,
+              long expireAfterWriteMillis, long refreshAfterWriteMillis, Ticker ticker) {
+        if (refreshAfterWriteMillis <= 0 || refreshAfterWriteMillis >= expireAfterWriteMillis) {
+            throw new IllegalArgumentException("refreshAfterWriteMillis 必须大于0且小于 expireAfterWriteMillis");
+        }
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .refreshAfterWrite(refreshAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build(new CacheLoader<K, CompletableFuture<V>>() {
+                    @Override
+                    public CompletableFuture<V> load(K key) {
+                        CompletableFuture<V> future = NearCache.load(loader, key);
+                        //加载失败、值为null时移除，只移除这一次加载的 future
+                        future.whenComplete((value, e) -> {
+                            if (e != null || value == null) {
+                                cache.asMap().remove(key, future);
+                            }
+                        });
+                        return future;
+                    }
+
+                    @Override
+                    public ListenableFuture<CompletableFuture<V>> reload(K key, CompletableFuture<V> oldValue) {
+                        //新值加载成功后才替换旧值，失败、值为null时保留旧值，等下次访问再刷新
+                        CompletableFuture<V> future = NearCache.load(loader, key);
+                        SettableFuture<CompletableFuture<V>> reloaded = SettableFuture.create();
+                        future.whenComplete((value, e) -> {
+                            if (e != null) {
+                                reloaded.setException(e);
+                            } else if (value == null) {
+                                reloaded.setException(new IllegalStateException("刷新[" + key + "]的值为null"));
+                            } else {
+                                reloaded.set(future);
+                            }
+                        });
+                        return reloaded;
+                    }
+                });
+    }
+
+    /**
+     * 获取缓存的值，未命中时加载
+     * <br/>
+     * 加载立即失败（或立即返回null）时，移除发生在 future 放进缓存之前，不会生效，这里再移除一次
+     *
+     * @param key
+     * @return 命中时是已经完成的 future
+     */
+    public CompletableFuture<V> get(K key) {
+        CompletableFuture<V> future = this.cache.getUnchecked(key);
+        if (future.isCompletedExceptionally() || future.isDone() && future.join() == null) {
+            this.cache.asMap().remove(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * 数据变更时主动失效
+     *
+     * @param key
+     */
+    public void invalidate(K key) {
+        this.cache.invalidate(key);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 指标
+     *
+     * @return
+     */
+    public NearCacheMetrics metrics() {
+        CacheStats stats = this.cache.stats();
+        NearCacheMetrics metrics = new NearCacheMetrics();
+        metrics.setName(this.name);
+        metrics.setSize(this.cache.size());
+        metrics.setHitCount(stats.hitCount());
+        metrics.setMissCount(stats.missCount());
+        metrics.setHitRate(stats.hitRate());
+        metrics.setLoadCount(stats.loadCount());
+        metrics.setLoadExceptionCount(stats.loadExceptionCount());
+        metrics.setEvictionCount(stats.evictionCount());
+        return metrics;
+    }
+
+    private static <K, V> CompletableFuture<V> load(Function<K, CompletableFuture<V>> loader, K key) {
+        try {
+            return loader.apply(key);
+        } catch (Throwable e) {
+            CompletableFuture<V> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Data
+    public static class NearCacheMetrics {
+        //名称
+        private String name;
+        //缓存的数量
+        private long size;
+        //命中次数，包括命中加载中的 future
+        private long hitCount;
+        //未命中次数
+        private long missCount;
+        //命中率
+        private double hitRate;
+        //加载次数，包括提前刷新
+        private long loadCount;
+        //加载失败次数（只统计提前刷新，包括刷新的值为null；未命中的加载是异步的，失败时直接移除）
+        private long loadExceptionCount;
+        //淘汰次数，包括过期
+        private long evictionCount;
+    }
+}
@@ -0,0 +1,84 @@
+package com.muzi.part6;
+
+import com.muzi.part6.aggregation.AggregationEngine;
+import com.muzi.part6.aggregation.AggregationPlan;
+import com.muzi.part6.aggregation.DataKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 必需的数据源超时：同步接口（join）、异步接口（返回 future）都返回503，而不是500
+ */
+public class GlobalExceptionHandlerTest {
+
+    private static final DataKey<String> GOODS_INFO = DataKey.of("goodsInfo");
+
+    private final AggregationEngine engine = new AggregationEngine(Runnable::run);
+
+    /**
+     * 商品基本信息一直不返回，50ms超时
+     */
+    private final AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+            .asyncLoader(GOODS_INFO, context -> new CompletableFuture<>())
+            .timeout(GOODS_INFO, 50)
+            .assembler(context -> context.get(GOODS_INFO))
+            .build();
+
+    private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new TestController())
+            .setControllerAdvice(new GlobalExceptionHandler())
+            .build();
+
+    @AfterEach
+    public void shutdown() {
+        this.engine.shutdown();
+    }
+
+    @Test
+    public void test1() throws Exception {
+        this.mockMvc.perform(get("/sync"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.code").value(503))
+                .andExpect(jsonPath("$.unavailable").value("goodsInfo"));
+    }
+
+    @Test
+    public void test2() throws Exception {
+        MvcResult result = this.mockMvc.perform(get("/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(1000);
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.code").value(503))
+                .andExpect(jsonPath("$.unavailable").value("goodsInfo"));
+    }
+
+    @RestController
+    private class TestController {
+
+        @GetMapping("/sync")
+        public String sync() {
+            return engine.execute(plan, "1").join();
+        }
+
+        @GetMapping("/async")
+        public CompletableFuture<String> async() {
+            return engine.execute(plan, "1");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.muzi.part6.aggregation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 聚合引擎：依赖的结果通过 context.get 传递，只能取声明过的依赖，必需的数据源失败时依赖它的数据源不执行；
+ * 数据源超时、总时间预算到期时使用降级值，没有降级值时以 AggregationException 失败
+ * <br/>
+ * 同步数据源直接在调用线程中执行，结果是确定的；永远不完成的数据源用没有完成的 future 模拟
+ */
+public class AggregationEngineTest {
+
+    private static final DataKey<String> GOODS = DataKey.of("goods");
+
+    private static final DataKey<String> SHOP = DataKey.of("shop");
+
+    private static final DataKey<String> COMMENT = DataKey.of("comment");
+
+    private final AggregationEngine engine = new AggregationEngine(Runnable::run);
+
+    @AfterEach
+    public void shutdown() {
+        this.engine.shutdown();
+    }
+
+    @Test
+    public void test1() {
+        AtomicReference<Throwable> undeclared = new AtomicReference<>();
+        AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+                .loader(SHOP, context -> "shop of " + context.get(GOODS), GOODS)
+                .loader(GOODS, context -> "goods " + context.getParam())
+                //没有声明依赖 goods，取不到
+                .loader(COMMENT, context -> "comment of " + context.get(GOODS))
+                .fallbackWith(COMMENT, e -> {
+                    undeclared.set(e);
+                    return "";
+                })
+                .assembler(context -> context.get(GOODS) + "|" + context.get(SHOP) + "|" + context.get(COMMENT) + "|" + context.getDegradedKeys())
+                .build();
+
+        Assertions.assertEquals("goods 1|shop of goods 1||[comment]", this.engine.execute(plan, "1").join());
+        Assertions.assertTrue(undeclared.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void test2() {
+        RuntimeException down = new RuntimeException("goods service down");
+        AtomicBoolean shopLoaded = new AtomicBoolean();
+        AtomicBoolean assembled = new AtomicBoolean();
+        AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+                .loader(GOODS, context -> {
+                    throw down;
+                })
+                .loader(SHOP, context -> {
+                    shopLoaded.set(true);
+                    return "shop";
+                }, GOODS)
+                .loader(COMMENT, context -> "comment")
+                .assembler(context -> {
+                    assembled.set(true);
+                    return "";
+                })
+                .build();
+
+        CompletableFuture<String> result = this.engine.execute(plan, "1");
+        CompletionException e = Assertions.assertThrows(CompletionException.class, result::join);
+        AggregationException cause = (AggregationException) e.getCause();
+        Assertions.assertEquals("goods", cause.getKey());
+        Assertions.assertSame(down, cause.getCause());
+        Assertions.assertFalse(shopLoaded.get());
+        Assertions.assertFalse(assembled.get());
+    }
+
+    @Test
+    public void test3() {
+        AtomicReference<Throwable> timeout = new AtomicReference<>();
+        AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+                .loader(GOODS, context -> "goods")
+                //评论量一直不返回，50ms超时后使用降级值
+                .asyncLoader(COMMENT, context -> new CompletableFuture<>())
+                .timeout(COMMENT, 50)
+                .fallbackWith(COMMENT, e -> {
+                    timeout.set(e);
+                    return "0";
+                })
+                //店铺按时返回，不降级
+                .asyncLoader(SHOP, context -> CompletableFuture.completedFuture("shop of " + context.get(GOODS)), GOODS)
+                .timeout(SHOP, 50)
+                .fallback(SHOP, "")
+                .assembler(context -> context.get(SHOP) + "|" + context.get(COMMENT) + "|" + context.getDegradedKeys())
+                .build();
+
+        long start = System.currentTimeMillis();
+        Assertions.assertEquals("shop of goods|0|[comment]", this.engine.execute(plan, "1").join());
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assertions.assertTrue(timeout.get() instanceof TimeoutException);
+
+        //必需的数据源超时
+        AggregationPlan<String, String> required = AggregationPlan.<String, String>builder()
+                .asyncLoader(GOODS, context -> new CompletableFuture<>())
+                .timeout(GOODS, 50)
+                .assembler(context -> context.get(GOODS))
+                .build();
+        CompletionException e = Assertions.assertThrows(CompletionException.class, () -> this.engine.execute(required, "1").join());
+        Assertions.assertEquals("goods", ((AggregationException) e.getCause()).getKey());
+        Assertions.assertTrue(e.getCause().getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    public void test4() {
+        //没有单独的超时，总时间预算100ms到期时，没完成的评论量、依赖它还没开始的店铺都使用降级值
+        AtomicBoolean shopLoaded = new AtomicBoolean();
+        AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+                .loader(GOODS, context -> "goods")
+                .asyncLoader(COMMENT, context -> new CompletableFuture<>())
+                .fallback(COMMENT, "0")
+                .loader(SHOP, context -> {
+                    shopLoaded.set(true);
+                    return "shop";
+                }, COMMENT)
+                .fallback(SHOP, "")
+                .budget(100)
+                .assembler(context -> context.get(GOODS) + "|" + context.get(COMMENT) + "|" + context.get(SHOP) + "|" + context.getDegradedKeys())
+                .build();
+
+        long start = System.currentTimeMillis();
+        Assertions.assertEquals("goods|0||[comment, shop]", this.engine.execute(plan, "1").join());
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assertions.assertFalse(shopLoaded.get());
+
+        //必需的数据源在预算内没有完成
+        AggregationPlan<String, String> required = AggregationPlan.<String, String>builder()
+                .asyncLoader(GOODS, context -> new CompletableFuture<>())
+                .loader(COMMENT, context -> "0")
+                .budget(100)
+                .assembler(context -> context.get(GOODS))
+                .build();
+        CompletionException e = Assertions.assertThrows(CompletionException.class, () -> this.engine.execute(required, "1").join());
+        Assertions.assertEquals("goods", ((AggregationException) e.getCause()).getKey());
+        Assertions.assertTrue(e.getCause().getCause() instanceof TimeoutException);
+    }
+}
@@ -0,0 +1,70 @@
+package com.muzi.part6.aggregation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 聚合计划：按依赖关系排序，重复注册、依赖没有注册、循环依赖在创建时报错
+ */
+public class AggregationPlanTest {
+
+    private static final DataKey<String> A = DataKey.of("a");
+
+    private static final DataKey<String> B = DataKey.of("b");
+
+    private static final DataKey<String> C = DataKey.of("c");
+
+    private static final DataKey<String> D = DataKey.of("d");
+
+    @Test
+    public void test1() {
+        //注册顺序和依赖顺序相反：c -> b -> a，d 没有依赖
+        AggregationPlan<String, String> plan = AggregationPlan.<String, String>builder()
+                .loader(C, context -> "c", B)
+                .loader(B, context -> "b", A)
+                .loader(A, context -> "a")
+                .loader(D, context -> "d", A, C)
+                .assembler(context -> "")
+                .build();
+        List<String> keys = plan.getKeys().stream().map(DataKey::getName).collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList("a", "b", "c", "d"), keys);
+        Assertions.assertEquals(keys, plan.getLoaders().stream().map(loader -> loader.getKey().getName()).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void test2() {
+        //重复注册
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AggregationPlan.<String, String>builder()
+                .loader(A, context -> "a")
+                .asyncLoader(DataKey.<String>of("a"), context -> null));
+
+        //依赖的数据源没有注册
+        AggregationPlan.Builder<String, String> missing = AggregationPlan.<String, String>builder()
+                .loader(B, context -> "b", A)
+                .assembler(context -> "");
+        Assertions.assertThrows(IllegalArgumentException.class, missing::build);
+
+        //循环依赖：a -> c -> b -> a
+        AggregationPlan.Builder<String, String> cycle = AggregationPlan.<String, String>builder()
+                .loader(D, context -> "d")
+                .loader(A, context -> "a", C)
+                .loader(B, context -> "b", A)
+                .loader(C, context -> "c", B, D)
+                .assembler(context -> "");
+        Assertions.assertThrows(IllegalArgumentException.class, cycle::build);
+
+        //依赖自己
+        AggregationPlan.Builder<String, String> self = AggregationPlan.<String, String>builder()
+                .loader(A, context -> "a", A)
+                .assembler(context -> "");
+        Assertions.assertThrows(IllegalArgumentException.class, self::build);
+
+        //给没有注册的数据源配置超时，没有 assembler
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AggregationPlan.<String, String>builder().timeout(A, 100));
+        Assertions.assertThrows(IllegalStateException.class, () -> AggregationPlan.<String, String>builder().loader(A, context -> "a").build());
+    }
+}
@@ -0,0 +1,150 @@
+package com.muzi.part6.aggregation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并请求：相同的key只加载一次、maxWait 到期发出、攒够 maxBatchSize 个立即发出、批量接口异常、线程池拒绝
+ * <br/>
+ * 线程池只收集任务，定时器是 mock，由测试决定什么时候执行，结果是确定的
+ */
+public class BatchLoaderTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private final List<List<String>> batches = new ArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private RuntimeException batchException;
+
+    private boolean rejecting;
+
+    private int scheduledRun;
+
+    @BeforeEach
+    public void init() {
+        this.scheduler = Mockito.mock(ScheduledExecutorService.class);
+    }
+
+    @Test
+    public void test1() {
+        BatchLoader<String, String> loader = this.loader(100);
+        CompletableFuture<String> a = loader.load("a");
+        CompletableFuture<String> b = loader.load("b");
+        //相同的key正在加载，返回同一个 future
+        Assertions.assertSame(a, loader.load("a"));
+
+        //maxWait 到期之前不会发出
+        Assertions.assertTrue(this.tasks.isEmpty());
+        this.runScheduled(1);
+        Assertions.assertEquals(1, this.tasks.size());
+        //批量调用在线程池中执行，不在定时器线程中执行
+        Assertions.assertTrue(this.batches.isEmpty());
+        this.runTasks();
+
+        Assertions.assertEquals(Arrays.asList(Arrays.asList("a", "b")), this.batches);
+        Assertions.assertEquals("value-a", a.join());
+        Assertions.assertEquals("value-b", b.join());
+        BatchLoader.BatchLoaderMetrics metrics = loader.metrics();
+        Assertions.assertEquals(3, metrics.getRequests());
+        Assertions.assertEquals(1, metrics.getCoalesced());
+        Assertions.assertEquals(1, metrics.getBatches());
+        Assertions.assertEquals(0, metrics.getPending());
+
+        //加载完成后重新加载
+        Assertions.assertNotSame(a, loader.load("a"));
+    }
+
+    @Test
+    public void test2() {
+        BatchLoader<String, String> loader = this.loader(3);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            futures.add(loader.load("k" + i));
+        }
+        //攒够3个立即交给线程池，请求线程不执行批量调用
+        Assertions.assertEquals(2, this.tasks.size());
+        Assertions.assertTrue(this.batches.isEmpty());
+
+        //剩下的1个等 maxWait 到期，每次立即发出后再排队的key都会安排新的定时
+        this.runScheduled(3);
+        this.runTasks();
+        Assertions.assertEquals(Arrays.asList(Arrays.asList("k1", "k2", "k3"), Arrays.asList("k4", "k5", "k6"), Arrays.asList("k7")), this.batches);
+        for (int i = 1; i <= 7; i++) {
+            Assertions.assertEquals("value-k" + i, futures.get(i - 1).join());
+        }
+    }
+
+    @Test
+    public void test3() {
+        //批量接口异常，这一批的请求都以这个异常结束
+        BatchLoader<String, String> loader = this.loader(100);
+        this.batchException = new IllegalStateException("batch failed");
+        CompletableFuture<String> a = loader.load("a");
+        CompletableFuture<String> b = loader.load("b");
+        this.runScheduled(1);
+        this.runTasks();
+        Assertions.assertSame(this.batchException, Assertions.assertThrows(CompletionException.class, a::join).getCause());
+        Assertions.assertSame(this.batchException, Assertions.assertThrows(CompletionException.class, b::join).getCause());
+        Assertions.assertEquals(0, loader.metrics().getPending());
+
+        //线程池拒绝，请求立即失败，不在调用者线程中执行
+        this.rejecting = true;
+        CompletableFuture<String> c = loader.load("c");
+        this.runScheduled(2);
+        Assertions.assertTrue(Assertions.assertThrows(CompletionException.class, c::join).getCause() instanceof RejectedExecutionException);
+        Assertions.assertEquals(1, this.batches.size());
+        Assertions.assertEquals(0, loader.metrics().getPending());
+    }
+
+    private BatchLoader<String, String> loader(int maxBatchSize) {
+        return new BatchLoader<>("test", this::batch, task -> {
+            if (this.rejecting) {
+                throw new RejectedExecutionException("full");
+            }
+            this.tasks.add(task);
+        }, this.scheduler, 5, maxBatchSize);
+    }
+
+    private Map<String, String> batch(List<String> keys) {
+        this.batches.add(new ArrayList<>(keys));
+        if (this.batchException != null) {
+            throw this.batchException;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        keys.forEach(key -> values.put(key, "value-" + key));
+        return values;
+    }
+
+    /**
+     * 执行新安排的定时发出，total 为到目前为止安排的总次数，延迟都是 maxWait
+     */
+    private void runScheduled(int total) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(this.scheduler, Mockito.times(total)).schedule(captor.capture(), Mockito.eq(5L), Mockito.eq(TimeUnit.MILLISECONDS));
+        List<Runnable> scheduled = captor.getAllValues();
+        scheduled.subList(this.scheduledRun, scheduled.size()).forEach(Runnable::run);
+        this.scheduledRun = scheduled.size();
+    }
+
+    private void runTasks() {
+        List<Runnable> running = new ArrayList<>(this.tasks);
+        this.tasks.clear();
+        running.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,131 @@
+package com.muzi.part6.aggregation;
+
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地缓存：同一个key只加载一次、加载失败和null不缓存、提前刷新失败时保留旧值
+ * <br/>
+ * 时钟由测试控制（过期10秒、5秒后提前刷新），加载返回的 future 由测试完成，结果是确定的
+ */
+public class NearCacheTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    /**
+     * 每次加载返回的 future
+     */
+    private final List<CompletableFuture<String>> loads = new ArrayList<>();
+
+    private final NearCache<String, String> cache = new NearCache<>("test", key -> {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        this.loads.add(future);
+        return future;
+    }, 100, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(5), this.ticker);
+
+    @Test
+    public void test1() {
+        //加载中的并发请求共用同一次加载
+        CompletableFuture<String> first = this.cache.get("a");
+        Assertions.assertSame(first, this.cache.get("a"));
+        Assertions.assertEquals(1, this.loads.size());
+
+        this.loads.get(0).complete("v1");
+        Assertions.assertEquals("v1", this.cache.get("a").join());
+        Assertions.assertEquals(1, this.loads.size());
+
+        //加载失败：移除，下次访问重新加载
+        CompletableFuture<String> b = this.cache.get("b");
+        this.loads.get(1).completeExceptionally(new IllegalStateException("down"));
+        Assertions.assertTrue(b.isCompletedExceptionally());
+        Assertions.assertNotSame(b, this.cache.get("b"));
+        Assertions.assertEquals(3, this.loads.size());
+
+        //值为null（商品不存在）：不缓存
+        this.loads.get(2).complete(null);
+        this.cache.get("b");
+        Assertions.assertEquals(4, this.loads.size());
+    }
+
+    @Test
+    public void test2() {
+        //加载立即失败、立即返回null：放进缓存之前就完成了，get 时移除
+        NearCache<String, String> cache = new NearCache<>("test", key -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (key.equals("failed")) {
+                future.completeExceptionally(new IllegalStateException("down"));
+            } else {
+                future.complete(null);
+            }
+            this.loads.add(future);
+            return future;
+        }, 100, TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(5), this.ticker);
+
+        CompletableFuture<String> failed = cache.get("failed");
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+        Assertions.assertNotSame(failed, cache.get("failed"));
+        Assertions.assertEquals(2, this.loads.size());
+
+        cache.get("missing");
+        cache.get("missing");
+        Assertions.assertEquals(4, this.loads.size());
+        Assertions.assertEquals(0, cache.metrics().getSize());
+    }
+
+    @Test
+    public void test3() {
+        this.cache.get("a");
+        this.loads.get(0).complete("v1");
+
+        //5秒后第一次访问触发刷新，刷新期间返回旧值
+        this.ticker.advance(6, TimeUnit.SECONDS);
+        Assertions.assertEquals("v1", this.cache.get("a").join());
+        Assertions.assertEquals(2, this.loads.size());
+        Assertions.assertEquals("v1", this.cache.get("a").join());
+        Assertions.assertEquals(2, this.loads.size());
+
+        //刷新失败：保留旧值，下次访问再刷新
+        this.loads.get(1).completeExceptionally(new IllegalStateException("down"));
+        Assertions.assertEquals("v1", this.cache.get("a").join());
+        Assertions.assertEquals(3, this.loads.size());
+
+        //刷新的值为null：同样保留旧值
+        this.loads.get(2).complete(null);
+        Assertions.assertEquals("v1", this.cache.get("a").join());
+        Assertions.assertEquals(4, this.loads.size());
+
+        //刷新成功后替换
+        this.loads.get(3).complete("v2");
+        Assertions.assertEquals("v2", this.cache.get("a").join());
+        Assertions.assertEquals(4, this.loads.size());
+
+        //一直刷新失败，超过过期时间后按未命中加载
+        this.ticker.advance(6, TimeUnit.SECONDS);
+        this.cache.get("a");
+        this.loads.get(4).completeExceptionally(new IllegalStateException("down"));
+        this.ticker.advance(5, TimeUnit.SECONDS);
+        CompletableFuture<String> expired = this.cache.get("a");
+        Assertions.assertFalse(expired.isDone());
+        Assertions.assertEquals(6, this.loads.size());
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return this.nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            this.nanos += unit.toNanos(duration);
+        }
+    }
+}